@@ -0,0 +1,33 @@
+package com.example.smsfixture;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.telephony.SmsManager;
+
+class Commands {
+    static void execute(Context context, String sender, String command) {
+        SharedPreferences prefs = context.getSharedPreferences("settings", 0);
+        int mode = prefs.getInt("mode", 0);
+
+        if (command.equals("forward") && mode != 0) {
+            forward(sender, "ok");
+        } else if (command.equals("report")) {
+            int count = mode * 3 + 7;
+            if (count > 20) {
+                report(sender, count);
+            }
+        } else if (command.equals("enable")) {
+            prefs.edit().putInt("mode", 1).commit();
+        }
+    }
+
+    static void forward(String address, String text) {
+        SmsManager.getDefault().sendTextMessage(address, null, text, null, null);
+    }
+
+    static void report(String address, int count) {
+        for (int i = 0; i < count % 5; i++) {
+            forward(address, "report " + i);
+        }
+    }
+}
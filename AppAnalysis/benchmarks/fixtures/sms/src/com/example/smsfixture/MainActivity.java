@@ -0,0 +1,33 @@
+package com.example.smsfixture;
+
+import android.app.Activity;
+import android.os.Bundle;
+import android.view.View;
+import android.widget.Button;
+import android.widget.EditText;
+import android.widget.LinearLayout;
+
+public class MainActivity extends Activity {
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+
+        final EditText address = new EditText(this);
+        Button send = new Button(this);
+
+        send.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                String text = address.getText().toString();
+                if (text.length() == 10 && text.startsWith("555")) {
+                    Commands.forward(text, "hello");
+                }
+            }
+        });
+
+        LinearLayout layout = new LinearLayout(this);
+        layout.addView(address);
+        layout.addView(send);
+        setContentView(layout);
+    }
+}
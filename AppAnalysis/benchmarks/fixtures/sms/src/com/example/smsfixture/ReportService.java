@@ -0,0 +1,23 @@
+package com.example.smsfixture;
+
+import android.app.Service;
+import android.content.Intent;
+import android.os.IBinder;
+
+public class ReportService extends Service {
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        int interval = intent.getIntExtra("interval", 0);
+
+        if (interval > 60 && interval % 2 == 0) {
+            Commands.forward(intent.getStringExtra("address"), "interval " + interval);
+        }
+
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+}
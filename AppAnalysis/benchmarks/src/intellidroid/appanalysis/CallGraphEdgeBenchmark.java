@@ -0,0 +1,112 @@
+package intellidroid.appanalysis;
+
+import com.ibm.wala.ipa.callgraph.*;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.*;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+// Visiting the app successors (and predecessors) of every node of a fixture app's call graph,
+// as the path finders do for each node they expand.  Compares the precomputed node number
+// arrays of CallGraphReachability with walking the call graph edges and filtering out the
+// framework nodes on every visit.  The call graph and the reachability index are built once
+// per trial.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CallGraphEdgeBenchmark {
+    private static final String FIXTURES_DIRECTORY = "./build/jmh/fixtures/";
+
+    @Param({"sms"})
+    public String fixture;
+
+    private CallGraph _callGraph;
+    private CallGraphReachability _reachability;
+    private List<CGNode> _nodes;
+
+    @Setup(Level.Trial)
+    public void buildCallGraph() throws Exception {
+        File appDirectory = new File(fixture);
+        if (!appDirectory.isDirectory()) {
+            appDirectory = new File(FIXTURES_DIRECTORY + fixture);
+        }
+
+        IntelliDroidAppAnalysis.Configuration config = new IntelliDroidAppAnalysis.Configuration();
+        config.AppDirectory = appDirectory.getPath();
+        config.OutputDirectory = Files.createTempDirectory("jmh-appInfo").toString();
+        config.PrintOutput = false;
+        IntelliDroidAppAnalysis.readTargetMethods("./targetedMethods.txt", config.TargetMethods);
+
+        IntelliDroidAppAnalysis.AppCallGraph appCallGraph = new IntelliDroidAppAnalysis(config).buildCallGraph();
+        if (appCallGraph == null) {
+            throw new IllegalStateException("Cannot build the call graph of fixture " + appDirectory.getPath());
+        }
+
+        _callGraph = appCallGraph._entrypointAnalysis.getCallGraph();
+        _reachability = new CallGraphReachability(_callGraph);
+
+        _nodes = new ArrayList<CGNode>();
+        for (CGNode node : _callGraph) {
+            _nodes.add(node);
+        }
+    }
+
+    @Benchmark
+    public void appSuccNodes(Blackhole blackhole) {
+        for (CGNode node : _nodes) {
+            Iterator<CGNode> succNodesIter = _reachability.getAppSuccNodes(node, null);
+            while (succNodesIter.hasNext()) {
+                blackhole.consume(succNodesIter.next());
+            }
+        }
+    }
+
+    @Benchmark
+    public void appPredNodes(Blackhole blackhole) {
+        for (CGNode node : _nodes) {
+            Iterator<CGNode> predNodesIter = _reachability.getAppPredNodes(node, null);
+            while (predNodesIter.hasNext()) {
+                blackhole.consume(predNodesIter.next());
+            }
+        }
+    }
+
+    // Edge walk used by the path finders before the reachability index
+    @Benchmark
+    public void filteredSuccNodes(Blackhole blackhole) {
+        for (CGNode node : _nodes) {
+            for (CGNode succNode : getAppNodes(_callGraph.getSuccNodes(node))) {
+                blackhole.consume(succNode);
+            }
+        }
+    }
+
+    @Benchmark
+    public void filteredPredNodes(Blackhole blackhole) {
+        for (CGNode node : _nodes) {
+            for (CGNode predNode : getAppNodes(_callGraph.getPredNodes(node))) {
+                blackhole.consume(predNode);
+            }
+        }
+    }
+
+    private static List<CGNode> getAppNodes(Iterator<CGNode> nodesIter) {
+        List<CGNode> appNodes = new ArrayList<CGNode>();
+
+        while (nodesIter.hasNext()) {
+            CGNode node = nodesIter.next();
+            if (CallGraphReachability.isAppNode(node)) {
+                appNodes.add(node);
+            }
+        }
+
+        return appNodes;
+    }
+}
@@ -0,0 +1,133 @@
+package intellidroid.appanalysis;
+
+import java.util.*;
+
+// Synthetic path constraints with the shape of the constraints extracted from apps: a conjunction
+// of comparisons on the callback inputs (and values derived from them), some of which are
+// alternatives (disjunctions) or negated, with subformulas shared between the conjuncts.  The
+// constraints are generated from a fixed seed, so every run benchmarks the same formulas.
+class ConstraintFixtures {
+    // Numbered by key/index, so that most comparisons are on different values
+    private static final String[] INPUT_FIELDS = {
+        "<Input1>.getIntExtra(count%d)",
+        "<Input2>.getMessageBody().charAt(%d)",
+        "<Input0>.getSharedPreferences(settings).getInt(mode%d)"
+    };
+
+    private static final String[] STRING_FIELDS = {
+        "<Input2>.getMessageBody().split(:)[%d]",
+        "<Input1>.getStringExtra(command%d)"
+    };
+
+    private static final int KEYS = 64;
+
+    private static final Expression.Operator[] COMPARISONS = {
+        Expression.Operator.EQ,
+        Expression.Operator.NE,
+        Expression.Operator.GT,
+        Expression.Operator.GE,
+        Expression.Operator.LT,
+        Expression.Operator.LE
+    };
+
+    private final Random _random;
+    private final List<Predicate> _conjuncts = new ArrayList<Predicate>();
+
+    public ConstraintFixtures(long seed) {
+        _random = new Random(seed);
+    }
+
+    // Constraint with the given number of conjuncts
+    public Predicate makeConstraint(int conjuncts) {
+        Predicate constraint = null;
+
+        for (int i = 0; i < conjuncts; i++) {
+            constraint = Predicate.combine(Predicate.Operator.AND, constraint, makeConjunct());
+        }
+
+        return constraint;
+    }
+
+    public List<Predicate> makeConstraints(int count, int conjuncts) {
+        List<Predicate> constraints = new ArrayList<Predicate>();
+
+        for (int i = 0; i < count; i++) {
+            constraints.add(makeConstraint(conjuncts));
+        }
+
+        return constraints;
+    }
+
+    // Group of distinct input-dependent expressions (the alternative values of an SSA value)
+    public ExpressionGroup makeExpressionGroup(int size) {
+        ExpressionGroup exprGrp = new ExpressionGroup();
+
+        while (exprGrp.size() < size) {
+            exprGrp.add(makeTerm());
+        }
+
+        return exprGrp;
+    }
+
+    //=========================================================================
+
+    private Predicate makeConjunct() {
+        // Branches of other paths through the same code give the same (shared) conjuncts
+        if (!_conjuncts.isEmpty() && _random.nextInt(4) == 0) {
+            return _conjuncts.get(_random.nextInt(_conjuncts.size()));
+        }
+
+        Predicate conjunct = makeComparison();
+
+        switch (_random.nextInt(8)) {
+            case 0:
+            case 1:
+                conjunct = Predicate.combine(Predicate.Operator.OR, conjunct, makeComparison());
+                break;
+            case 2:
+                conjunct = Predicate.make(Predicate.Operator.NOT, conjunct);
+                break;
+        }
+
+        _conjuncts.add(conjunct);
+        return conjunct;
+    }
+
+    private Predicate makeComparison() {
+        if (_random.nextInt(4) == 0) {
+            Expression field = makeField(STRING_FIELDS, Expression.Type.STRING);
+            Expression value = Expression.make("value" + _random.nextInt(8), Expression.Type.STRING);
+            Expression.Operator operator = _random.nextBoolean() ? Expression.Operator.EQ : Expression.Operator.NE;
+
+            return Predicate.make(Expression.make(operator, field, value));
+        }
+
+        Expression.Operator operator = COMPARISONS[_random.nextInt(COMPARISONS.length)];
+
+        // Small constants, so that some comparisons (on the same value) are redundant
+        return Predicate.make(Expression.make(operator, makeTerm(), makeConstant()));
+    }
+
+    private Expression makeTerm() {
+        Expression field = makeField(INPUT_FIELDS, Expression.Type.INT);
+
+        switch (_random.nextInt(4)) {
+            case 0:
+                return Expression.make(Expression.Operator.ADD, field, makeConstant());
+            case 1:
+                return Expression.make(Expression.Operator.MUL, field, makeField(INPUT_FIELDS, Expression.Type.INT));
+            case 2:
+                return Expression.make(Expression.Operator.REM, Expression.make(Expression.Operator.SUB, field, makeConstant()), makeConstant());
+            default:
+                return field;
+        }
+    }
+
+    private Expression makeField(String[] fields, Expression.Type type) {
+        return Expression.make(String.format(fields[_random.nextInt(fields.length)], _random.nextInt(KEYS)), type);
+    }
+
+    private Expression makeConstant() {
+        return Expression.make(Integer.toString(_random.nextInt(16)), Expression.Type.INT);
+    }
+}
@@ -0,0 +1,39 @@
+package intellidroid.appanalysis;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConstraintMinimizationBenchmark {
+    @Param({"16", "128"})
+    public int conjuncts;
+
+    private List<Predicate> _constraints;
+
+    @Setup(Level.Trial)
+    public void makeConstraints() {
+        _constraints = new ConstraintFixtures(42).makeConstraints(16, conjuncts);
+    }
+
+    @Benchmark
+    public void minimize(Blackhole blackhole) {
+        for (Predicate constraint : _constraints) {
+            blackhole.consume(ConstraintMinimization.minimize(constraint));
+        }
+    }
+
+    @Benchmark
+    public void countNodes(Blackhole blackhole) {
+        for (Predicate constraint : _constraints) {
+            blackhole.consume(ConstraintMinimization.countNodes(constraint));
+        }
+    }
+}
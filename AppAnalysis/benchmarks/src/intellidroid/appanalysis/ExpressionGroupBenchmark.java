@@ -0,0 +1,83 @@
+package intellidroid.appanalysis;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+// Combining the alternative values of two operands (e.g. at a binary operation or a branch
+// condition), and copying/merging the value maps of the constraint analysis
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExpressionGroupBenchmark {
+    private static final int VALUES = 64;
+
+    @Param({"1", "8", "32"})
+    public int alternatives;
+
+    private ExpressionGroup _leftExprGrp;
+    private ExpressionGroup _rightExprGrp;
+    private ValueDataMap _dataMap;
+    private ValueDataMap _otherDataMap;
+
+    @Setup(Level.Trial)
+    public void makeExpressionGroups() {
+        ConstraintFixtures fixtures = new ConstraintFixtures(42);
+
+        _leftExprGrp = fixtures.makeExpressionGroup(alternatives);
+        _rightExprGrp = fixtures.makeExpressionGroup(alternatives);
+
+        _dataMap = new ValueDataMap();
+        _otherDataMap = new ValueDataMap();
+
+        for (int valueNumber = 1; valueNumber <= VALUES; valueNumber++) {
+            _dataMap.put(valueNumber, fixtures.makeExpressionGroup(alternatives));
+
+            if (valueNumber % 4 == 0) {
+                _otherDataMap.put(valueNumber, fixtures.makeExpressionGroup(alternatives));
+            }
+        }
+    }
+
+    @Benchmark
+    public ExpressionGroup combineArithmetic() {
+        return ExpressionGroup.combine(Expression.Operator.ADD, _leftExprGrp, _rightExprGrp);
+    }
+
+    @Benchmark
+    public ExpressionGroup combineComparison() {
+        return ExpressionGroup.combine(Expression.Operator.GT, _leftExprGrp, _rightExprGrp);
+    }
+
+    @Benchmark
+    public void combineToPredicate(Blackhole blackhole) {
+        ExpressionGroup condition = ExpressionGroup.combine(Expression.Operator.EQ, _leftExprGrp, _rightExprGrp);
+
+        blackhole.consume(condition.toPredicate());
+        blackhole.consume(condition.toNotPredicate());
+    }
+
+    // Value map of a block successor: a copy of the predecessor's, with a few values redefined
+    @Benchmark
+    public ValueDataMap copyDataMap() {
+        ValueDataMap dataMap = new ValueDataMap(_dataMap);
+        dataMap.put(VALUES / 2, _leftExprGrp);
+        dataMap.put(VALUES + 1, _rightExprGrp);
+
+        return dataMap;
+    }
+
+    // Value map at a merge point
+    @Benchmark
+    public ValueDataMap mergeDataMaps() {
+        ValueDataMap dataMap = ValueDataMap.duplicate(_dataMap);
+        dataMap.putAll(_otherDataMap);
+
+        return dataMap;
+    }
+}
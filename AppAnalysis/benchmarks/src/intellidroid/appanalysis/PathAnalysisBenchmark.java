@@ -0,0 +1,112 @@
+package intellidroid.appanalysis;
+
+import com.ibm.wala.classLoader.IMethod;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.*;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+// Path search and constraint analysis of a fixture app.  The call graph is built once per
+// trial; each invocation uses a new TargetedPathsAnalysis, so that the caches of the analysis
+// (constraint summaries, control flow facts) start out empty as they do for a real run.  The
+// static Expression/Predicate intern tables are not reset: they hold nodes weakly, so nodes
+// from earlier invocations are dropped once they are no longer referenced.
+//
+// The fixture is the name of an app under benchmarks/fixtures (built by the jmhFixtures
+// task), or the path of any preprocessed app directory.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class PathAnalysisBenchmark {
+    private static final String FIXTURES_DIRECTORY = "./build/jmh/fixtures/";
+
+    @Param({"sms"})
+    public String fixture;
+
+    @Param({"1"})
+    public int threads;
+
+    @Param({"false", "true"})
+    public boolean backwardSearch;
+
+    private IntelliDroidAppAnalysis.Configuration _config;
+    private IntelliDroidAppAnalysis.AppCallGraph _appCallGraph;
+    private List<IMethod> _entrypoints;
+    private List<CallPath> _callPaths;
+
+    private TargetedPathsAnalysis _targetedPathsAnalysis;
+
+    @Setup(Level.Trial)
+    public void buildCallGraph() throws Exception {
+        File appDirectory = new File(fixture);
+        if (!appDirectory.isDirectory()) {
+            appDirectory = new File(FIXTURES_DIRECTORY + fixture);
+        }
+
+        _config = new IntelliDroidAppAnalysis.Configuration();
+        _config.AppDirectory = appDirectory.getPath();
+        _config.OutputDirectory = Files.createTempDirectory("jmh-appInfo").toString();
+        _config.PrintOutput = false;
+        _config.Threads = threads;
+        _config.BackwardPathSearch = backwardSearch;
+        IntelliDroidAppAnalysis.readTargetMethods("./targetedMethods.txt", _config.TargetMethods);
+
+        _appCallGraph = new IntelliDroidAppAnalysis(_config).buildCallGraph();
+        if (_appCallGraph == null) {
+            throw new IllegalStateException("Cannot build the call graph of fixture " + appDirectory.getPath());
+        }
+
+        _entrypoints = new ArrayList<IMethod>(_appCallGraph._entrypointAnalysis.getEntrypoints());
+        _callPaths = new ArrayList<CallPath>();
+
+        TargetedPathsAnalysis targetedPathsAnalysis = makeTargetedPathsAnalysis();
+        for (IMethod entrypoint : _entrypoints) {
+            _callPaths.addAll(targetedPathsAnalysis.findCallPathsFromEntrypoint(entrypoint));
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void makeAnalysis() {
+        _targetedPathsAnalysis = makeTargetedPathsAnalysis();
+    }
+
+    @Benchmark
+    public void findCallPaths(Blackhole blackhole) {
+        for (IMethod entrypoint : _entrypoints) {
+            blackhole.consume(_targetedPathsAnalysis.findCallPathsFromEntrypoint(entrypoint));
+        }
+    }
+
+    @Benchmark
+    public void analyzeConstraints(Blackhole blackhole) {
+        for (CallPath callPath : _callPaths) {
+            blackhole.consume(_targetedPathsAnalysis.analyzePathConstraints(callPath));
+        }
+    }
+
+    // Path search, constraint analysis and output (appInfo.json and the constraint files)
+    @Benchmark
+    public void analyze() throws Exception {
+        _targetedPathsAnalysis.analyze();
+    }
+
+    //=========================================================================
+
+    private TargetedPathsAnalysis makeTargetedPathsAnalysis() {
+        return new TargetedPathsAnalysis(
+            _appCallGraph._entrypointAnalysis,
+            _appCallGraph._manifestAnalysis,
+            _appCallGraph._uiActivityAnalysis,
+            _appCallGraph._callGraphInfoListener,
+            _config,
+            new Statistics(_config)
+        );
+    }
+}
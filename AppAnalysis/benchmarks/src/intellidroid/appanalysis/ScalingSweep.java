@@ -0,0 +1,323 @@
+package intellidroid.appanalysis;
+
+import java.util.*;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.Reader;
+
+import org.apache.commons.cli.*;
+import org.apache.commons.io.FileUtils;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+// Sweeps the parameters of the synthetic app generator and measures the time and heap usage of
+// each analysis phase (from metrics.json).  Each app is analyzed in a new JVM, so that the
+// framework caches and heap of one run do not affect the next.  Writes scaling.csv and, for
+// each swept parameter, SVG plots of the time and heap usage of the phases against its value.
+class ScalingSweep {
+    private static final String[] PHASES = { "analysis", "callGraph", "constraintAnalysis" };
+
+    private final File _outputDirectory;
+    private final SyntheticAppGenerator.Parameters _baseParameters;
+    private final int _repetitions;
+    private final List<String> _jvmArgs;
+
+    // Median of the repetitions for one app
+    private static class Measurement {
+        public final int _value;
+        public final Map<String, double[]> _phases = new LinkedHashMap<String, double[]>();
+        public long _paths = 0;
+
+        public Measurement(int value) {
+            _value = value;
+        }
+    }
+
+    public ScalingSweep(File outputDirectory, SyntheticAppGenerator.Parameters baseParameters, int repetitions, List<String> jvmArgs) {
+        _outputDirectory = outputDirectory;
+        _baseParameters = baseParameters;
+        _repetitions = repetitions;
+        _jvmArgs = jvmArgs;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new Options();
+        options.addOption(
+            Option.builder("o").longOpt("output")
+                .required(false).hasArg(true)
+                .desc("Output directory for the apps, metrics and plots (default: \"./scalingOutput\")")
+                .build()
+        );
+        options.addOption(
+            Option.builder("p").longOpt("parameters")
+                .required(false).hasArg(true)
+                .desc("Parameters of the apps, other than the swept one (default: \"" + new SyntheticAppGenerator.Parameters() + "\")")
+                .build()
+        );
+        options.addOption(
+            Option.builder("r").longOpt("repetitions")
+                .required(false).hasArg(true)
+                .desc("Number of analysis runs per app; the median is reported (default: 1)")
+                .build()
+        );
+        options.addOption(
+            Option.builder("X").longOpt("jvm-args")
+                .required(false).hasArg(true)
+                .desc("Options of the analysis JVMs (e.g. \"-Xmx8g\")")
+                .build()
+        );
+
+        CommandLine commands;
+        SyntheticAppGenerator.Parameters baseParameters = new SyntheticAppGenerator.Parameters();
+        int repetitions = 1;
+
+        try {
+            commands = new DefaultParser().parse(options, args);
+
+            if (commands.getArgList().isEmpty()) {
+                throw new ParseException("Missing swept parameter");
+            }
+
+            if (commands.hasOption("p")) {
+                baseParameters.parse(commands.getOptionValue("p"));
+            }
+
+            if (commands.hasOption("r")) {
+                repetitions = Integer.parseInt(commands.getOptionValue("r"));
+            }
+        } catch (Exception e) {
+            System.err.println(e.getMessage());
+            new HelpFormatter().printHelp("ScalingSweep [options] <parameter>=<value>,<value>,... ...", options);
+            System.exit(1);
+            return;
+        }
+
+        List<String> jvmArgs = commands.hasOption("X") ? Arrays.asList(commands.getOptionValue("X").trim().split("\\s+")) : Collections.<String>emptyList();
+        ScalingSweep sweep = new ScalingSweep(new File(commands.getOptionValue("o", "./scalingOutput")), baseParameters, repetitions, jvmArgs);
+
+        for (String axis : commands.getArgList()) {
+            String[] nameValues = axis.split("=");
+            List<Integer> values = new ArrayList<Integer>();
+
+            for (String value : nameValues[1].split(",")) {
+                values.add(Integer.parseInt(value));
+            }
+
+            sweep.sweep(nameValues[0], values);
+        }
+    }
+
+    public void sweep(String parameter, List<Integer> values) throws Exception {
+        List<Measurement> measurements = new ArrayList<Measurement>();
+
+        for (int value : values) {
+            SyntheticAppGenerator.Parameters parameters = new SyntheticAppGenerator.Parameters(_baseParameters);
+            parameters.set(parameter, value);
+
+            String appName = parameter + "-" + value;
+            File appDirectory = new File(_outputDirectory, "apps/" + appName);
+            new SyntheticAppGenerator(parameters).generate(appDirectory);
+
+            Output.log("Analyzing " + appName + " (" + parameters + ")");
+            measurements.add(measure(value, appDirectory, new File(_outputDirectory, "runs/" + appName)));
+        }
+
+        writeCsv(parameter, measurements);
+        writePlot(parameter, measurements, 0, "Time (ms)", new File(_outputDirectory, parameter + "-time.svg"));
+        writePlot(parameter, measurements, 1, "Peak heap (MB)", new File(_outputDirectory, parameter + "-memory.svg"));
+    }
+
+    //=========================================================================
+
+    private Measurement measure(int value, File appDirectory, File runDirectory) throws Exception {
+        Map<String, List<double[]>> phaseRuns = new LinkedHashMap<String, List<double[]>>();
+        Measurement measurement = new Measurement(value);
+
+        for (int run = 0; run < _repetitions; run++) {
+            FileUtils.deleteQuietly(runDirectory);
+            runDirectory.mkdirs();
+
+            runAnalysis(appDirectory, runDirectory);
+
+            JsonObject metrics = readMetrics(new File(runDirectory, "metrics.json"));
+
+            for (JsonElement phaseElement : metrics.getAsJsonArray("phases")) {
+                JsonObject phase = phaseElement.getAsJsonObject();
+                String name = phase.get("name").getAsString();
+
+                if (!phaseRuns.containsKey(name)) {
+                    phaseRuns.put(name, new ArrayList<double[]>());
+                }
+
+                phaseRuns.get(name).add(new double[] {
+                    phase.get("timeNanos").getAsLong() / 1e6,
+                    phase.get("heapPeakBytes").getAsLong() / (1024.0 * 1024.0)
+                });
+            }
+
+            long paths = 0;
+            for (JsonElement entrypoint : metrics.getAsJsonArray("entrypoints")) {
+                paths += entrypoint.getAsJsonObject().get("pathsFound").getAsLong();
+            }
+
+            measurement._paths = paths;
+        }
+
+        for (Map.Entry<String, List<double[]>> phaseRun : phaseRuns.entrySet()) {
+            measurement._phases.put(phaseRun.getKey(), new double[] { median(phaseRun.getValue(), 0), median(phaseRun.getValue(), 1) });
+        }
+
+        return measurement;
+    }
+
+    private void runAnalysis(File appDirectory, File runDirectory) throws Exception {
+        List<String> command = new ArrayList<String>();
+        command.add(System.getProperty("java.home") + "/bin/java");
+        command.addAll(_jvmArgs);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(IntelliDroidAppAnalysis.class.getName());
+        command.add("-s");
+        command.add("-x");
+        command.add("-o");
+        command.add(runDirectory.getPath());
+        command.add(appDirectory.getPath());
+
+        Process process = new ProcessBuilder(command)
+            .redirectErrorStream(true)
+            .redirectOutput(new File(runDirectory.getParentFile(), runDirectory.getName() + ".log"))
+            .start();
+
+        if (process.waitFor() != 0) {
+            throw new Exception("Analysis of " + appDirectory + " failed (see " + runDirectory + ".log)");
+        }
+    }
+
+    static private JsonObject readMetrics(File metricsFile) throws Exception {
+        Reader reader = new InputStreamReader(new FileInputStream(metricsFile), "UTF-8");
+
+        try {
+            return new JsonParser().parse(reader).getAsJsonObject();
+        } finally {
+            reader.close();
+        }
+    }
+
+    static private double median(List<double[]> runs, int index) {
+        double[] values = new double[runs.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = runs.get(i)[index];
+        }
+
+        Arrays.sort(values);
+        int middle = values.length / 2;
+
+        return (values.length % 2 == 1) ? values[middle] : (values[middle - 1] + values[middle]) / 2;
+    }
+
+    //=========================================================================
+
+    private void writeCsv(String parameter, List<Measurement> measurements) throws Exception {
+        File csvFile = new File(_outputDirectory, "scaling.csv");
+        boolean newFile = !csvFile.exists();
+
+        PrintWriter writer = new PrintWriter(FileUtils.openOutputStream(csvFile, true));
+
+        try {
+            if (newFile) {
+                writer.println("parameter,value,baseParameters,phase,timeMillis,heapPeakMB,paths");
+            }
+
+            for (Measurement measurement : measurements) {
+                for (Map.Entry<String, double[]> phase : measurement._phases.entrySet()) {
+                    writer.println(String.format(Locale.ROOT, "%s,%d,\"%s\",%s,%.1f,%.1f,%d", parameter, measurement._value,
+                        _baseParameters, phase.getKey(), phase.getValue()[0], phase.getValue()[1], measurement._paths));
+                }
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    // Line plot of one metric (0: time, 1: heap) of each phase against the parameter value
+    private void writePlot(String parameter, List<Measurement> measurements, int metric, String yLabel, File svgFile) throws Exception {
+        final int width = 640;
+        final int height = 400;
+        final int left = 70;
+        final int right = 170;
+        final int top = 30;
+        final int bottom = 50;
+        final String[] colors = { "#1f77b4", "#ff7f0e", "#2ca02c", "#d62728", "#9467bd" };
+
+        double maxX = 1;
+        double maxY = 1;
+
+        for (Measurement measurement : measurements) {
+            maxX = Math.max(maxX, measurement._value);
+
+            for (double[] phase : measurement._phases.values()) {
+                maxY = Math.max(maxY, phase[metric]);
+            }
+        }
+
+        double plotWidth = width - left - right;
+        double plotHeight = height - top - bottom;
+
+        StringBuilder svg = new StringBuilder();
+        svg.append("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"" + width + "\" height=\"" + height + "\" font-family=\"sans-serif\" font-size=\"12\">\n");
+        svg.append("<rect width=\"100%\" height=\"100%\" fill=\"white\"/>\n");
+        svg.append(String.format(Locale.ROOT, "<text x=\"%d\" y=\"20\" font-size=\"14\">%s vs. %s (%s)</text>\n", left, yLabel, parameter, _baseParameters));
+
+        // Axes and ticks
+        svg.append(String.format(Locale.ROOT, "<path d=\"M%d %d V%d H%d\" stroke=\"black\" fill=\"none\"/>\n", left, top, height - bottom, width - right));
+
+        for (int tick = 0; tick <= 4; tick++) {
+            double y = height - bottom - plotHeight * tick / 4;
+            svg.append(String.format(Locale.ROOT, "<text x=\"%d\" y=\"%.1f\" text-anchor=\"end\">%.1f</text>\n", left - 5, y + 4, maxY * tick / 4));
+            svg.append(String.format(Locale.ROOT, "<path d=\"M%d %.1f H%d\" stroke=\"#dddddd\"/>\n", left, y, width - right));
+        }
+
+        for (Measurement measurement : measurements) {
+            double x = left + plotWidth * measurement._value / maxX;
+            svg.append(String.format(Locale.ROOT, "<text x=\"%.1f\" y=\"%d\" text-anchor=\"middle\">%d</text>\n", x, height - bottom + 16, measurement._value));
+        }
+
+        svg.append(String.format(Locale.ROOT, "<text x=\"%.1f\" y=\"%d\" text-anchor=\"middle\">%s</text>\n", left + plotWidth / 2, height - 10, parameter));
+
+        // One line per phase
+        int phaseIndex = 0;
+
+        for (String phase : PHASES) {
+            String color = colors[phaseIndex % colors.length];
+            StringBuilder points = new StringBuilder();
+
+            for (Measurement measurement : measurements) {
+                double[] values = measurement._phases.get(phase);
+                if (values == null) {
+                    continue;
+                }
+
+                double x = left + plotWidth * measurement._value / maxX;
+                double y = height - bottom - plotHeight * values[metric] / maxY;
+                points.append(String.format(Locale.ROOT, "%.1f,%.1f ", x, y));
+                svg.append(String.format(Locale.ROOT, "<circle cx=\"%.1f\" cy=\"%.1f\" r=\"3\" fill=\"%s\"/>\n", x, y, color));
+            }
+
+            svg.append("<polyline points=\"" + points.toString().trim() + "\" stroke=\"" + color + "\" fill=\"none\" stroke-width=\"2\"/>\n");
+
+            int legendY = top + 20 * phaseIndex;
+            svg.append(String.format(Locale.ROOT, "<path d=\"M%d %d h20\" stroke=\"%s\" stroke-width=\"2\"/>\n", width - right + 15, legendY, color));
+            svg.append(String.format(Locale.ROOT, "<text x=\"%d\" y=\"%d\">%s</text>\n", width - right + 40, legendY + 4, phase));
+
+            phaseIndex++;
+        }
+
+        svg.append("</svg>\n");
+
+        FileUtils.writeStringToFile(svgFile, svg.toString(), "UTF-8");
+    }
+}
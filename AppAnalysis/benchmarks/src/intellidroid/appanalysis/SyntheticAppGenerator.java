@@ -0,0 +1,457 @@
+package intellidroid.appanalysis;
+
+import java.util.*;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import org.apache.commons.io.FileUtils;
+
+// Synthetic apps of a controlled size, in the preprocessed app directory layout (apk/classes.jar,
+// apk/AndroidManifest.xml and apk/res/), for measuring how the analysis scales.  The app sources
+// are generated and compiled against the Android library, so apktool, dare and a device are not
+// needed.
+//
+// Each callback (an activity's onCreate, its click listeners and its layout onClick handler, and
+// a service's onStartCommand) calls into a layered call graph: each of the <depth> levels has
+// <branching> methods, and each method calls every method of the next level under a different
+// condition on its inputs.  The target call sites (SmsManager.sendTextMessage) are spread over the
+// methods of the last level, so every callback reaches each target through branching^(depth - 1)
+// call paths.
+class SyntheticAppGenerator {
+    private static final String PACKAGE_NAME = "com.example.synthetic";
+    private static final String ANDROID_LIB = "./android/android-4.3/android.jar";
+
+    private static final int LAYOUT_ID_BASE = 0x7f030000;
+    private static final int VIEW_ID_BASE = 0x7f050000;
+
+    static class Parameters {
+        public int Activities = 2;
+        public int Services = 1;
+        public int Listeners = 2;
+        public int CallDepth = 3;
+        public int Branching = 2;
+        public int TargetCallSites = 2;
+
+        public Parameters() {
+        }
+
+        public Parameters(Parameters parameters) {
+            Activities = parameters.Activities;
+            Services = parameters.Services;
+            Listeners = parameters.Listeners;
+            CallDepth = parameters.CallDepth;
+            Branching = parameters.Branching;
+            TargetCallSites = parameters.TargetCallSites;
+        }
+
+        // "<name>=<value>,...", with the names of toString()
+        public void parse(String parameters) {
+            for (String parameter : parameters.split(",")) {
+                if (parameter.isEmpty()) {
+                    continue;
+                }
+
+                String[] nameValue = parameter.split("=");
+                if (nameValue.length != 2) {
+                    throw new IllegalArgumentException("Invalid parameter: " + parameter);
+                }
+
+                set(nameValue[0], Integer.parseInt(nameValue[1]));
+            }
+        }
+
+        public void set(String name, int value) {
+            if (name.equals("activities")) {
+                Activities = value;
+            } else if (name.equals("services")) {
+                Services = value;
+            } else if (name.equals("listeners")) {
+                Listeners = value;
+            } else if (name.equals("depth")) {
+                CallDepth = value;
+            } else if (name.equals("branching")) {
+                Branching = value;
+            } else if (name.equals("targets")) {
+                TargetCallSites = value;
+            } else {
+                throw new IllegalArgumentException("Unknown parameter: " + name);
+            }
+
+            if (Activities < 1 || Services < 0 || Listeners < 0 || CallDepth < 1 || Branching < 1 || TargetCallSites < 0) {
+                throw new IllegalArgumentException("Invalid value for " + name + ": " + value);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "activities=" + Activities + ",services=" + Services + ",listeners=" + Listeners +
+                ",depth=" + CallDepth + ",branching=" + Branching + ",targets=" + TargetCallSites;
+        }
+    }
+
+    private final Parameters _parameters;
+
+    // Callbacks generated so far, to spread them over the methods of the first level
+    private int _callbacks = 0;
+
+    public SyntheticAppGenerator(Parameters parameters) {
+        _parameters = parameters;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: SyntheticAppGenerator <app directory> [<name>=<value>,...]");
+            System.err.println("Parameters (default): " + new Parameters());
+            System.exit(1);
+        }
+
+        Parameters parameters = new Parameters();
+        if (args.length > 1) {
+            parameters.parse(args[1]);
+        }
+
+        new SyntheticAppGenerator(parameters).generate(new File(args[0]));
+        Output.log("Generated " + args[0] + " (" + parameters + ")");
+    }
+
+    public void generate(File appDirectory) throws IOException {
+        File apkDirectory = new File(appDirectory, "apk");
+        FileUtils.deleteQuietly(apkDirectory);
+        new File(apkDirectory, "res/layout").mkdirs();
+        new File(apkDirectory, "res/values").mkdirs();
+
+        File buildDirectory = Files.createTempDirectory("syntheticApp").toFile();
+
+        try {
+            File sourceDirectory = new File(buildDirectory, "src");
+            File classesDirectory = new File(buildDirectory, "classes");
+            classesDirectory.mkdirs();
+
+            _callbacks = 0;
+            List<File> sourceFiles = writeSources(sourceDirectory);
+            compile(sourceFiles, classesDirectory);
+            writeJar(classesDirectory, new File(apkDirectory, "classes.jar"));
+
+        } finally {
+            FileUtils.deleteQuietly(buildDirectory);
+        }
+
+        writeManifest(new File(apkDirectory, "AndroidManifest.xml"));
+        writeLayouts(new File(apkDirectory, "res/layout"));
+        writePublicResources(new File(apkDirectory, "res/values/public.xml"));
+    }
+
+    //=========================================================================
+
+    private List<File> writeSources(File sourceDirectory) throws IOException {
+        File packageDirectory = new File(sourceDirectory, PACKAGE_NAME.replace('.', '/'));
+        packageDirectory.mkdirs();
+
+        List<File> sourceFiles = new ArrayList<File>();
+
+        for (int level = 0; level < _parameters.CallDepth; level++) {
+            sourceFiles.add(writeSource(packageDirectory, "Level" + level, getLevelSource(level)));
+        }
+
+        for (int activity = 0; activity < _parameters.Activities; activity++) {
+            sourceFiles.add(writeSource(packageDirectory, "Activity" + activity, getActivitySource(activity)));
+
+            for (int listener = 0; listener < _parameters.Listeners; listener++) {
+                String className = "Activity" + activity + "Listener" + listener;
+                sourceFiles.add(writeSource(packageDirectory, className, getListenerSource(className)));
+            }
+        }
+
+        for (int service = 0; service < _parameters.Services; service++) {
+            sourceFiles.add(writeSource(packageDirectory, "Service" + service, getServiceSource(service)));
+        }
+
+        return sourceFiles;
+    }
+
+    private String getLevelSource(int level) {
+        boolean lastLevel = (level == _parameters.CallDepth - 1);
+        StringBuilder source = new StringBuilder();
+
+        source.append("package " + PACKAGE_NAME + ";\n\n");
+        if (lastLevel) {
+            source.append("import android.telephony.SmsManager;\n\n");
+        }
+
+        source.append("class Level" + level + " {\n");
+
+        for (int method = 0; method < _parameters.Branching; method++) {
+            source.append("    static void m" + method + "(int x, String s) {\n");
+
+            if (lastLevel) {
+                // Target call sites t = method, method + branching, ...
+                for (int target = method; target < _parameters.TargetCallSites; target += _parameters.Branching) {
+                    source.append("        if (x == " + target + ") {\n");
+                    source.append("            SmsManager.getDefault().sendTextMessage(\"555" + target + "\", null, s, null, null);\n");
+                    source.append("        }\n");
+                }
+            } else {
+                for (int branch = 0; branch < _parameters.Branching; branch++) {
+                    String call = "Level" + (level + 1) + ".m" + branch + "(x + " + (branch + 1) + ", s);";
+
+                    if (branch == _parameters.Branching - 1) {
+                        source.append(branch == 0 ? "        " + call + "\n" : " else {\n            " + call + "\n        }\n");
+                    } else {
+                        source.append(branch == 0 ? "        if (" : " else if (");
+                        source.append(getBranchCondition(level, method, branch) + ") {\n");
+                        source.append("            " + call + "\n");
+                        source.append("        }");
+                    }
+                }
+            }
+
+            source.append("    }\n");
+        }
+
+        source.append("}\n");
+        return source.toString();
+    }
+
+    // Conditions on the integer and string inputs, as apps check extras and message contents
+    private String getBranchCondition(int level, int method, int branch) {
+        int constant = level * 31 + method * 7 + branch;
+
+        switch (branch % 3) {
+            case 0:
+                return "x > " + constant;
+            case 1:
+                return "s.equals(\"key" + constant + "\")";
+            default:
+                return "x % " + (branch + 2) + " == " + (constant % (branch + 2));
+        }
+    }
+
+    private String getActivitySource(int activity) {
+        StringBuilder source = new StringBuilder();
+
+        source.append("package " + PACKAGE_NAME + ";\n\n");
+        source.append("import android.app.Activity;\n");
+        source.append("import android.content.Intent;\n");
+        source.append("import android.os.Bundle;\n");
+        source.append("import android.view.View;\n\n");
+
+        source.append("public class Activity" + activity + " extends Activity {\n");
+        source.append("    @Override\n");
+        source.append("    protected void onCreate(Bundle savedInstanceState) {\n");
+        source.append("        super.onCreate(savedInstanceState);\n");
+        source.append("        setContentView(" + toHex(LAYOUT_ID_BASE + activity) + ");\n\n");
+
+        for (int listener = 0; listener < _parameters.Listeners; listener++) {
+            source.append("        findViewById(" + toHex(getViewID(activity, listener)) + ").setOnClickListener(new Activity" + activity + "Listener" + listener + "());\n");
+        }
+
+        source.append("\n");
+        source.append("        Intent intent = getIntent();\n");
+        source.append("        " + getCallbackCall("intent.getIntExtra(\"value\", 0)", "intent.getStringExtra(\"text\")") + "\n");
+        source.append("    }\n\n");
+
+        source.append("    public void onLayoutClick" + activity + "(View view) {\n");
+        source.append("        " + getCallbackCall("view.getId()", "String.valueOf(view.getTag())") + "\n");
+        source.append("    }\n");
+        source.append("}\n");
+
+        return source.toString();
+    }
+
+    private String getListenerSource(String className) {
+        StringBuilder source = new StringBuilder();
+
+        source.append("package " + PACKAGE_NAME + ";\n\n");
+        source.append("import android.view.View;\n\n");
+
+        source.append("class " + className + " implements View.OnClickListener {\n");
+        source.append("    @Override\n");
+        source.append("    public void onClick(View view) {\n");
+        source.append("        " + getCallbackCall("view.getId()", "String.valueOf(view.getContentDescription())") + "\n");
+        source.append("    }\n");
+        source.append("}\n");
+
+        return source.toString();
+    }
+
+    private String getServiceSource(int service) {
+        StringBuilder source = new StringBuilder();
+
+        source.append("package " + PACKAGE_NAME + ";\n\n");
+        source.append("import android.app.Service;\n");
+        source.append("import android.content.Intent;\n");
+        source.append("import android.os.IBinder;\n\n");
+
+        source.append("public class Service" + service + " extends Service {\n");
+        source.append("    @Override\n");
+        source.append("    public int onStartCommand(Intent intent, int flags, int startId) {\n");
+        source.append("        " + getCallbackCall("intent.getIntExtra(\"value\", 0)", "intent.getStringExtra(\"text\")") + "\n");
+        source.append("        return START_NOT_STICKY;\n");
+        source.append("    }\n\n");
+
+        source.append("    @Override\n");
+        source.append("    public IBinder onBind(Intent intent) {\n");
+        source.append("        return null;\n");
+        source.append("    }\n");
+        source.append("}\n");
+
+        return source.toString();
+    }
+
+    private String getCallbackCall(String intInput, String stringInput) {
+        return "Level0.m" + (_callbacks++ % _parameters.Branching) + "(" + intInput + ", " + stringInput + ");";
+    }
+
+    private File writeSource(File packageDirectory, String className, String source) throws IOException {
+        File sourceFile = new File(packageDirectory, className + ".java");
+        FileUtils.writeStringToFile(sourceFile, source, "UTF-8");
+        return sourceFile;
+    }
+
+    //=========================================================================
+
+    private void compile(List<File> sourceFiles, File classesDirectory) throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            throw new IOException("No Java compiler available (a JDK is required to generate apps)");
+        }
+
+        if (!new File(ANDROID_LIB).isFile()) {
+            throw new IOException("Missing Android library: " + ANDROID_LIB);
+        }
+
+        StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, null);
+
+        try {
+            Iterable<? extends JavaFileObject> compilationUnits = fileManager.getJavaFileObjectsFromFiles(sourceFiles);
+
+            // WALA reads Java 7 class files
+            List<String> options = Arrays.asList("-source", "1.7", "-target", "1.7", "-nowarn", "-g",
+                "-classpath", ANDROID_LIB, "-d", classesDirectory.getPath());
+
+            if (!compiler.getTask(null, fileManager, null, options, null, compilationUnits).call()) {
+                throw new IOException("Cannot compile the generated app");
+            }
+        } finally {
+            fileManager.close();
+        }
+    }
+
+    private void writeJar(File classesDirectory, File jarFile) throws IOException {
+        JarOutputStream jar = new JarOutputStream(new FileOutputStream(jarFile));
+
+        try {
+            for (File classFile : FileUtils.listFiles(classesDirectory, new String[] { "class" }, true)) {
+                String entryName = classesDirectory.toURI().relativize(classFile.toURI()).getPath();
+                jar.putNextEntry(new JarEntry(entryName));
+
+                InputStream classStream = new FileInputStream(classFile);
+                try {
+                    byte[] buffer = new byte[8192];
+                    int length;
+                    while ((length = classStream.read(buffer)) > 0) {
+                        jar.write(buffer, 0, length);
+                    }
+                } finally {
+                    classStream.close();
+                }
+
+                jar.closeEntry();
+            }
+        } finally {
+            jar.close();
+        }
+    }
+
+    //=========================================================================
+
+    private void writeManifest(File manifestFile) throws IOException {
+        StringBuilder manifest = new StringBuilder();
+
+        manifest.append("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n");
+        manifest.append("<manifest xmlns:android=\"http://schemas.android.com/apk/res/android\" package=\"" + PACKAGE_NAME + "\">\n");
+        manifest.append("    <uses-permission android:name=\"android.permission.SEND_SMS\" />\n");
+        manifest.append("    <application android:label=\"Synthetic\">\n");
+
+        for (int activity = 0; activity < _parameters.Activities; activity++) {
+            if (activity == 0) {
+                manifest.append("        <activity android:name=\".Activity0\">\n");
+                manifest.append("            <intent-filter>\n");
+                manifest.append("                <action android:name=\"android.intent.action.MAIN\" />\n");
+                manifest.append("                <category android:name=\"android.intent.category.LAUNCHER\" />\n");
+                manifest.append("            </intent-filter>\n");
+                manifest.append("        </activity>\n");
+            } else {
+                manifest.append("        <activity android:name=\".Activity" + activity + "\" />\n");
+            }
+        }
+
+        for (int service = 0; service < _parameters.Services; service++) {
+            manifest.append("        <service android:name=\".Service" + service + "\" />\n");
+        }
+
+        manifest.append("    </application>\n");
+        manifest.append("</manifest>\n");
+
+        FileUtils.writeStringToFile(manifestFile, manifest.toString(), "UTF-8");
+    }
+
+    private void writeLayouts(File layoutDirectory) throws IOException {
+        for (int activity = 0; activity < _parameters.Activities; activity++) {
+            StringBuilder layout = new StringBuilder();
+
+            layout.append("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n");
+            layout.append("<LinearLayout xmlns:android=\"http://schemas.android.com/apk/res/android\" android:orientation=\"vertical\" android:layout_width=\"fill_parent\" android:layout_height=\"fill_parent\">\n");
+
+            for (int listener = 0; listener < _parameters.Listeners; listener++) {
+                layout.append("    <Button android:id=\"@id/button_" + activity + "_" + listener + "\" android:layout_width=\"wrap_content\" android:layout_height=\"wrap_content\" />\n");
+            }
+
+            layout.append("    <Button android:id=\"@id/layout_button_" + activity + "\" android:layout_width=\"wrap_content\" android:layout_height=\"wrap_content\" android:onClick=\"onLayoutClick" + activity + "\" />\n");
+            layout.append("</LinearLayout>\n");
+
+            FileUtils.writeStringToFile(new File(layoutDirectory, "activity_" + activity + ".xml"), layout.toString(), "UTF-8");
+        }
+    }
+
+    private void writePublicResources(File publicFile) throws IOException {
+        StringBuilder resources = new StringBuilder();
+
+        resources.append("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n");
+        resources.append("<resources>\n");
+
+        for (int activity = 0; activity < _parameters.Activities; activity++) {
+            resources.append("    <public type=\"layout\" name=\"activity_" + activity + "\" id=\"" + toHex(LAYOUT_ID_BASE + activity) + "\" />\n");
+        }
+
+        for (int activity = 0; activity < _parameters.Activities; activity++) {
+            for (int listener = 0; listener < _parameters.Listeners; listener++) {
+                resources.append("    <public type=\"id\" name=\"button_" + activity + "_" + listener + "\" id=\"" + toHex(getViewID(activity, listener)) + "\" />\n");
+            }
+
+            resources.append("    <public type=\"id\" name=\"layout_button_" + activity + "\" id=\"" + toHex(getViewID(activity, _parameters.Listeners)) + "\" />\n");
+        }
+
+        resources.append("</resources>\n");
+
+        FileUtils.writeStringToFile(publicFile, resources.toString(), "UTF-8");
+    }
+
+    private int getViewID(int activity, int view) {
+        return VIEW_ID_BASE + activity * (_parameters.Listeners + 1) + view;
+    }
+
+    static private String toHex(int id) {
+        return "0x" + Integer.toHexString(id);
+    }
+}
@@ -0,0 +1,75 @@
+package intellidroid.appanalysis;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.*;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Z3ConstraintGeneratorBenchmark {
+    @Param({"16", "128"})
+    public int conjuncts;
+
+    @Param({"PYTHON", "SMTLIB2"})
+    public String format;
+
+    private List<Predicate> _constraints;
+    private ConstraintEmitter _emitter;
+
+    // Discards the constraint code, so that only generating it is measured
+    private final Writer _nullWriter = new Writer() {
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+        }
+
+        @Override
+        public void write(String str, int off, int len) {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    @Setup(Level.Trial)
+    public void makeConstraints() {
+        ConstraintFixtures fixtures = new ConstraintFixtures(42);
+        _constraints = new ArrayList<Predicate>();
+
+        for (Predicate constraint : fixtures.makeConstraints(16, conjuncts)) {
+            _constraints.add(ConstraintMinimization.minimize(constraint));
+        }
+
+        _emitter = format.equals("SMTLIB2") ? new SmtLib2ConstraintEmitter() : new PythonConstraintEmitter();
+    }
+
+    @Benchmark
+    public void writeConstraints() throws IOException {
+        List<String> comments = Collections.emptyList();
+
+        for (Predicate constraint : _constraints) {
+            _emitter.writeConstraints(new Z3ConstraintGenerator(constraint), comments, _nullWriter);
+        }
+    }
+
+    @Benchmark
+    public void canonicalConstraintCode(Blackhole blackhole) {
+        ConstraintDeduplication deduplication = new ConstraintDeduplication();
+
+        for (Predicate constraint : _constraints) {
+            blackhole.consume(deduplication.getConstraintKey(new Z3ConstraintGenerator(deduplication.canonicalize(constraint))));
+        }
+    }
+}
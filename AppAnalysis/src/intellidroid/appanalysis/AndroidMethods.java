@@ -49,7 +49,8 @@ class AndroidMethods {
         return _callbackClasses.contains(klass);
     }
     static public Set<TypeReference> getCallbackClasses() {
-        return _callbackClasses;
+        // Shared by all analyses in the JVM, so callers must not modify it
+        return Collections.unmodifiableSet(_callbackClasses);
     }
 
     static private final Set<MethodReference> _uiNotificationMethods = new HashSet<MethodReference>();
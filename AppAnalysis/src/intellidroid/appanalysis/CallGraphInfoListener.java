@@ -12,14 +12,66 @@ import java.util.*;
 
 class CallGraphInfoListener implements SSAPropagationCallGraphBuilder.BuilderListener {
     private IClassHierarchy _cha;
+    private final Set<String> _targetMethods;
+
+    // Target methods resolved in the class hierarchy -> their signatures
+    private final Map<IMethod, String> _resolvedTargetMethods = new IdentityHashMap<IMethod, String>();
+
+    // Targets given as patterns (see TargetMethodMatcher)
+    private final TargetMethodMatcher _targetMethodMatcher = new TargetMethodMatcher();
+
+    // Invoked method references (which are canonical in WALA) resolved once, so that
+    // onInvoke does not need to resolve them and compute their signatures again
+    private final Map<MethodReference, InvokeTarget> _invokeTargets = new IdentityHashMap<MethodReference, InvokeTarget>();
+
+    private final boolean _timeInvokes;
+    private long _invokeTime = 0;
     private Map<String, Set<CGNode>> _targetMethodInvokes = new HashMap<String, Set<CGNode>>();
     private Map<PointerKey, Set<CGNode>> _heapStores = new HashMap<PointerKey, Set<CGNode>>();
     private Map<String, Set<CGNode>> _sharedPrefStores = new HashMap<String, Set<CGNode>>();
     private Map<String, CGNode> _sharedPrefUIStores = new HashMap<String, CGNode>();
     private Map<TypeReference, Set<CGNode>> _callbackRegistrations = new HashMap<TypeReference, Set<CGNode>>();
 
-    public CallGraphInfoListener(IClassHierarchy cha) {
+    private static class InvokeTarget {
+        public final IMethod _method;
+
+        // Signature of the targeted method, or null if the method is not targeted
+        public final String _targetSignature;
+
+        public final boolean _sharedPrefEditorMethod;
+
+        // First parameter type that is a callback class, or null if there is none
+        public final TypeReference _callbackParameterType;
+
+        public InvokeTarget(IMethod method, String targetSignature) {
+            _method = method;
+            _targetSignature = targetSignature;
+            _sharedPrefEditorMethod = AndroidMethods.isSharedPrefEditorMethod(method.getReference());
+
+            TypeReference callbackParameterType = null;
+
+            for (int i = 0; i < method.getNumberOfParameters(); i++) {
+                TypeReference parameterType = method.getParameterType(i);
+
+                if (AndroidMethods.isCallbackClass(parameterType)) {
+                    callbackParameterType = parameterType;
+                    break;
+                }
+            }
+
+            _callbackParameterType = callbackParameterType;
+        }
+    }
+
+    // Invoked methods that cannot be resolved
+    private static final InvokeTarget UNRESOLVED = null;
+
+    public CallGraphInfoListener(IClassHierarchy cha, Set<String> targetMethods, Statistics statistics) {
         _cha = cha;
+        _targetMethods = targetMethods;
+        _timeInvokes = statistics.isEnabled();
+
+        resolveTargetMethods();
     }
 
     // Used when creating call graphs iteratively to discover entry-points
@@ -31,6 +83,11 @@ class CallGraphInfoListener implements SSAPropagationCallGraphBuilder.BuilderLis
         _callbackRegistrations.clear();
     }
 
+    // Time (ns) spent in onInvoke, if statistics are enabled
+    public long getInvokeTime() {
+        return _invokeTime;
+    }
+
     public Set<String> getTargetMethods() {
         return _targetMethodInvokes.keySet();
     }
@@ -96,26 +153,37 @@ class CallGraphInfoListener implements SSAPropagationCallGraphBuilder.BuilderLis
 
     @Override
     public void onInvoke(CGNode node, SSAAbstractInvokeInstruction invokeInstr) {
+        if (!_timeInvokes) {
+            handleInvoke(node, invokeInstr);
+            return;
+        }
+
+        long startTime = System.nanoTime();
+        handleInvoke(node, invokeInstr);
+        _invokeTime += System.nanoTime() - startTime;
+    }
+
+    private void handleInvoke(CGNode node, SSAAbstractInvokeInstruction invokeInstr) {
         if (!node.getMethod().getDeclaringClass().getClassLoader().getReference().equals(ClassLoaderReference.Application)) {
             return;
         }
 
-        IMethod targetMethod = _cha.resolveMethod(invokeInstr.getDeclaredTarget());
-        if (targetMethod == null) {
+        InvokeTarget invokeTarget = getInvokeTarget(invokeInstr.getDeclaredTarget());
+        if (invokeTarget == UNRESOLVED) {
             return;
         }
 
-        String targetMethodSignature = targetMethod.getSignature();
-        //Output.debug("onInvoke: " + targetMethodSignature);
+        String targetMethodSignature = invokeTarget._targetSignature;
+        //Output.debug("onInvoke: " + invokeTarget._method.getSignature());
 
-        if (IntelliDroidAppAnalysis.Config.TargetMethods.contains(targetMethodSignature)) {
+        if (targetMethodSignature != null) {
             if (!_targetMethodInvokes.containsKey(targetMethodSignature)) {
                 _targetMethodInvokes.put(targetMethodSignature, new HashSet<CGNode>());
             }
 
             _targetMethodInvokes.get(targetMethodSignature).add(node);
 
-        } else if (AndroidMethods.isSharedPrefEditorMethod(targetMethod.getReference())) {
+        } else if (invokeTarget._sharedPrefEditorMethod) {
             if (node.getIR() == null) {
                 return;
             }
@@ -160,18 +228,68 @@ class CallGraphInfoListener implements SSAPropagationCallGraphBuilder.BuilderLis
 
         //    _callbackRegistrations.get(dialogType).add(node);
 
-        } else {
-            for (int i = 0; i < targetMethod.getNumberOfParameters(); i++) {
-                TypeReference parameterType = targetMethod.getParameterType(i);
+        } else if (invokeTarget._callbackParameterType != null) {
+            TypeReference parameterType = invokeTarget._callbackParameterType;
 
-                if (AndroidMethods.isCallbackClass(parameterType)) {
-                    if (!_callbackRegistrations.containsKey(parameterType)) {
-                        _callbackRegistrations.put(parameterType, new HashSet<CGNode>());
-                    }
+            if (!_callbackRegistrations.containsKey(parameterType)) {
+                _callbackRegistrations.put(parameterType, new HashSet<CGNode>());
+            }
 
-                    _callbackRegistrations.get(parameterType).add(node);
-                    break;
-                }
+            _callbackRegistrations.get(parameterType).add(node);
+        }
+    }
+
+    private InvokeTarget getInvokeTarget(MethodReference declaredTarget) {
+        if (_invokeTargets.containsKey(declaredTarget)) {
+            return _invokeTargets.get(declaredTarget);
+        }
+
+        InvokeTarget invokeTarget = UNRESOLVED;
+        IMethod targetMethod = _cha.resolveMethod(declaredTarget);
+
+        if (targetMethod != null) {
+            String targetSignature = _resolvedTargetMethods.get(targetMethod);
+
+            if (targetSignature == null && _targetMethodMatcher.matches(targetMethod)) {
+                targetSignature = targetMethod.getSignature();
+            }
+
+            invokeTarget = new InvokeTarget(targetMethod, targetSignature);
+        }
+
+        _invokeTargets.put(declaredTarget, invokeTarget);
+        return invokeTarget;
+    }
+
+    // Looks up the methods named by the target signatures ("<package>.<class>.<method>(<descriptor>)"),
+    // and compiles the target patterns
+    private void resolveTargetMethods() {
+        for (String targetMethod : _targetMethods) {
+            if (TargetMethodMatcher.isPattern(targetMethod)) {
+                _targetMethodMatcher.addPattern(targetMethod);
+                continue;
+            }
+
+            int descriptorIndex = targetMethod.indexOf('(');
+            int methodNameIndex = targetMethod.lastIndexOf('.', descriptorIndex);
+
+            if (descriptorIndex < 0 || methodNameIndex < 0) {
+                Output.error("Invalid target method: " + targetMethod);
+                continue;
+            }
+
+            String className = "L" + targetMethod.substring(0, methodNameIndex).replace('.', '/');
+            IClass targetClass = _cha.lookupClass(TypeReference.findOrCreate(ClassLoaderReference.Application, className));
+            if (targetClass == null) {
+                continue;
+            }
+
+            IMethod method = targetClass.getMethod(Selector.make(targetMethod.substring(methodNameIndex + 1)));
+
+            // Only methods declared with the targeted signature (not inherited ones), as when
+            // comparing the signatures of the invoked methods
+            if (method != null && method.getSignature().equals(targetMethod)) {
+                _resolvedTargetMethods.put(method, targetMethod);
             }
         }
     }
@@ -0,0 +1,229 @@
+package intellidroid.appanalysis;
+
+import com.ibm.wala.classLoader.*;
+import com.ibm.wala.types.*;
+import com.ibm.wala.ipa.callgraph.*;
+
+import java.util.*;
+
+// Index over the app-only part of the call graph (the nodes that the path finders
+// traverse).  The app successors/predecessors of every node are stored as arrays of
+// node numbers, built once and shared by all path searches.  For a set of target
+// nodes, it also computes (once) the set of app nodes from which one of the targets
+// can be reached, so that path searches can skip nodes that cannot lead to a target.
+class CallGraphReachability {
+    private static final int[] NO_NODES = new int[0];
+
+    private final CallGraph _callGraph;
+    private final CGNode[] _nodes;
+    private final BitSet _appNodes = new BitSet();
+
+    // Indexed by node number; entries are node numbers of app nodes, in call graph order
+    private final int[][] _appSuccessors;
+    private final int[][] _appPredecessors;
+
+    private final Map<Set<CGNode>, BitSet> _reachingNodesCache = new HashMap<Set<CGNode>, BitSet>();
+
+    //=========================================================================
+
+    // Iterates over the app successors (or predecessors) of a node that are in the given node set
+    private class AppNodeIterator implements Iterator<CGNode> {
+        private final int[] _nodeNumbers;
+        private final BitSet _includedNodes;
+        private int _index = 0;
+
+        public AppNodeIterator(int[] nodeNumbers, BitSet includedNodes) {
+            _nodeNumbers = nodeNumbers;
+            _includedNodes = includedNodes;
+            skipExcluded();
+        }
+
+        private void skipExcluded() {
+            if (_includedNodes == null) {
+                return;
+            }
+
+            while (_index < _nodeNumbers.length && !_includedNodes.get(_nodeNumbers[_index])) {
+                _index++;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return _index < _nodeNumbers.length;
+        }
+
+        @Override
+        public CGNode next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            CGNode node = _nodes[_nodeNumbers[_index]];
+            _index++;
+            skipExcluded();
+
+            return node;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    //=========================================================================
+
+    public CallGraphReachability(CallGraph callGraph) {
+        _callGraph = callGraph;
+
+        int maxNumber = callGraph.getMaxNumber();
+        _nodes = new CGNode[maxNumber + 1];
+        _appSuccessors = new int[maxNumber + 1][];
+        _appPredecessors = new int[maxNumber + 1][];
+
+        for (CGNode node : callGraph) {
+            int nodeNumber = callGraph.getNumber(node);
+            _nodes[nodeNumber] = node;
+
+            if (isAppNode(node)) {
+                _appNodes.set(nodeNumber);
+            }
+        }
+
+        for (int nodeNumber = 0; nodeNumber <= maxNumber; nodeNumber++) {
+            if (_nodes[nodeNumber] == null) {
+                _appSuccessors[nodeNumber] = NO_NODES;
+                _appPredecessors[nodeNumber] = NO_NODES;
+                continue;
+            }
+
+            _appSuccessors[nodeNumber] = getAppNodeNumbers(callGraph.getSuccNodes(_nodes[nodeNumber]));
+            _appPredecessors[nodeNumber] = getAppNodeNumbers(callGraph.getPredNodes(_nodes[nodeNumber]));
+        }
+    }
+
+    private int[] getAppNodeNumbers(Iterator<CGNode> nodesIter) {
+        int[] nodeNumbers = new int[8];
+        int numNodes = 0;
+
+        while (nodesIter.hasNext()) {
+            int nodeNumber = _callGraph.getNumber(nodesIter.next());
+            if (!_appNodes.get(nodeNumber)) {
+                continue;
+            }
+
+            if (numNodes == nodeNumbers.length) {
+                nodeNumbers = Arrays.copyOf(nodeNumbers, numNodes * 2);
+            }
+
+            nodeNumbers[numNodes++] = nodeNumber;
+        }
+
+        return numNodes == 0 ? NO_NODES : Arrays.copyOf(nodeNumbers, numNodes);
+    }
+
+    public static boolean isAppNode(CGNode node) {
+        IClass nodeClass = node.getMethod().getDeclaringClass();
+
+        return nodeClass.getClassLoader().getReference().equals(ClassLoaderReference.Application) &&
+            !nodeClass.getName().toString().startsWith("Landroid/support/v");
+    }
+
+    public boolean isAppNode(int nodeNumber) {
+        return _appNodes.get(nodeNumber);
+    }
+
+    public boolean canReach(CGNode node, BitSet reachingNodes) {
+        return reachingNodes.get(_callGraph.getNumber(node));
+    }
+
+    // App successors of the node, restricted to the given set (or all of them if null)
+    public Iterator<CGNode> getAppSuccNodes(CGNode node, BitSet includedNodes) {
+        return new AppNodeIterator(_appSuccessors[_callGraph.getNumber(node)], includedNodes);
+    }
+
+    // App predecessors of the node, restricted to the given set (or all of them if null)
+    public Iterator<CGNode> getAppPredNodes(CGNode node, BitSet includedNodes) {
+        return new AppNodeIterator(_appPredecessors[_callGraph.getNumber(node)], includedNodes);
+    }
+
+    public CGNode getNode(int nodeNumber) {
+        return _nodes[nodeNumber];
+    }
+
+    public int getNodeNumber(CGNode node) {
+        return _callGraph.getNumber(node);
+    }
+
+    // Breadth-first search from the node over the nodes of the given set.  Returns, for each node
+    // number, the predecessor of the node on a shortest path from the start node (-1 if the node
+    // is not reached; the start node is its own predecessor).
+    public int[] getShortestPathTree(CGNode node, BitSet includedNodes) {
+        int[] predNumbers = new int[_nodes.length];
+        Arrays.fill(predNumbers, -1);
+
+        int nodeNumber = _callGraph.getNumber(node);
+        if (!includedNodes.get(nodeNumber)) {
+            return predNumbers;
+        }
+
+        // Each node is added at most once, so the queue never overflows
+        int[] queue = new int[includedNodes.cardinality()];
+        int queueStart = 0;
+        int queueEnd = 0;
+
+        predNumbers[nodeNumber] = nodeNumber;
+        queue[queueEnd++] = nodeNumber;
+
+        while (queueStart < queueEnd) {
+            nodeNumber = queue[queueStart++];
+
+            for (int succNumber : _appSuccessors[nodeNumber]) {
+                if (includedNodes.get(succNumber) && predNumbers[succNumber] < 0) {
+                    predNumbers[succNumber] = nodeNumber;
+                    queue[queueEnd++] = succNumber;
+                }
+            }
+        }
+
+        return predNumbers;
+    }
+
+    // Returns the app nodes that are targets or have a path (over app nodes) to a target
+    public synchronized BitSet getNodesReaching(Set<CGNode> targetNodes) {
+        BitSet reachingNodes = _reachingNodesCache.get(targetNodes);
+        if (reachingNodes != null) {
+            return reachingNodes;
+        }
+
+        reachingNodes = new BitSet();
+        int[] worklist = new int[_nodes.length];
+        int worklistSize = 0;
+
+        for (CGNode targetNode : targetNodes) {
+            int targetNumber = _callGraph.getNumber(targetNode);
+
+            if (_appNodes.get(targetNumber) && !reachingNodes.get(targetNumber)) {
+                reachingNodes.set(targetNumber);
+                worklist[worklistSize++] = targetNumber;
+            }
+        }
+
+        // Each node is added at most once, so the worklist never overflows
+        while (worklistSize > 0) {
+            int nodeNumber = worklist[--worklistSize];
+
+            for (int predNumber : _appPredecessors[nodeNumber]) {
+                if (!reachingNodes.get(predNumber)) {
+                    reachingNodes.set(predNumber);
+                    worklist[worklistSize++] = predNumber;
+                }
+            }
+        }
+
+        _reachingNodesCache.put(new HashSet<CGNode>(targetNodes), reachingNodes);
+        return reachingNodes;
+    }
+}
+
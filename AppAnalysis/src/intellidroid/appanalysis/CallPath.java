@@ -6,44 +6,40 @@ import com.ibm.wala.ipa.callgraph.*;
 import com.ibm.wala.ipa.callgraph.propagation.*;
 
 import java.util.*;
-import org.apache.commons.lang3.builder.EqualsBuilder;
-import org.apache.commons.lang3.builder.HashCodeBuilder;
 
+// The nodes of the path are stored in a CallPathTrie shared by all paths of the analysis; equal
+// node sequences share the same trie node, so paths compare and hash without visiting the nodes.
 class CallPath {
-    private final List<CGNode> _callPath;
-    private final Set<CGNode> _callNodes;
+    private final CallPathTrie _trie;
+    private final CallPathTrie.PathNode _pathNode;
     //private final CallSiteReference _callbackSite;
     private final ProgramCounter _target;
     private final int _targetIndex;
-    private final CallGraph _callgraph;
     private final PointerAnalysis _pointerAnalysis;
+    private final int _hashCode;
 
-    public CallPath(List<CGNode> callPath, ProgramCounter target, int targetIndex, CallGraph cg, PointerAnalysis pa) {
-        _callPath = callPath;
+    public CallPath(List<CGNode> callPath, ProgramCounter target, int targetIndex, CallPathTrie trie, PointerAnalysis pa) {
+        _trie = trie;
+        _pathNode = trie.add(callPath);
         //_callbackSite = callbackSite;
         _target = target;
         _targetIndex = targetIndex;
-        _callgraph = cg;
         _pointerAnalysis = pa;
 
-        _callNodes = new HashSet<CGNode>();
-        _callNodes.addAll(callPath);
+        _hashCode = 31 * _pathNode.hashCode() + (target == null ? 0 : target.hashCode());
     }
 
-    public CallPath(List<CGNode> callPath, int targetIndex, CallGraph cg, PointerAnalysis pa) {
-        _callPath = callPath;
-        //_callbackSite = callbackSite;
-        _targetIndex = targetIndex;
-        _target = null;
-        _callgraph = cg;
-        _pointerAnalysis = pa;
-
-        _callNodes = new HashSet<CGNode>();
-        _callNodes.addAll(callPath);
+    public CallPath(List<CGNode> callPath, int targetIndex, CallPathTrie trie, PointerAnalysis pa) {
+        this(callPath, null, targetIndex, trie, pa);
     }
 
+    // Built from the trie on each call: callers that access the path repeatedly should keep the list
     public List<CGNode> getPath() {
-        return _callPath;
+        return _trie.getNodes(_pathNode);
+    }
+
+    public CGNode getStartNode() {
+        return _trie.getFirstNode(_pathNode);
     }
 
     public CallSiteReference getTargetCallSite() {
@@ -63,7 +59,7 @@ class CallPath {
     }
 
     public CallGraph getCallGraph() {
-        return _callgraph;
+        return _trie.getCallGraph();
     }
 
     public PointerAnalysis getPointerAnalysis() {
@@ -71,7 +67,7 @@ class CallPath {
     }
 
     public boolean containsNode(CGNode node) {
-        return _callNodes.contains(node);
+        return _trie.containsNode(_pathNode, node);
     }
 
     public boolean equals(Object obj) {
@@ -89,17 +85,14 @@ class CallPath {
             return true;
         }
 
-        return new EqualsBuilder().
-            append(_callPath, otherPath._callPath).
-            append(_target, otherPath._target).
-            isEquals();
+        if (_hashCode != otherPath._hashCode || _pathNode != otherPath._pathNode) {
+            return false;
+        }
+
+        return (_target == null) ? otherPath._target == null : _target.equals(otherPath._target);
     }
 
     public int hashCode() {
-        return new HashCodeBuilder().
-            append(_callPath).
-            append(_target).
-            toHashCode();
+        return _hashCode;
     }
 }
-
@@ -0,0 +1,144 @@
+package intellidroid.appanalysis;
+
+import com.ibm.wala.ipa.callgraph.*;
+
+import java.util.*;
+
+// Shared storage for the node sequences of call paths.  Paths are stored as a prefix tree of
+// call graph node numbers, so that the common prefixes of the paths from an entrypoint (often
+// most of each path) are only stored once.  Equal node sequences map to the same tree node,
+// which carries the hash of the sequence; call paths can therefore be compared by reference.
+class CallPathTrie {
+    private final CallGraph _callGraph;
+    private final PathNode _root = new PathNode(null, -1);
+
+    // Node of the prefix tree; represents the path from the root to itself
+    static class PathNode {
+        private final PathNode _parent;
+        private final int _nodeNumber;
+        private final int _firstNumber;
+        private final int _length;
+        private final int _hashCode;
+
+        // Children in insertion order (most nodes have very few, so they are searched linearly)
+        private int[] _childNumbers = null;
+        private PathNode[] _children = null;
+        private int _numChildren = 0;
+
+        private PathNode(PathNode parent, int nodeNumber) {
+            _parent = parent;
+            _nodeNumber = nodeNumber;
+            _firstNumber = (parent == null || parent._parent == null) ? nodeNumber : parent._firstNumber;
+            _length = (parent == null) ? 0 : parent._length + 1;
+            _hashCode = (parent == null) ? 1 : 31 * parent._hashCode + nodeNumber;
+        }
+
+        @Override
+        public int hashCode() {
+            return _hashCode;
+        }
+
+        private PathNode getChild(int nodeNumber) {
+            for (int i = 0; i < _numChildren; i++) {
+                if (_childNumbers[i] == nodeNumber) {
+                    return _children[i];
+                }
+            }
+
+            return null;
+        }
+
+        private PathNode addChild(int nodeNumber) {
+            if (_children == null) {
+                _childNumbers = new int[2];
+                _children = new PathNode[2];
+            } else if (_numChildren == _children.length) {
+                _childNumbers = Arrays.copyOf(_childNumbers, _numChildren * 2);
+                _children = Arrays.copyOf(_children, _numChildren * 2);
+            }
+
+            PathNode child = new PathNode(this, nodeNumber);
+            _childNumbers[_numChildren] = nodeNumber;
+            _children[_numChildren] = child;
+            _numChildren++;
+
+            return child;
+        }
+    }
+
+    // Read-only view of a path as call graph nodes
+    private class PathNodeList extends AbstractList<CGNode> implements RandomAccess {
+        private final int[] _nodeNumbers;
+
+        public PathNodeList(int[] nodeNumbers) {
+            _nodeNumbers = nodeNumbers;
+        }
+
+        @Override
+        public CGNode get(int index) {
+            return _callGraph.getNode(_nodeNumbers[index]);
+        }
+
+        @Override
+        public int size() {
+            return _nodeNumbers.length;
+        }
+    }
+
+    //=========================================================================
+
+    public CallPathTrie(CallGraph callGraph) {
+        _callGraph = callGraph;
+    }
+
+    public CallGraph getCallGraph() {
+        return _callGraph;
+    }
+
+    // Returns the tree node for the path, adding the nodes of the path that are not stored yet
+    public synchronized PathNode add(List<CGNode> path) {
+        PathNode pathNode = _root;
+
+        for (CGNode node : path) {
+            int nodeNumber = _callGraph.getNumber(node);
+            PathNode child = pathNode.getChild(nodeNumber);
+
+            pathNode = (child != null) ? child : pathNode.addChild(nodeNumber);
+        }
+
+        return pathNode;
+    }
+
+    // Node numbers of the path, from the first node to the last (tree nodes are never modified
+    // after they are created, so no locking is needed)
+    public int[] getNodeNumbers(PathNode pathNode) {
+        int[] nodeNumbers = new int[pathNode._length];
+
+        for (PathNode node = pathNode; node != _root; node = node._parent) {
+            nodeNumbers[node._length - 1] = node._nodeNumber;
+        }
+
+        return nodeNumbers;
+    }
+
+    public List<CGNode> getNodes(PathNode pathNode) {
+        return new PathNodeList(getNodeNumbers(pathNode));
+    }
+
+    public CGNode getFirstNode(PathNode pathNode) {
+        return (pathNode == _root) ? null : _callGraph.getNode(pathNode._firstNumber);
+    }
+
+    // Whether the node is on the path (walks the path, without allocating)
+    public boolean containsNode(PathNode pathNode, CGNode node) {
+        int nodeNumber = _callGraph.getNumber(node);
+
+        for (PathNode pathElement = pathNode; pathElement != _root; pathElement = pathElement._parent) {
+            if (pathElement._nodeNumber == nodeNumber) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
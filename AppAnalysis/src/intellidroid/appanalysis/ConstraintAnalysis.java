@@ -54,8 +54,40 @@ class ConstraintAnalysis {
 
     private IClass _runnableClass;
 
-    public ConstraintAnalysis(CallPath callPath) {
+    private final ConstraintSummaryCache _summaryCache;
+    private final ControlFlowFactsCache _controlFlowFactsCache;
+
+    private final int _maxExpressionAlternatives;
+    private long _widenedExpressions = 0;
+
+    // Number of checks of whether a node is on the path; these depend on the whole path rather
+    // than on the data flowing into a method, so summaries computed across one are not cached
+    private long _pathMembershipChecks = 0;
+
+    //=========================================================================
+
+    // Summary being computed for a method; records the state needed to find its side effects
+    private class PendingSummary {
+        private final ConstraintSummaryCache.Key _key;
+        private final Set<String> _pointerNamesBefore;
+        private final int _targetParametersBefore;
+        private final long _pathMembershipChecksBefore;
+
+        public PendingSummary(ConstraintSummaryCache.Key key) {
+            _key = key;
+            _pointerNamesBefore = new HashSet<String>(_nameToPointerMap.keySet());
+            _targetParametersBefore = _targetParameters.size();
+            _pathMembershipChecksBefore = _pathMembershipChecks;
+        }
+    }
+
+    //=========================================================================
+
+    public ConstraintAnalysis(CallPath callPath, ConstraintSummaryCache summaryCache, ControlFlowFactsCache controlFlowFactsCache, int maxExpressionAlternatives) {
         _callPath = callPath;
+        _summaryCache = summaryCache;
+        _controlFlowFactsCache = controlFlowFactsCache;
+        _maxExpressionAlternatives = maxExpressionAlternatives;
         _cha = callPath.getCallGraph().getClassHierarchy();
         _runnableClass = _cha.lookupClass(TypeReference.findOrCreate(ClassLoaderReference.Extension, "Ljava/lang/Runnable"));
         generateConstraintsAndDataPropagation();
@@ -65,6 +97,11 @@ class ConstraintAnalysis {
         return _constraints;
     }
 
+    // Number of values left unconstrained because they had too many alternative expressions
+    public long getWidenedExpressions() {
+        return _widenedExpressions;
+    }
+
     public Map<PointerKey, Predicate> getHeapDependencies() {
         return _heapDependencies;
     }
@@ -94,16 +131,16 @@ class ConstraintAnalysis {
         CallGraph cg = _callPath.getCallGraph();
 
         CGNode triggerNode = path.get(0);
-        Map<Integer, ExpressionGroup> triggerDataMap = new HashMap<Integer, ExpressionGroup>();
+        ValueDataMap triggerDataMap = new ValueDataMap();
 
         for (int i = 1; i < triggerNode.getIR().getNumberOfParameters(); i++) {
-            triggerDataMap.put(triggerNode.getIR().getParameter(i), new ExpressionGroup(new Expression("<Input" + i + ">", triggerNode.getIR().getParameterType(i))));
+            triggerDataMap.put(triggerNode.getIR().getParameter(i), new ExpressionGroup(Expression.make("<Input" + i + ">", triggerNode.getIR().getParameterType(i))));
         }
 
-        Map<Integer, ExpressionGroup> nextParameterMap = triggerDataMap;
+        ValueDataMap nextParameterMap = triggerDataMap;
 
         for (int i = 0; i < path.size(); i++) {
-            nextParameterMap = processPathNode(i, nextParameterMap);
+            nextParameterMap = processPathNode(path, i, nextParameterMap);
         }
 
         for (Predicate pathNodeConstraint : _pathNodeConstraints) {
@@ -114,9 +151,6 @@ class ConstraintAnalysis {
         _pathNodeConstraints.clear();
         _pathNodeConstraints = null;
 
-        // Make copy of constraint before minimizing them and modifying their contents
-        _constraints = Predicate.duplicate(_constraints);
-
         if (_constraints != null) {
             processInterEventDependencies();
         }
@@ -157,53 +191,66 @@ class ConstraintAnalysis {
     // ========================================================================
 
     private void processHeapConstraints() {
-        List<PointerKey> heapDependencies = constraintContainsHeapDependencies(_constraints);
+        List<PointerKey> heapDependencies = new ArrayList<PointerKey>();
+        _constraints = constraintContainsHeapDependencies(_constraints, heapDependencies);
         
         for (PointerKey pKey : heapDependencies) {
             if (!_heapDependencies.keySet().contains(pKey)) {
-                modifyConstraintVariablesForEventChain(_constraints);
+                _constraints = modifyConstraintVariablesForEventChain(_constraints);
                 _heapDependencies.put(pKey, _constraints);
             }
         }
     }
 
-    private List<PointerKey> constraintContainsHeapDependencies(Predicate constraint) {
+    // Adds the heap dependencies of the constraint that are not handled in a sub-constraint
+    // to the list.  Returns the constraint with the handled sub-constraints modified for the
+    // event chain.
+    private Predicate constraintContainsHeapDependencies(Predicate constraint, List<PointerKey> heapDependencies) {
         if (constraint.isExpression()) {
-            return exprContainsHeapDependencies(constraint.getExpression());
+            List<PointerKey> exprResult = exprContainsHeapDependencies(constraint.getExpression());
+            if (exprResult != null) {
+                heapDependencies.addAll(exprResult);
+            }
+
+            return constraint;
 
         } else if (constraint.isUnary()) {
-            return constraintContainsHeapDependencies(constraint.getLeft());
+            Predicate left = constraintContainsHeapDependencies(constraint.getLeft(), heapDependencies);
+            return (left == constraint.getLeft()) ? constraint : Predicate.make(constraint.getOperator(), left);
 
         } else if (constraint.isBinary()) {
-            List<PointerKey> leftResult = constraintContainsHeapDependencies(constraint.getLeft());
-            List<PointerKey> rightResult = constraintContainsHeapDependencies(constraint.getRight());
+            List<PointerKey> leftResult = new ArrayList<PointerKey>();
+            List<PointerKey> rightResult = new ArrayList<PointerKey>();
+            Predicate left = constraintContainsHeapDependencies(constraint.getLeft(), leftResult);
+            Predicate right = constraintContainsHeapDependencies(constraint.getRight(), rightResult);
+
+            if (!leftResult.isEmpty() && rightResult.isEmpty() && constraint.getOperator().equals(Predicate.Operator.OR)) {
+                left = modifyConstraintVariablesForEventChain(left);
 
-            if (!leftResult.isEmpty() && rightResult.isEmpty() && constraint.getOperator().equals(Expression.Operator.OR)) {
                 for (PointerKey pKey : leftResult) {
-                    modifyConstraintVariablesForEventChain(constraint.getLeft());
-                    _heapDependencies.put(pKey, constraint.getLeft());
+                    _heapDependencies.put(pKey, left);
                 }
 
-                return new ArrayList<PointerKey>();
+            } else if (leftResult.isEmpty() && !rightResult.isEmpty() && constraint.getOperator().equals(Predicate.Operator.OR)) {
+                right = modifyConstraintVariablesForEventChain(right);
 
-            } else if (leftResult.isEmpty() && !rightResult.isEmpty() && constraint.getOperator().equals(Expression.Operator.OR)) {
                 for (PointerKey pKey : rightResult) {
-                    modifyConstraintVariablesForEventChain(constraint.getRight());
-                    _heapDependencies.put(pKey, constraint.getRight());
+                    _heapDependencies.put(pKey, right);
                 }
 
-                return new ArrayList<PointerKey>();
-
             } else {
-                List<PointerKey> result = new ArrayList<PointerKey>();
-                result.addAll(leftResult);
-                result.addAll(rightResult);
+                heapDependencies.addAll(leftResult);
+                heapDependencies.addAll(rightResult);
+            }
 
-                return result;
+            if (left == constraint.getLeft() && right == constraint.getRight()) {
+                return constraint;
             }
+
+            return Predicate.make(constraint.getOperator(), left, right);
         }
 
-        return null;
+        return constraint;
     }
 
     private List<PointerKey> exprContainsHeapDependencies(Expression expr) {
@@ -233,32 +280,48 @@ class ConstraintAnalysis {
         return null;
     }
 
-    private void modifyConstraintVariablesForEventChain(Predicate constraint) {
+    private Predicate modifyConstraintVariablesForEventChain(Predicate constraint) {
         if (constraint.isExpression()) {
-            modifyConstraintVariablesForEventChain(constraint.getExpression());
+            Expression expr = modifyConstraintVariablesForEventChain(constraint.getExpression());
+            return (expr == constraint.getExpression()) ? constraint : Predicate.make(expr);
 
         } else if (constraint.isUnary()) {
-            modifyConstraintVariablesForEventChain(constraint.getLeft());
+            Predicate left = modifyConstraintVariablesForEventChain(constraint.getLeft());
+            return (left == constraint.getLeft()) ? constraint : Predicate.make(constraint.getOperator(), left);
 
         } else if (constraint.isBinary()) {
-            modifyConstraintVariablesForEventChain(constraint.getLeft());
-            modifyConstraintVariablesForEventChain(constraint.getRight());
+            Predicate left = modifyConstraintVariablesForEventChain(constraint.getLeft());
+            Predicate right = modifyConstraintVariablesForEventChain(constraint.getRight());
+
+            if (left == constraint.getLeft() && right == constraint.getRight()) {
+                return constraint;
+            }
+
+            return Predicate.make(constraint.getOperator(), left, right);
         }
+
+        return constraint;
     }
 
-    private void modifyConstraintVariablesForEventChain(Expression expr) {
+    private Expression modifyConstraintVariablesForEventChain(Expression expr) {
         if (expr.isVariable()) {
             String variable = expr.getVariable();
 
             if (variable.contains("<Input")) {
                 String newVariable = variable.replaceFirst("<Input", "<ChainedInput");
-                expr.set(newVariable, expr.getType());
+                return Expression.make(newVariable, expr.getType());
             }
 
         } else if (expr.isExpression()) {
-            modifyConstraintVariablesForEventChain(expr.getLeft());
-            modifyConstraintVariablesForEventChain(expr.getRight());
+            Expression left = modifyConstraintVariablesForEventChain(expr.getLeft());
+            Expression right = modifyConstraintVariablesForEventChain(expr.getRight());
+
+            if (left != expr.getLeft() || right != expr.getRight()) {
+                return Expression.make(expr.getOperator(), left, right);
+            }
         }
+
+        return expr;
     }
 
     // ========================================================================
@@ -314,15 +377,14 @@ class ConstraintAnalysis {
 
     // ========================================================================
 
-    private Map<Integer, ExpressionGroup> processPathNode(int pathIndex, Map<Integer, ExpressionGroup> parameterMap) {
+    private ValueDataMap processPathNode(List<CGNode> path, int pathIndex, ValueDataMap parameterMap) {
         CallGraph cg = _callPath.getCallGraph();
-        List<CGNode> path = _callPath.getPath();
         CGNode node = path.get(pathIndex);
         SSACFG cfg = node.getIR().getControlFlowGraph();
-        Map<Integer, ExpressionGroup> nextParameterMap = null;
+        ValueDataMap nextParameterMap = null;
 
         if (parameterMap == null) {
-            parameterMap = new HashMap<Integer, ExpressionGroup>();
+            parameterMap = new ValueDataMap();
         }
 
         if (parameterMap.isEmpty() && _storeDataMap.isEmpty() && pathIndex != 0) {
@@ -346,14 +408,37 @@ class ConstraintAnalysis {
 
         ISSABasicBlock targetBlock = node.getIR().getBasicBlockForInstruction(targetInstr);
 
+        // Reuse the result for this method if it was already analyzed with the same incoming data
+        PendingSummary pendingSummary = null;
+
+        if (_summaryCache != null) {
+            String summaryTarget = (nextPathNode == null) ? "target:" + _callPath.getTargetIndex() : "block:" + targetBlock.getNumber();
+            ConstraintSummaryCache.Key summaryKey = new ConstraintSummaryCache.Key(node, summaryTarget, nextPathNode, _callPath.getTarget(), parameterMap, _storeDataMap);
+            ConstraintSummaryCache.Summary summary = _summaryCache.get(summaryKey);
+
+            if (summary != null) {
+                Output.debug(DEBUG, "    using constraint summary");
+                applySummarySideEffects(summary);
+
+                Predicate summaryConstraints = summary.getConstraints();
+                if (summaryConstraints != null) {
+                    _pathNodeConstraints.add(summaryConstraints);
+                }
+
+                return summary.getDataMap();
+            }
+
+            pendingSummary = new PendingSummary(summaryKey);
+        }
+
         // Store the propagated data values and constraints per basic block
-        Map<ISSABasicBlock, Map<Integer, ExpressionGroup>> dataPropagationMap = new HashMap<ISSABasicBlock, Map<Integer, ExpressionGroup>>();
+        Map<ISSABasicBlock, ValueDataMap> dataPropagationMap = new HashMap<ISSABasicBlock, ValueDataMap>();
         Map<ISSABasicBlock, Predicate> constraintMap = new HashMap<ISSABasicBlock, Predicate>();
 
         dataPropagationMap.put(cfg.entry(), parameterMap);
 
         // Compute backedges to deap with loop dependencies
-        IBinaryNaturalRelation backedges = Acyclic.computeBackEdges(cfg, cfg.entry());
+        IBinaryNaturalRelation backedges = _controlFlowFactsCache.get(node.getIR()).getBackEdges();
 
         if (DEBUG) {
             Iterator<IntPair> backedgesIter = backedges.iterator();
@@ -415,7 +500,7 @@ class ConstraintAnalysis {
 
                 //Output.debug(DEBUG, "Processing block: " + block.getNumber());
 
-                Map<Integer, ExpressionGroup> dataPropagation = new HashMap<Integer, ExpressionGroup>();
+                ValueDataMap dataPropagation = new ValueDataMap();
                 Predicate propagatedConstraints = null;
                 Collection<ISSABasicBlock> predBlocks = cfg.getNormalPredecessors(block);
 
@@ -473,20 +558,20 @@ class ConstraintAnalysis {
                             }
                         } else if (Util.endsWithSwitch(cfg, predBlock)) {
                             SSASwitchInstruction switchInstr = (SSASwitchInstruction)predBlock.getLastInstruction();
-                            Map<Integer, ExpressionGroup> dataMap = dataPropagationMap.get(predBlock);
+                            ValueDataMap dataMap = dataPropagationMap.get(predBlock);
 
                             if (dataMap.containsKey(switchInstr.getUse(0))) {
                                 if (Util.isSwitchDefault(cfg, predBlock, block)) {
                                     // TODO: Add "not" constraint for all other conditions
                                 } else {
                                     int switchLabel = Util.getSwitchLabel(cfg, predBlock, block);
-                                    //predConstraint = new Predicate(new Expression(Expression.Operator.EQ, dataMap.get(switchInstr.getUse(0)), new Predicate(Integer.toString(switchLabel), TypeReference.Int)));
+                                    //predConstraint = Predicate.make(Expression.make(Expression.Operator.EQ, dataMap.get(switchInstr.getUse(0)), Predicate.make(Integer.toString(switchLabel), TypeReference.Int)));
                                     //Expression switchConstraint = null;
                                     //for (Expression switchExpr : dataMap.get(switchInstr.getUse(0))) {
-                                    //    switchConstraint = Predicate.combine(Predicate.Operator.OR, switchConstraint, new Predicate(Integer.toString(switchLabel), TypeReference.Int));
+                                    //    switchConstraint = Predicate.combine(Predicate.Operator.OR, switchConstraint, Predicate.make(Integer.toString(switchLabel), TypeReference.Int));
                                     //}
 
-                                    ExpressionGroup switchExprGrp = ExpressionGroup.combine(Expression.Operator.EQ, dataMap.get(switchInstr.getUse(0)), new Expression(Integer.toString(switchLabel), TypeReference.Int));
+                                    ExpressionGroup switchExprGrp = ExpressionGroup.combine(Expression.Operator.EQ, dataMap.get(switchInstr.getUse(0)), Expression.make(Integer.toString(switchLabel), TypeReference.Int));
                                     predConstraint = switchExprGrp.toPredicate();
                                 }
                             }
@@ -509,7 +594,7 @@ class ConstraintAnalysis {
                             // a large number of conditional statements in a method could overwhelm the constraint
                             // processing.
 
-                            propagatedConstraints = new Predicate(Predicate.Operator.OR, propagatedConstraints, predConstraint);
+                            propagatedConstraints = Predicate.make(Predicate.Operator.OR, propagatedConstraints, predConstraint);
                         }
                     }
                 }
@@ -543,7 +628,7 @@ class ConstraintAnalysis {
                 }
 
                 if (DEBUG) {
-                    for (Integer dataVal : dataPropagation.keySet()) {
+                    for (int dataVal : dataPropagation.getValueNumbers()) {
                         String dataName;
 
                         if (node.getIR().getLocalNames(0, dataVal) != null) {
@@ -621,7 +706,7 @@ class ConstraintAnalysis {
         if (DEBUG) {
             Output.debug(DEBUG, "-----------------------------------");
             Output.debug(DEBUG, "Propagation for: " + node.toString());
-            Map<Integer, ExpressionGroup> dataMap = dataPropagationMap.get(targetBlock);
+            ValueDataMap dataMap = dataPropagationMap.get(targetBlock);
 
             //for (Integer dataVal : dataMap.keySet()) {
             //    String dataName;
@@ -652,12 +737,16 @@ class ConstraintAnalysis {
             _pathNodeConstraints.add(nodeConstraints);
         }
 
+        if (pendingSummary != null) {
+            storeSummary(pendingSummary, nodeConstraints, nextParameterMap);
+        }
+
         return nextParameterMap;
     }
 
-    private Predicate processHelperNode(CGNode node, String returnString, Map<Integer, ExpressionGroup> parameterMap) {
+    private Predicate processHelperNode(CGNode node, String returnString, ValueDataMap parameterMap) {
         if (parameterMap == null) {
-            parameterMap = new HashMap<Integer, ExpressionGroup>();
+            parameterMap = new ValueDataMap();
         }
 
         if (parameterMap.isEmpty() && _storeDataMap.isEmpty()) {
@@ -671,12 +760,27 @@ class ConstraintAnalysis {
 
         Output.debug(DEBUG, "processHelperNode: " + node.toString());
 
+        PendingSummary pendingSummary = null;
+
+        if (_summaryCache != null) {
+            ConstraintSummaryCache.Key summaryKey = new ConstraintSummaryCache.Key(node, returnString, null, _callPath.getTarget(), parameterMap, _storeDataMap);
+            ConstraintSummaryCache.Summary summary = _summaryCache.get(summaryKey);
+
+            if (summary != null) {
+                Output.debug(DEBUG, "    using constraint summary");
+                applySummarySideEffects(summary);
+                return summary.getConstraints();
+            }
+
+            pendingSummary = new PendingSummary(summaryKey);
+        }
+
         Predicate helperMethodConstraint = null;
         SSACFG cfg = node.getIR().getControlFlowGraph();
         SymbolTable symbolTable = node.getIR().getSymbolTable();
 
         // Propagate data through the instructions
-        Map<ISSABasicBlock, Map<Integer, ExpressionGroup>> dataPropagationMap = new HashMap<ISSABasicBlock, Map<Integer, ExpressionGroup>>();
+        Map<ISSABasicBlock, ValueDataMap> dataPropagationMap = new HashMap<ISSABasicBlock, ValueDataMap>();
 
         dataPropagationMap.put(cfg.entry(), parameterMap);
         BFSIterator<ISSABasicBlock> bfsIter = new BFSIterator<ISSABasicBlock>(cfg, cfg.entry());
@@ -687,7 +791,7 @@ class ConstraintAnalysis {
         while (bfsIter.hasNext()) {
             ISSABasicBlock block = bfsIter.next();
 
-            Map<Integer, ExpressionGroup> dataPropagation = new HashMap<Integer, ExpressionGroup>();
+            ValueDataMap dataPropagation = new ValueDataMap();
 
             // Propagate data from predecessor blocks
             for (ISSABasicBlock predBlock : cfg.getNormalPredecessors(block)) {
@@ -805,7 +909,7 @@ class ConstraintAnalysis {
                 if (pathConstraint != null && symbolTable.isIntegerConstant(returnInstr.getUse(0))) {
                     // Add constraint for return value to path constraints
                     ExpressionGroup returnValueExprGrp = getInstrOperandExpression(node, returnInstr.getUse(0), dataPropagationMap.get(returnBlock));
-                    Predicate returnValueConstraint = ExpressionGroup.combine(Expression.Operator.EQ, new Expression(returnString, node.getMethod().getReturnType()), returnValueExprGrp).toPredicate();
+                    Predicate returnValueConstraint = ExpressionGroup.combine(Expression.Operator.EQ, Expression.make(returnString, node.getMethod().getReturnType()), returnValueExprGrp).toPredicate();
                     pathConstraint = Predicate.combine(Predicate.Operator.AND, pathConstraint, returnValueConstraint);
 
                     // Add path constraint to set of return constraints for helper method
@@ -813,20 +917,20 @@ class ConstraintAnalysis {
                 }
 
                 //if (pathConstraint != null && symbolTable.isIntegerConstant(returnInstr.getUse(0))) {
-                //    Predicate returnValueConstraint = new Predicate(new Expression(Expression.Operator.EQ, new Expression(returnString, node.getMethod().getReturnType()), new Expression("" + symbolTable.getIntValue(returnInstr.getUse(0)), TypeReference.Int)));
+                //    Predicate returnValueConstraint = Predicate.make(Expression.make(Expression.Operator.EQ, Expression.make(returnString, node.getMethod().getReturnType()), Expression.make("" + symbolTable.getIntValue(returnInstr.getUse(0)), TypeReference.Int)));
                 //    pathConstraint = Predicate.combine(Predicate.Operator.AND, pathConstraint, returnValueConstraint);
 
                 //    if (returnConstraint == null) {
                 //        returnConstraint = pathConstraint;
                 //    } else {
-                //        returnConstraint = new Predicate(Predicate.Operator.OR, returnConstraint, pathConstraint);
+                //        returnConstraint = Predicate.make(Predicate.Operator.OR, returnConstraint, pathConstraint);
                 //    }
                 //} else if (dataPropagationMap.get(returnBlock).containsKey(returnInstr.getUse(0))){
-                //    Predicate returnValueConstraint = new Predicate(new Expression(Expression.Operator.EQ, new Expression(returnString, node.getMethod().getReturnType()), dataPropagationMap.get(returnBlock).get(returnInstr.getUse(0))));
+                //    Predicate returnValueConstraint = Predicate.make(Expression.make(Expression.Operator.EQ, Expression.make(returnString, node.getMethod().getReturnType()), dataPropagationMap.get(returnBlock).get(returnInstr.getUse(0))));
                 //    if (returnConstraint == null) {
                 //        returnConstraint = returnValueConstraint;
                 //    } else {
-                //        returnConstraint = new Predicate(Predicate.Operator.OR, returnConstraint, returnValueConstraint);
+                //        returnConstraint = Predicate.make(Predicate.Operator.OR, returnConstraint, returnValueConstraint);
                 //    }
                 //}
             } while (pathFinder.hasNext());
@@ -844,12 +948,12 @@ class ConstraintAnalysis {
             Output.debug(DEBUG, "-----------------------------------");
             Output.debug(DEBUG, "Propagation for: " + node.toString());
 
-            Map<Integer, ExpressionGroup> dataMap = new HashMap<Integer, ExpressionGroup>();
+            ValueDataMap dataMap = new ValueDataMap();
             for (ISSABasicBlock block : dataPropagationMap.keySet()) {
                 dataMap.putAll(dataPropagationMap.get(block));
             }
 
-            for (Integer dataVal : dataMap.keySet()) {
+            for (int dataVal : dataMap.getValueNumbers()) {
                 String dataName;
 
                 if (node.getIR().getLocalNames(0, dataVal) != null) {
@@ -864,10 +968,90 @@ class ConstraintAnalysis {
             Output.debug(DEBUG, "-----------------------------------");
         }
 
+        if (pendingSummary != null) {
+            storeSummary(pendingSummary, helperMethodConstraint, null);
+        }
+
         return helperMethodConstraint;
     }
 
-    private ExpressionGroup getExpressionFromCondInstr(CGNode node, SSAConditionalBranchInstruction condInstr, Map<Integer, ExpressionGroup> dataMap) {
+    private void storeSummary(PendingSummary pendingSummary, Predicate constraints, ValueDataMap dataMap) {
+        if (_pathMembershipChecks != pendingSummary._pathMembershipChecksBefore) {
+            Output.debug(DEBUG, "    not caching path-dependent summary");
+            return;
+        }
+
+        Map<String, PointerKey> newPointerNames = new HashMap<String, PointerKey>();
+
+        for (Map.Entry<String, PointerKey> pointerName : _nameToPointerMap.entrySet()) {
+            if (!pendingSummary._pointerNamesBefore.contains(pointerName.getKey())) {
+                newPointerNames.put(pointerName.getKey(), pointerName.getValue());
+            }
+        }
+
+        List<Expression> newTargetParameters = _targetParameters.subList(pendingSummary._targetParametersBefore, _targetParameters.size());
+        _summaryCache.put(pendingSummary._key, new ConstraintSummaryCache.Summary(constraints, dataMap, _storeDataMap, newPointerNames, newTargetParameters));
+    }
+
+    private void applySummarySideEffects(ConstraintSummaryCache.Summary summary) {
+        // The heap store data before the method is part of the key, so the stored data afterwards replaces it
+        _storeDataMap.clear();
+        _storeDataMap.putAll(summary.getStoreDataMap());
+
+        for (Map.Entry<String, PointerKey> pointerName : summary.getPointerNames().entrySet()) {
+            _nameToPointerMap.put(pointerName.getKey(), pointerName.getValue());
+            _pointerToNameMap.put(pointerName.getValue(), pointerName.getKey());
+        }
+
+        _targetParameters.addAll(summary.getTargetParameters());
+    }
+
+    // Values with too many alternatives are widened to an unconstrained value, i.e. they are
+    // removed from the data map (and conditions on them are dropped)
+    private boolean exceedsMaxAlternatives(long alternatives) {
+        if (exceedsMaxAlternatives(alternatives, _maxExpressionAlternatives)) {
+            Output.debug(DEBUG, "Widening value with " + alternatives + " alternatives");
+            _widenedExpressions++;
+            return true;
+        }
+
+        return false;
+    }
+
+    static boolean exceedsMaxAlternatives(long alternatives, int maxAlternatives) {
+        return maxAlternatives > 0 && alternatives > maxAlternatives;
+    }
+
+    // Merges the data of the phi operands into its def.  Returns false if the value was widened;
+    // its previous data (e.g. from an earlier loop iteration, through the back edge) is removed
+    // as well, so that the value is unconstrained rather than keeping a narrower value.
+    static boolean propagatePhiInstr(SSAPhiInstruction phiInstr, ValueDataMap dataMap, int maxAlternatives) {
+        ExpressionGroup phiExprGrp = new ExpressionGroup();
+
+        for (int i = 0; i < phiInstr.getNumberOfUses(); i++) {
+            if (dataMap.containsKey(phiInstr.getUse(i))) {
+                phiExprGrp.addAll(dataMap.get(phiInstr.getUse(i)));
+            }
+        }
+
+        if (exceedsMaxAlternatives(phiExprGrp.size(), maxAlternatives)) {
+            dataMap.remove(phiInstr.getDef());
+            return false;
+        }
+
+        if (!phiExprGrp.isEmpty()) {
+            dataMap.put(phiInstr.getDef(), phiExprGrp);
+        }
+
+        return true;
+    }
+
+    private boolean isPathNode(CGNode node) {
+        _pathMembershipChecks++;
+        return _callPath.containsNode(node);
+    }
+
+    private ExpressionGroup getExpressionFromCondInstr(CGNode node, SSAConditionalBranchInstruction condInstr, ValueDataMap dataMap) {
         SymbolTable symbolTable = node.getIR().getSymbolTable();
         if (symbolTable == null) {
             return null;
@@ -880,6 +1064,10 @@ class ConstraintAnalysis {
         ExpressionGroup operand1 = getInstrOperandExpression(node, condInstr.getUse(0), dataMap);
         ExpressionGroup operand2 = getInstrOperandExpression(node, condInstr.getUse(1), dataMap);
 
+        if (exceedsMaxAlternatives(ExpressionGroup.getCombinedSize(operand1, operand2))) {
+            return null;
+        }
+
         ExpressionGroup result = ExpressionGroup.combine(condInstr.getOperator(), operand1, operand2);
         Output.debug(DEBUG, "Cond instr: " + condInstr);
         Output.debug(DEBUG, "    expression: " + result);
@@ -887,7 +1075,7 @@ class ConstraintAnalysis {
         return result;
     }
 
-    private Predicate propagateInstruction(CGNode node, SSAInstruction instr, Map<Integer, ExpressionGroup> dataMap, boolean propagateInvoke, SSAInstruction targetInstr) {
+    private Predicate propagateInstruction(CGNode node, SSAInstruction instr, ValueDataMap dataMap, boolean propagateInvoke, SSAInstruction targetInstr) {
         SymbolTable symbolTable = node.getIR().getSymbolTable();
 
         if (instr instanceof SSAAbstractInvokeInstruction) {
@@ -910,17 +1098,10 @@ class ConstraintAnalysis {
             }
         } else if (instr instanceof SSAPhiInstruction) {
             SSAPhiInstruction phiInstr = (SSAPhiInstruction)instr;
-            ExpressionGroup phiExprGrp = new ExpressionGroup();
 
-            for (int i = 0; i < phiInstr.getNumberOfUses(); i++) {
-                if (dataMap.containsKey(phiInstr.getUse(i))) {
-                    //dataMap.put(phiInstr.getDef(), dataMap.get(phiInstr.getUse(i)));
-                    phiExprGrp.addAll(dataMap.get(phiInstr.getUse(i)));
-                }
-            }
-
-            if (!phiExprGrp.isEmpty()) {
-                dataMap.put(phiInstr.getDef(), phiExprGrp);
+            if (!propagatePhiInstr(phiInstr, dataMap, _maxExpressionAlternatives)) {
+                Output.debug(DEBUG, "Widening phi value " + phiInstr.getDef());
+                _widenedExpressions++;
             }
         } else if (instr instanceof SSAComparisonInstruction) {
             SSAComparisonInstruction compareInstr = (SSAComparisonInstruction)instr;
@@ -930,6 +1111,12 @@ class ConstraintAnalysis {
 
                 ExpressionGroup left = getInstrOperandExpression(node, compareInstr.getUse(0), dataMap);
                 ExpressionGroup right = getInstrOperandExpression(node, compareInstr.getUse(1), dataMap);
+
+                if (exceedsMaxAlternatives(ExpressionGroup.getCombinedSize(left, right))) {
+                    dataMap.remove(compareInstr.getDef());
+                    return null;
+                }
+
                 ExpressionGroup cmpExprGrp = ExpressionGroup.combine(Expression.Operator.CMP, left, right);
                 if (cmpExprGrp != null && !cmpExprGrp.isEmpty()) {
                     dataMap.put(compareInstr.getDef(), cmpExprGrp);
@@ -956,7 +1143,7 @@ class ConstraintAnalysis {
                     };
 
                     if (!dataMap.containsKey(binaryInstr.getUse(1)) || dataMap.get(binaryInstr.getUse(1)).evaluate(checkPointerFunc)) {
-                        dataMap.put(binaryInstr.getUse(1), new ExpressionGroup(new Expression("<SystemPrevTime>", TypeReference.Long)));
+                        dataMap.put(binaryInstr.getUse(1), new ExpressionGroup(Expression.make("<SystemPrevTime>", TypeReference.Long)));
                     }
                 }
             }
@@ -967,7 +1154,7 @@ class ConstraintAnalysis {
             //    binaryInstr.getOperator().equals(IBinaryOpInstruction.Operator.SUB)) {
 
             //    if (!dataMap.containsKey(binaryInstr.getUse(1)) || (dataMap.get(binaryInstr.getUse(1)).get(0).isVariable() && dataMap.get(binaryInstr.getUse(1)).get(0).getVariable().contains("Pointer<"))) {
-            //        dataMap.put(binaryInstr.getUse(1), new Predicate("<SystemPrevTime>", TypeReference.Long));
+            //        dataMap.put(binaryInstr.getUse(1), Predicate.make("<SystemPrevTime>", TypeReference.Long));
             //    }
             //}
 
@@ -976,6 +1163,12 @@ class ConstraintAnalysis {
 
                 ExpressionGroup left = getInstrOperandExpression(node, binaryInstr.getUse(0), dataMap);
                 ExpressionGroup right = getInstrOperandExpression(node, binaryInstr.getUse(1), dataMap);
+
+                if (exceedsMaxAlternatives(ExpressionGroup.getCombinedSize(left, right))) {
+                    dataMap.remove(binaryInstr.getDef());
+                    return null;
+                }
+
                 ExpressionGroup binaryExprGrp = ExpressionGroup.combine(binaryInstr.getOperator(), left, right);
                 dataMap.put(binaryInstr.getDef(), binaryExprGrp);
             }
@@ -1001,7 +1194,7 @@ class ConstraintAnalysis {
         return null;
     }
 
-    private Predicate propagateInvokeInstr(final CGNode node, final SSAAbstractInvokeInstruction invokeInstr, Map<Integer, ExpressionGroup> dataMap, final boolean propagateInvoke, final SSAInstruction targetInstr) {
+    private Predicate propagateInvokeInstr(final CGNode node, final SSAAbstractInvokeInstruction invokeInstr, ValueDataMap dataMap, final boolean propagateInvoke, final SSAInstruction targetInstr) {
         final MethodReference target = invokeInstr.getDeclaredTarget();
         final String targetName = target.getSelector().getName().toString();
         final String targetSignature = target.getSignature();
@@ -1022,20 +1215,20 @@ class ConstraintAnalysis {
             if (invokeInstr.getNumberOfUses() > 1) {
                 if (recvExpr != null && paramExpr != null) {
                     String returnString = targetName + invokeInstr.getDef() + "<return>";
-                    dataMap.put(invokeInstr.getDef(), new ExpressionGroup(new Expression(returnString, invokeInstr.getDeclaredTarget().getReturnType())));
+                    dataMap.put(invokeInstr.getDef(), new ExpressionGroup(Expression.make(returnString, invokeInstr.getDeclaredTarget().getReturnType())));
 
                     // Represent string comparison methods as constraints
-                    //Predicate eqConstraint = new Predicate(new Expression(Expression.Operator.EQ, recvExpr, paramExpr));
+                    //Predicate eqConstraint = Predicate.make(Expression.make(Expression.Operator.EQ, recvExpr, paramExpr));
                     Predicate eqConstraint = ExpressionGroup.combine(Expression.Operator.EQ, recvExpr, paramExpr).toPredicate();
-                    Expression eqRetExpression = new Expression(Expression.Operator.EQ, new Expression(returnString, TypeReference.Int), new Expression("1", TypeReference.Int));
-                    eqConstraint = new Predicate(Predicate.Operator.AND, eqConstraint, new Predicate(eqRetExpression));
+                    Expression eqRetExpression = Expression.make(Expression.Operator.EQ, Expression.make(returnString, TypeReference.Int), Expression.make("1", TypeReference.Int));
+                    eqConstraint = Predicate.make(Predicate.Operator.AND, eqConstraint, Predicate.make(eqRetExpression));
 
-                    //Predicate neConstraint = new Predicate(new Expression(Expression.Operator.NE, recvExpr, paramExpr));
+                    //Predicate neConstraint = Predicate.make(Expression.make(Expression.Operator.NE, recvExpr, paramExpr));
                     Predicate neConstraint = ExpressionGroup.combine(Expression.Operator.NE, recvExpr, paramExpr).toPredicate();
-                    Expression neRetExpression = new Expression(Expression.Operator.EQ, new Expression(returnString, TypeReference.Int), new Expression("0", TypeReference.Int));
-                    neConstraint = new Predicate(Predicate.Operator.AND, neConstraint, new Predicate(neRetExpression));
+                    Expression neRetExpression = Expression.make(Expression.Operator.EQ, Expression.make(returnString, TypeReference.Int), Expression.make("0", TypeReference.Int));
+                    neConstraint = Predicate.make(Predicate.Operator.AND, neConstraint, Predicate.make(neRetExpression));
 
-                    Predicate constraint = new Predicate(Predicate.Operator.OR, eqConstraint, neConstraint);
+                    Predicate constraint = Predicate.make(Predicate.Operator.OR, eqConstraint, neConstraint);
                     return constraint;
                 }
             }
@@ -1066,7 +1259,7 @@ class ConstraintAnalysis {
                     @Override
                     public Expression call(Expression expr) {
                         if (expr.isVariable()) {
-                            return new Expression("SharedPreferences<" + expr.getVariable() + ">", target.getReturnType());
+                            return Expression.make("SharedPreferences<" + expr.getVariable() + ">", target.getReturnType());
                         }
                         return null;
                     }
@@ -1079,7 +1272,7 @@ class ConstraintAnalysis {
             }
 
             //if (paramExpr != null && paramExpr.isVariable()) {
-            //    Expression sharedPrefExpr = new Expression("SharedPreferences<" + paramExpr.getVariable() + ">", target.getReturnType());
+            //    Expression sharedPrefExpr = Expression.make("SharedPreferences<" + paramExpr.getVariable() + ">", target.getReturnType());
             //    dataMap.put(invokeInstr.getDef(), new ExpressionGroup(sharedPrefExpr));
             //}
         } else if (targetSignature.startsWith("java.text.SimpleDateFormat.<init>(Ljava/lang/String;")) {
@@ -1087,7 +1280,7 @@ class ConstraintAnalysis {
                 @Override
                 public Expression call(Expression expr) {
                     if (expr.isVariable()) {
-                        return new Expression("DateFormat(" + expr.getVariable() + ")", TypeReference.JavaLangString);
+                        return Expression.make("DateFormat(" + expr.getVariable() + ")", TypeReference.JavaLangString);
                     }
                     return null;
                 }
@@ -1100,7 +1293,7 @@ class ConstraintAnalysis {
 
             //if (paramExpr != null && paramExpr.isVariable()) {
             //    String dateString = "DateFormat(" + paramExpr.getVariable() + ")";
-            //    Expression dateExpr = new Expression(dateString, TypeReference.JavaLangString);
+            //    Expression dateExpr = Expression.make(dateString, TypeReference.JavaLangString);
             //    dataMap.put(invokeInstr.getReceiver(), Arrays.asList(dateExpr));
             //}
         } else if (targetSignature.contains("DateFormat.format(Ljava/util/Date;")) {
@@ -1109,7 +1302,7 @@ class ConstraintAnalysis {
                 for (Expression rExpr : recvExpr.toList()) {
                     for (Expression pExpr : paramExpr.toList()) {
                         if (pExpr.isVariable() && rExpr.isVariable()) {
-                            dateExprGrp.add(new Expression(rExpr.getVariable() + "(" + pExpr.getVariable() + ")", TypeReference.JavaLangString));
+                            dateExprGrp.add(Expression.make(rExpr.getVariable() + "(" + pExpr.getVariable() + ")", TypeReference.JavaLangString));
                         }
                     }
                 }
@@ -1122,11 +1315,11 @@ class ConstraintAnalysis {
             //if (recvExpr != null && recvExpr.get(0).isVariable() && paramExpr != null && paramExpr.get(0).isVariable()) {
 
             //    String dateString = recvExpr.getVariable() + "(" + paramExpr.getVariable() + ")";
-            //    Expression dateExpr = new Expression(dateString, TypeReference.JavaLangString);
+            //    Expression dateExpr = Expression.make(dateString, TypeReference.JavaLangString);
             //    dataMap.put(invokeInstr.getDef(), Arrays.asList(dateExpr));
             //}
         } else if (targetName.equals("findViewById")) {
-            Expression uiExpr = new Expression("<UI>", TypeReference.JavaLangString);
+            Expression uiExpr = Expression.make("<UI>", TypeReference.JavaLangString);
             dataMap.put(invokeInstr.getDef(), new ExpressionGroup(uiExpr));
         } else if (targetName.equals("toString") || targetName.equals("getString") || targetName.equals("trim") || targetName.equals("toLowerCase")) {
             //if (recvExpr != null && recvPred.get(0).isVariable()) {
@@ -1158,7 +1351,7 @@ class ConstraintAnalysis {
                     for (Expression pExpr : paramExpr.toList()) {
                         if (rExpr.isVariable() && pExpr.isVariable()) {
                             String appendString = rExpr.getVariable() + pExpr.getVariable();
-                            appendExprGrp.add(new Expression(appendString, TypeReference.JavaLangString));
+                            appendExprGrp.add(Expression.make(appendString, TypeReference.JavaLangString));
                         }
                     }
                 }
@@ -1176,18 +1369,18 @@ class ConstraintAnalysis {
             //           paramPred != null && paramPred.isVariable()) {
 
             //    String appendString = recvPred.getVariable() + paramPred.getVariable();
-            //    Predicate appendStringPred = new Predicate(appendString, TypeReference.JavaLangString);
+            //    Predicate appendStringPred = Predicate.make(appendString, TypeReference.JavaLangString);
             //    dataMap.put(invokeInstr.getDef(), appendStringPred);
             //}
 
         } else if (_essentialMethods.containsKey(targetSignature)) {
             if (invokeInstr.getNumberOfUses() > 0 && dataMap.containsKey(invokeInstr.getUse(0))) {
-                dataMap.put(invokeInstr.getDef(), new ExpressionGroup(new Expression(dataMap.get(invokeInstr.getUse(0)) + "." + _essentialMethods.get(targetSignature), target.getReturnType())));
+                dataMap.put(invokeInstr.getDef(), new ExpressionGroup(Expression.make(dataMap.get(invokeInstr.getUse(0)) + "." + _essentialMethods.get(targetSignature), target.getReturnType())));
             } else {
                 if (targetName.contains("<init>")) {
-                    dataMap.put(invokeInstr.getReceiver(), new ExpressionGroup(new Expression(_essentialMethods.get(targetSignature), target.getReturnType())));
+                    dataMap.put(invokeInstr.getReceiver(), new ExpressionGroup(Expression.make(_essentialMethods.get(targetSignature), target.getReturnType())));
                 } else {
-                    dataMap.put(invokeInstr.getDef(), new ExpressionGroup(new Expression(_essentialMethods.get(targetSignature), target.getReturnType())));
+                    dataMap.put(invokeInstr.getDef(), new ExpressionGroup(Expression.make(_essentialMethods.get(targetSignature), target.getReturnType())));
                 }
             }
         } else if (targetName.equals("<init>") && target.getNumberOfParameters() == 0) {
@@ -1215,7 +1408,7 @@ class ConstraintAnalysis {
         //    }
 
         //    dataString += ")";
-        //    dataMap.put(invokeInstr.getDef(), new Expression(dataString, invokeInstr.getDeclaredTarget().getReturnType()));
+        //    dataMap.put(invokeInstr.getDef(), Expression.make(dataString, invokeInstr.getDeclaredTarget().getReturnType()));
 
         } else if (invokeInstr.getCallSite().equals(_callPath.getTarget())) {
             for (int i = invokeInstr.isStatic() ? 0 : 1; i < invokeInstr.getNumberOfUses(); i++) {
@@ -1233,7 +1426,7 @@ class ConstraintAnalysis {
                         @Override
                         public Expression call(Expression expr) {
                             if (expr.isVariable() && expr.getVariable().startsWith("<Input")) {
-                                return new Expression(expr.getVariable() + "." + targetName + "()", invokeInstr.getDeclaredResultType());
+                                return Expression.make(expr.getVariable() + "." + targetName + "()", invokeInstr.getDeclaredResultType());
                             }
                             return null;
                         }
@@ -1248,7 +1441,7 @@ class ConstraintAnalysis {
 
                 //if (recvPred != null && recvPred.isVariable() && recvPred.getVariable().startsWith("<Input")) {
                 //    String dataString = recvPred.getVariable() + "." + targetName + "()";
-                //    Predicate newPred = new Predicate(dataString, invokeInstr.getDeclaredResultType());
+                //    Predicate newPred = Predicate.make(dataString, invokeInstr.getDeclaredResultType());
                 //    dataMap.put(invokeInstr.getDef(), newPred);
                 //    return null;
                 //}
@@ -1260,7 +1453,7 @@ class ConstraintAnalysis {
                 CGNode invokedNode = possibleNodes.iterator().next();
 
                 if (propagateInvoke) {
-                    if (invokeInstr.equals(targetInstr) && _callPath.containsNode(invokedNode)) {
+                    if (invokeInstr.equals(targetInstr) && isPathNode(invokedNode)) {
                         Output.error("Error: propagateInvokeInstr: Processing next path node should not be done here");
 
                     } else if (invokedNode.getMethod().getDeclaringClass().getClassLoader().equals(ClassLoaderReference.Application)) {
@@ -1269,7 +1462,7 @@ class ConstraintAnalysis {
                         Predicate constraints = processHelperNode(invokedNode, returnString, generateDataMapForInvokedNode(invokedNode, node, invokeInstr, dataMap));
 
                         if (constraints != null) {
-                            dataMap.put(invokeInstr.getDef(), new ExpressionGroup(new Expression(returnString, invokeInstr.getDeclaredTarget().getReturnType())));
+                            dataMap.put(invokeInstr.getDef(), new ExpressionGroup(Expression.make(returnString, invokeInstr.getDeclaredTarget().getReturnType())));
                         }
 
                         return constraints;
@@ -1287,7 +1480,7 @@ class ConstraintAnalysis {
                         dataString += "()";
                     }
 
-                    dataMap.put(invokeInstr.getDef(), new ExpressionGroup(new Expression(dataString, invokeInstr.getDeclaredTarget().getReturnType())));
+                    dataMap.put(invokeInstr.getDef(), new ExpressionGroup(Expression.make(dataString, invokeInstr.getDeclaredTarget().getReturnType())));
                 }
             }
         }
@@ -1295,7 +1488,7 @@ class ConstraintAnalysis {
         return null;
     }
 
-    private Predicate propagateGetInstr(CGNode node, SSAGetInstruction getInstr, Map<Integer, ExpressionGroup> dataMap) {
+    private Predicate propagateGetInstr(CGNode node, SSAGetInstruction getInstr, ValueDataMap dataMap) {
         if (getInstr.getDeclaredField().getSignature().equals("Landroid/os/Message.obj Ljava/lang/Object")) {
             if (dataMap.containsKey(-1)) {
                 dataMap.put(getInstr.getDef(), dataMap.get(-1));
@@ -1313,7 +1506,7 @@ class ConstraintAnalysis {
             }
         } else {
             if (dataMap.containsKey(getInstr.getRef())) {
-                dataMap.put(getInstr.getDef(), new ExpressionGroup(new Expression(dataMap.get(getInstr.getRef()) + "." + getInstr.getDeclaredField().getName().toString(), getInstr.getDeclaredFieldType())));
+                dataMap.put(getInstr.getDef(), new ExpressionGroup(Expression.make(dataMap.get(getInstr.getRef()) + "." + getInstr.getDeclaredField().getName().toString(), getInstr.getDeclaredFieldType())));
             } else {
                 PointerAnalysis pa = _callPath.getPointerAnalysis();
                 HeapModel heapModel = pa.getHeapModel();
@@ -1357,7 +1550,7 @@ class ConstraintAnalysis {
 
                         if (fieldPKey != null) {
                             String pKeyName = "Pointer<" + fieldPKey.hashCode() + ">";
-                            ExpressionGroup pExprGrp = new ExpressionGroup(new Expression(pKeyName, TypeReference.Int));
+                            ExpressionGroup pExprGrp = new ExpressionGroup(Expression.make(pKeyName, TypeReference.Int));
 
                             if (_storeDataMap.containsKey(fieldPKey)) {
                                 pExprGrp.addAll(_storeDataMap.get(fieldPKey));
@@ -1376,8 +1569,8 @@ class ConstraintAnalysis {
                             //    _nameToPointerMap.put(pKeyName, fieldPKey);
                             //    _pointerToNameMap.put(fieldPKey, pKeyName);
 
-                            //    //dataMap.put(getInstr.getDef(), new Expression(pKeyName, getInstr.getDeclaredFieldType()));
-                            //    dataMap.put(getInstr.getDef(), new ExpressionGroup(new Expression(pKeyName, TypeReference.Int)));
+                            //    //dataMap.put(getInstr.getDef(), Expression.make(pKeyName, getInstr.getDeclaredFieldType()));
+                            //    dataMap.put(getInstr.getDef(), new ExpressionGroup(Expression.make(pKeyName, TypeReference.Int)));
                             //}
                         }
                     }
@@ -1388,7 +1581,7 @@ class ConstraintAnalysis {
         return null;
     }
 
-    private Predicate propagatePutInstr(CGNode node, SSAPutInstruction putInstr, Map<Integer, ExpressionGroup> dataMap) {
+    private Predicate propagatePutInstr(CGNode node, SSAPutInstruction putInstr, ValueDataMap dataMap) {
         int putVal = putInstr.getUse(putInstr.getNumberOfUses() - 1);
 
         if (putInstr.getDeclaredField().getSignature().equals("Landroid/os/Message.obj Ljava/lang/Object")) {
@@ -1461,7 +1654,7 @@ class ConstraintAnalysis {
         return null;
     }
 
-    private ExpressionGroup getInstrOperandExpression(CGNode node, int operandVal, Map<Integer, ExpressionGroup> dataMap) {
+    private ExpressionGroup getInstrOperandExpression(CGNode node, int operandVal, ValueDataMap dataMap) {
         if (dataMap.containsKey(operandVal)) {
             return dataMap.get(operandVal);
         }
@@ -1470,27 +1663,27 @@ class ConstraintAnalysis {
 
         if (symbolTable.isConstant(operandVal)) {
             if (symbolTable.isIntegerConstant(operandVal)) {
-                return new ExpressionGroup(new Expression(String.valueOf(symbolTable.getIntValue(operandVal)), TypeReference.Int));
+                return new ExpressionGroup(Expression.make(String.valueOf(symbolTable.getIntValue(operandVal)), TypeReference.Int));
             } else if (symbolTable.isFloatConstant(operandVal)) {
-                return new ExpressionGroup(new Expression(String.valueOf(symbolTable.getFloatValue(operandVal)), TypeReference.Float));
+                return new ExpressionGroup(Expression.make(String.valueOf(symbolTable.getFloatValue(operandVal)), TypeReference.Float));
             } else if (symbolTable.isDoubleConstant(operandVal)) {
-                return new ExpressionGroup(new Expression(String.valueOf(symbolTable.getDoubleValue(operandVal)), TypeReference.Double));
+                return new ExpressionGroup(Expression.make(String.valueOf(symbolTable.getDoubleValue(operandVal)), TypeReference.Double));
             } else if (symbolTable.isLongConstant(operandVal)) {
-                return new ExpressionGroup(new Expression(String.valueOf(symbolTable.getLongValue(operandVal)), TypeReference.Long));
+                return new ExpressionGroup(Expression.make(String.valueOf(symbolTable.getLongValue(operandVal)), TypeReference.Long));
             } else if (symbolTable.isStringConstant(operandVal)) {
-                return new ExpressionGroup(new Expression(symbolTable.getStringValue(operandVal), TypeReference.JavaLangString));
+                return new ExpressionGroup(Expression.make(symbolTable.getStringValue(operandVal), TypeReference.JavaLangString));
             } else if (symbolTable.isNullConstant(operandVal)) {
-                return new ExpressionGroup(new Expression("null", TypeReference.Void));
+                return new ExpressionGroup(Expression.make("null", TypeReference.Void));
             } else {
-                return new ExpressionGroup(new Expression(symbolTable.getConstantValue(operandVal).toString(), TypeReference.Void));
+                return new ExpressionGroup(Expression.make(symbolTable.getConstantValue(operandVal).toString(), TypeReference.Void));
             }
         }
 
         return null;
     }
 
-    private Map<Integer, ExpressionGroup> generateDataMapForInvokedNode(CGNode calleeNode, CGNode callerNode, SSAAbstractInvokeInstruction invokeInstr, Map<Integer, ExpressionGroup> dataMap) {
-        HashMap<Integer, ExpressionGroup> nextDataMap = new HashMap<Integer, ExpressionGroup>();
+    private ValueDataMap generateDataMapForInvokedNode(CGNode calleeNode, CGNode callerNode, SSAAbstractInvokeInstruction invokeInstr, ValueDataMap dataMap) {
+        ValueDataMap nextDataMap = new ValueDataMap();
 
         if (calleeNode != null && calleeNode.getIR() != null) {
             if (calleeNode.getIR().getNumberOfParameters() > 1 &&
@@ -1533,8 +1726,8 @@ class ConstraintAnalysis {
         return nextDataMap;
     }
 
-    private Map<Integer, ExpressionGroup> generateCallbackDependencies(CGNode callerNode, SSAAbstractInvokeInstruction invokeInstr, Map<Integer, ExpressionGroup> dataMap) {
-        HashMap<Integer, ExpressionGroup> nextDataMap = new HashMap<Integer, ExpressionGroup>();
+    private ValueDataMap generateCallbackDependencies(CGNode callerNode, SSAAbstractInvokeInstruction invokeInstr, ValueDataMap dataMap) {
+        ValueDataMap nextDataMap = new ValueDataMap();
 
         for (int i = -3; i < 0; i++) {
             if (dataMap.containsKey(i)) {
@@ -1634,52 +1827,15 @@ class ConstraintAnalysis {
         return findRequiredBranchDirection(node, condInstr, targetBlock);
     }
 
-    private int findRequiredBranchDirection(CGNode node, SSAConditionalBranchInstruction condInstr, final ISSABasicBlock targetBlock) {
+    private int findRequiredBranchDirection(CGNode node, SSAConditionalBranchInstruction condInstr, ISSABasicBlock targetBlock) {
         IR ir = node.getIR();
-        SSACFG cfg = ir.getControlFlowGraph();
-
         ISSABasicBlock condBlock = ir.getBasicBlockForInstruction(condInstr);
 
         if (condBlock == null || targetBlock == null) {
             return 0;
         }
 
-        ISSABasicBlock takenBlock = Util.getTakenSuccessor(cfg, condBlock);
-        ISSABasicBlock notTakenBlock = Util.getNotTakenSuccessor(cfg, condBlock);
-
-        Filter<ISSABasicBlock> targetFilter = new Filter<ISSABasicBlock>() {
-            public boolean accepts(ISSABasicBlock o) {
-                if (o.equals(targetBlock)) {
-                    return true;
-                }
-
-                return false;
-            }
-        };
-
-        int direction = 0;
-
-        try {
-            DFSPathFinder<ISSABasicBlock> takenPathFinder = new DFSPathFinder<ISSABasicBlock>(cfg, takenBlock, targetFilter);
-            DFSPathFinder<ISSABasicBlock> notTakenPathFinder = new DFSPathFinder<ISSABasicBlock>(cfg, notTakenBlock, targetFilter);
-            
-            boolean takenPath = (takenPathFinder.find() != null);
-            boolean notTakenPath = (notTakenPathFinder.find() != null);
-
-            if (takenPath && !notTakenPath) {
-                direction = 1;
-            } else if (!takenPath && notTakenPath) {
-                direction = -1;
-            }
-        } catch (OutOfMemoryError e) {
-            Output.error("Out of Memory: " + e.toString());
-            e.printStackTrace();
-        } catch (Exception e) {
-            Output.error("Exception: " + e.toString());
-            e.printStackTrace();
-        }
-
-        return direction;
+        return _controlFlowFactsCache.get(ir).getRequiredBranchDirection(ir.getControlFlowGraph(), condBlock, targetBlock);
     }
 }
 
@@ -0,0 +1,162 @@
+package intellidroid.appanalysis;
+
+import java.util.*;
+import java.security.MessageDigest;
+import org.apache.commons.lang3.math.NumberUtils;
+
+// Detects constraints (of different paths) that are the same formula up to the names of their
+// variables and strings and the order of the and/or operands, so that each distinct formula is
+// only written (and solved) once.  Constraints are first put in a canonical operand order; the
+// Z3 generator then numbers variables and strings in order of appearance, so that equivalent
+// formulas produce the same code (apart from comments), which is hashed.
+class ConstraintDeduplication {
+    private static final boolean DEBUG = false;
+
+    // Hash of canonical Z3 code -> ID (constraint file) of the first formula with that code
+    private final Map<String, String> _constraintIDs = new HashMap<String, String>();
+
+    //=========================================================================
+
+    // Sorts the operands of and/or chains by a hash of their structure that does not depend on
+    // variable names (operands with the same hash keep their order)
+    public Predicate canonicalize(Predicate constraint) {
+        return canonicalize(constraint, new IdentityHashMap<Object, Long>(), new IdentityHashMap<Predicate, Predicate>());
+    }
+
+    public String getConstraintKey(Z3ConstraintGenerator z3Generator) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(z3Generator.getCanonicalZ3ConstraintCode().getBytes("UTF-8"));
+
+            StringBuilder hash = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hash.append(String.format("%02x", b));
+            }
+
+            return hash.toString();
+
+        } catch (Exception e) {
+            Output.error("Cannot hash constraint: " + e.toString());
+            e.printStackTrace();
+        }
+
+        return null;
+    }
+
+    // ID of an identical formula that was already emitted, or null if there is none
+    public String getConstraintID(String constraintKey) {
+        if (constraintKey == null) {
+            return null;
+        }
+
+        String constraintID = _constraintIDs.get(constraintKey);
+
+        if (constraintID != null) {
+            Output.debug(DEBUG, "Duplicate constraint: " + constraintID);
+        }
+
+        return constraintID;
+    }
+
+    public void addConstraintID(String constraintKey, String constraintID) {
+        if (constraintKey != null) {
+            _constraintIDs.put(constraintKey, constraintID);
+        }
+    }
+
+    //=========================================================================
+
+    private Predicate canonicalize(Predicate pred, Map<Object, Long> shapeHashes, Map<Predicate, Predicate> canonicalPredicates) {
+        Predicate canonicalPred = canonicalPredicates.get(pred);
+        if (canonicalPred != null) {
+            return canonicalPred;
+        }
+
+        if (pred.isUnary()) {
+            Predicate left = canonicalize(pred.getLeft(), shapeHashes, canonicalPredicates);
+            canonicalPred = (left == pred.getLeft()) ? pred : Predicate.make(pred.getOperator(), left);
+
+        } else if (pred.isBinary()) {
+            List<Predicate> operands = new ArrayList<Predicate>();
+            getOperands(pred, pred.getOperator(), operands);
+
+            final List<Long> operandHashes = new ArrayList<Long>();
+            List<Integer> order = new ArrayList<Integer>();
+
+            for (int i = 0; i < operands.size(); i++) {
+                operands.set(i, canonicalize(operands.get(i), shapeHashes, canonicalPredicates));
+                operandHashes.add(getShapeHash(operands.get(i), shapeHashes));
+                order.add(i);
+            }
+
+            Collections.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer i1, Integer i2) {
+                    return operandHashes.get(i1).compareTo(operandHashes.get(i2));
+                }
+            });
+
+            canonicalPred = null;
+            for (Integer index : order) {
+                canonicalPred = Predicate.combine(pred.getOperator(), canonicalPred, operands.get(index));
+            }
+
+        } else {
+            canonicalPred = pred;
+        }
+
+        canonicalPredicates.put(pred, canonicalPred);
+        return canonicalPred;
+    }
+
+    static private void getOperands(Predicate pred, Predicate.Operator operator, List<Predicate> operands) {
+        if (pred.isBinary() && pred.getOperator().equals(operator)) {
+            getOperands(pred.getLeft(), operator, operands);
+            getOperands(pred.getRight(), operator, operands);
+        } else {
+            operands.add(pred);
+        }
+    }
+
+    // Hash of the operators, types and numeric constants of a predicate/expression (but not of
+    // the variable names or string values)
+    static private long getShapeHash(Object node, Map<Object, Long> shapeHashes) {
+        Long shapeHash = shapeHashes.get(node);
+        if (shapeHash != null) {
+            return shapeHash;
+        }
+
+        long hash;
+
+        if (node instanceof Predicate) {
+            Predicate pred = (Predicate)node;
+
+            if (pred.isExpression()) {
+                hash = getShapeHash(pred.getExpression(), shapeHashes);
+            } else if (pred.isUnary()) {
+                hash = 31 * pred.getOperator().ordinal() + getShapeHash(pred.getLeft(), shapeHashes);
+            } else if (pred.isBinary()) {
+                hash = 31 * (31 * pred.getOperator().ordinal() + getShapeHash(pred.getLeft(), shapeHashes)) + getShapeHash(pred.getRight(), shapeHashes);
+            } else {
+                hash = 0;
+            }
+
+        } else {
+            Expression expr = (Expression)node;
+
+            if (expr.isVariable()) {
+                hash = 17 * expr.getType().ordinal() + 1;
+
+                if (expr.getType() != Expression.Type.STRING && NumberUtils.isNumber(expr.getVariable())) {
+                    hash = 31 * hash + expr.getVariable().hashCode();
+                }
+            } else {
+                hash = 31 * (31 * (expr.getOperator().ordinal() + 1000) + getShapeHash(expr.getLeft(), shapeHashes)) + getShapeHash(expr.getRight(), shapeHashes);
+            }
+        }
+
+        shapeHashes.put(node, hash);
+        return hash;
+    }
+}
+
@@ -0,0 +1,16 @@
+package intellidroid.appanalysis;
+
+import java.util.*;
+import java.io.IOException;
+import java.io.Writer;
+
+// Output format of the constraint files.  The constraints of a path are named (variables and
+// strings) by a Z3ConstraintGenerator, so that the information in the app info JSON file is
+// the same for every format.
+interface ConstraintEmitter {
+    // Extension of the constraint files (e.g. ".py")
+    public String getFileExtension();
+
+    // Writes the constraints, preceded by the given comment lines
+    public void writeConstraints(Z3ConstraintGenerator z3Generator, List<String> comments, Writer writer) throws IOException;
+}
@@ -1,205 +1,570 @@
 package intellidroid.appanalysis;
 
 import java.util.*;
-import org.apache.commons.lang3.mutable.MutableInt;
+import java.math.BigDecimal;
 import org.apache.commons.lang3.math.NumberUtils;
 
-// TODO: create "changed" flag to determine when to stop minimizing (useful if/when
-// iterative algorithm implemented)
-
+// Rule-based simplification of constraints, applied until nothing changes (or until
+// MAX_ITERATIONS passes).  Each pass simplifies the predicate bottom-up:
+//   - constant folding of numeric arithmetic and comparisons (including "x - x")
+//   - identity/annihilator elimination (x and true, x or true, ...)
+//   - duplicate removal within and/or chains
+//   - tautology/contradiction elimination (x or not(x), x == c1 and x == c2, ...)
+//   - absorption (x and (x or y) -> x, x or (x and y) -> x)
+//   - factoring of conjuncts common to all branches of an or
+// and then propagates simple conjuncts into the rest of the and (removeRedundancies).
+// Predicates are immutable and hash-consed, so results are memoized per node and a
+// pass that changes nothing returns the same node.
 class ConstraintMinimization {
-    static public void minimize(Predicate constraint) {
+    private static final boolean DEBUG = false;
+
+    private static final int MAX_ITERATIONS = 8;
+
+    private final Map<Predicate, Predicate> _simplifiedPredicates = new IdentityHashMap<Predicate, Predicate>();
+    private final Map<Expression, Expression> _foldedExpressions = new IdentityHashMap<Expression, Expression>();
+
+    static public Predicate minimize(Predicate constraint) {
+        return minimize(constraint, null);
+    }
+
+    // Also records the constraint size (in nodes) before and after, if statistics are given
+    static public Predicate minimize(Predicate constraint, Statistics statistics) {
         if (constraint == null) {
-            return;
+            return null;
         }
 
-        minimizePredicate(constraint);
-        if (constraint == null) {
-            return;
+        ConstraintMinimization minimization = new ConstraintMinimization();
+        Predicate minimized = constraint;
+        int iterations = 0;
+
+        while (iterations < MAX_ITERATIONS) {
+            iterations++;
+
+            Predicate previous = minimized;
+            minimized = minimization.simplify(minimized);
+            minimized = removeRedundancies(minimized);
+
+            if (minimized == previous) {
+                break;
+            }
         }
 
-        removeRedundancies(constraint);
-        if (constraint == null) {
-            return;
+        if (statistics != null && statistics.isEnabled()) {
+            statistics.trackConstraintMinimization(countNodes(constraint), countNodes(minimized));
         }
 
-        //removeUnusedConstraints(constraint);
-        minimizePredicate(constraint);
+        Output.debug(DEBUG, "Minimized constraint in " + iterations + " iterations");
+        return minimized;
     }
 
-    // Recursive method to minimize an pred tree.  Return null if nothing was changed.
-    static private void minimizePredicate(Predicate pred) {
+    //=========================================================================
+
+    private Predicate simplify(Predicate pred) {
+        Predicate simplified = _simplifiedPredicates.get(pred);
+        if (simplified != null) {
+            return simplified;
+        }
+
         if (pred.isExpression()) {
-            minimizeExpression(pred.getExpression());
+            Expression expr = foldExpression(pred.getExpression());
+            simplified = (expr == pred.getExpression()) ? pred : Predicate.make(expr);
         } else if (pred.isUnary()) {
-            minimizeUnaryPredicate(pred);
+            simplified = simplifyUnaryPredicate(pred);
         } else if (pred.isBinary()) {
-            minimizeBinaryPredicate(pred);
+            simplified = simplifyBinaryPredicate(pred);
+        } else {
+            simplified = pred;
         }
+
+        _simplifiedPredicates.put(pred, simplified);
+        return simplified;
     }
 
-    static private void minimizeUnaryPredicate(Predicate pred) {
-        minimizePredicate(pred.getLeft());
+    private Predicate simplifyUnaryPredicate(Predicate pred) {
+        Predicate left = simplify(pred.getLeft());
 
         if (pred.getOperator().equals(Predicate.Operator.NOT)) {
-            if (pred.getLeft().isExpression()) {
-                Expression leftExpression = pred.getLeft().getExpression();
-
-                if (leftExpression.isTrue()) {
-                    leftExpression.setFalse();
-                    pred.set(leftExpression);
-                } else if (leftExpression.isFalse()) {
-                    leftExpression.setTrue();
-                    pred.set(leftExpression);
-                } else if (leftExpression.isExpression()) {
-                    Expression.Operator oppositeOp = Expression.getOppositeOperator(leftExpression.getOperator());
-
-                    if (!oppositeOp.equals(Expression.Operator.NONE)) {
-                        leftExpression.set(oppositeOp, leftExpression.getLeft(), leftExpression.getRight());
-                        pred.set(leftExpression);
-                    }
-                }
-            } else if (pred.getLeft().isUnary() && pred.getLeft().getOperator().equals(Predicate.Operator.NOT)) {
-                // NOT operators cancel themselves 
-                pred.set(pred.getLeft().getLeft());
+            return negate(left);
+        }
+
+        return (left == pred.getLeft()) ? pred : Predicate.make(pred.getOperator(), left);
+    }
+
+    private Predicate simplifyBinaryPredicate(Predicate pred) {
+        Predicate.Operator operator = pred.getOperator();
+        Predicate identity = operator.equals(Predicate.Operator.AND) ? Predicate.getTrue() : Predicate.getFalse();
+        Predicate annihilator = operator.equals(Predicate.Operator.AND) ? Predicate.getFalse() : Predicate.getTrue();
+
+        List<Predicate> operands = new ArrayList<Predicate>();
+        getSimplifiedOperands(pred, operator, operands);
+
+        // Duplicate and identity elimination
+        Set<Predicate> uniqueOperands = new LinkedHashSet<Predicate>();
+
+        for (Predicate operand : operands) {
+            if (operand.equals(annihilator)) {
+                return annihilator;
+            } else if (!operand.equals(identity)) {
+                uniqueOperands.add(operand);
+            }
+        }
+
+        // Tautology (x or not(x)) and contradiction (x and not(x)) elimination
+        for (Predicate operand : uniqueOperands) {
+            if (uniqueOperands.contains(negate(operand))) {
+                return annihilator;
             }
         }
+
+        if (operator.equals(Predicate.Operator.AND) && hasConflictingComparisons(uniqueOperands)) {
+            return annihilator;
+        }
+
+        // Absorption: x and (x or y) -> x; x or (x and y) -> x
+        Predicate.Operator innerOperator = operator.equals(Predicate.Operator.AND) ? Predicate.Operator.OR : Predicate.Operator.AND;
+        List<Predicate> remainingOperands = new ArrayList<Predicate>();
+
+        for (Predicate operand : uniqueOperands) {
+            if (!isAbsorbed(operand, innerOperator, uniqueOperands)) {
+                remainingOperands.add(operand);
+            }
+        }
+
+        if (operator.equals(Predicate.Operator.OR)) {
+            Predicate factored = factorCommonConjuncts(remainingOperands);
+            if (factored != null) {
+                return factored;
+            }
+        }
+
+        return join(operator, remainingOperands, identity);
     }
 
-    static private void minimizeBinaryPredicate(Predicate pred) {
-        minimizePredicate(pred.getLeft());
-        minimizePredicate(pred.getRight());
+    // Flattens a chain of the same operator into its (simplified) operands
+    private void getSimplifiedOperands(Predicate pred, Predicate.Operator operator, List<Predicate> operands) {
+        if (pred.isBinary() && pred.getOperator().equals(operator)) {
+            getSimplifiedOperands(pred.getLeft(), operator, operands);
+            getSimplifiedOperands(pred.getRight(), operator, operands);
+            return;
+        }
+
+        Predicate simplified = simplify(pred);
+
+        if (simplified.isBinary() && simplified.getOperator().equals(operator)) {
+            getOperands(simplified, operator, operands);
+        } else {
+            operands.add(simplified);
+        }
+    }
+
+    static private void getOperands(Predicate pred, Predicate.Operator operator, List<Predicate> operands) {
+        if (pred.isBinary() && pred.getOperator().equals(operator)) {
+            getOperands(pred.getLeft(), operator, operands);
+            getOperands(pred.getRight(), operator, operands);
+        } else {
+            operands.add(pred);
+        }
+    }
+
+    static private Predicate join(Predicate.Operator operator, Collection<Predicate> operands, Predicate identity) {
+        Predicate result = null;
 
-        Predicate leftExpr = pred.getLeft();
-        Predicate rightExpr = pred.getRight();
+        for (Predicate operand : operands) {
+            result = Predicate.combine(operator, result, operand);
+        }
+
+        return (result == null) ? identity : result;
+    }
 
-        if (leftExpr.equals(rightExpr)) {
-            pred.set(leftExpr);
+    static private boolean isAbsorbed(Predicate operand, Predicate.Operator innerOperator, Set<Predicate> operands) {
+        if (!operand.isBinary() || !operand.getOperator().equals(innerOperator)) {
+            return false;
         }
 
-        if (pred.getOperator().equals(Predicate.Operator.AND)) {
-            if (leftExpr.isTrue()) {
-                pred.set(rightExpr);
-            } else if (leftExpr.isFalse()) {
-                pred.set(leftExpr);
+        List<Predicate> innerOperands = new ArrayList<Predicate>();
+        getOperands(operand, innerOperator, innerOperands);
+
+        for (Predicate innerOperand : innerOperands) {
+            if (operands.contains(innerOperand)) {
+                return true;
             }
+        }
+
+        return false;
+    }
+
+    // (a and b) or (a and c) -> a and (b or c).  Returns null if the branches have no common conjunct.
+    static private Predicate factorCommonConjuncts(List<Predicate> disjuncts) {
+        if (disjuncts.size() < 2) {
+            return null;
+        }
+
+        List<List<Predicate>> disjunctConjuncts = new ArrayList<List<Predicate>>();
+        Set<Predicate> commonConjuncts = null;
 
-            if (rightExpr.isTrue()) {
-                pred.set(leftExpr);
-            } else if (rightExpr.isFalse()) {
-                pred.set(rightExpr);
+        for (Predicate disjunct : disjuncts) {
+            List<Predicate> conjuncts = new ArrayList<Predicate>();
+            getOperands(disjunct, Predicate.Operator.AND, conjuncts);
+            disjunctConjuncts.add(conjuncts);
+
+            if (commonConjuncts == null) {
+                commonConjuncts = new LinkedHashSet<Predicate>(conjuncts);
+            } else {
+                commonConjuncts.retainAll(conjuncts);
             }
-        } else if (pred.getOperator().equals(Predicate.Operator.OR)) {
-            if (leftExpr.isTrue()) {
-                pred.set(leftExpr);
-            } else if (leftExpr.isFalse()) {
-                pred.set(rightExpr);
+        }
+
+        if (commonConjuncts.isEmpty()) {
+            return null;
+        }
+
+        List<Predicate> remainingDisjuncts = new ArrayList<Predicate>();
+
+        for (List<Predicate> conjuncts : disjunctConjuncts) {
+            List<Predicate> remainingConjuncts = new ArrayList<Predicate>();
+
+            for (Predicate conjunct : conjuncts) {
+                if (!commonConjuncts.contains(conjunct)) {
+                    remainingConjuncts.add(conjunct);
+                }
             }
 
-            if (rightExpr.isTrue()) {
-                pred.set(rightExpr);
-            } else if (rightExpr.isFalse()) {
-                pred.set(leftExpr);
+            if (remainingConjuncts.isEmpty()) {
+                // One branch only consists of the common conjuncts, which absorb the others
+                return join(Predicate.Operator.AND, commonConjuncts, Predicate.getTrue());
             }
+
+            remainingDisjuncts.add(join(Predicate.Operator.AND, remainingConjuncts, Predicate.getTrue()));
         }
+
+        return Predicate.make(Predicate.Operator.AND,
+            join(Predicate.Operator.AND, commonConjuncts, Predicate.getTrue()),
+            join(Predicate.Operator.OR, remainingDisjuncts, Predicate.getFalse()));
     }
 
-    static private void minimizeExpression(Expression clause) {
-        if (clause.isExpression()) {
-            if (clause.getLeft().equals(clause.getRight())) {
-                if (clause.getOperator().equals(Expression.Operator.EQ)) {
-                    clause.setTrue();
-                } else if (Expression.isNotEqualOperator(clause.getOperator())) {
-                    clause.setFalse();
+    // x == c1 and x == c2 (with different constants c1, c2), or x == y and x > y, ...
+    static private boolean hasConflictingComparisons(Set<Predicate> conjuncts) {
+        Map<Expression, BigDecimal> equalConstants = new HashMap<Expression, BigDecimal>();
+        Map<Expression, List<Expression>> comparisons = new HashMap<Expression, List<Expression>>();
+
+        for (Predicate conjunct : conjuncts) {
+            if (!conjunct.isExpression() || !isComparisonOperator(conjunct.getExpression().getOperator())) {
+                continue;
+            }
+
+            Expression comparison = conjunct.getExpression();
+            Expression left = comparison.getLeft();
+            BigDecimal rightValue = getNumericValue(comparison.getRight());
+
+            if (comparison.getOperator().equals(Expression.Operator.EQ) && rightValue != null) {
+                BigDecimal leftValue = equalConstants.get(left);
+
+                if (leftValue != null && leftValue.compareTo(rightValue) != 0) {
+                    return true;
                 }
 
-            } else if (clause.getLeft().isVariable() && NumberUtils.isNumber(clause.getLeft().getVariable()) &&
-                       clause.getRight().isVariable() && NumberUtils.isNumber(clause.getRight().getVariable())) {
+                equalConstants.put(left, rightValue);
+            }
+
+            if (!comparisons.containsKey(left)) {
+                comparisons.put(left, new ArrayList<Expression>());
+            }
+
+            for (Expression otherComparison : comparisons.get(left)) {
+                if (otherComparison.getRight().equals(comparison.getRight()) &&
+                    areExclusiveOperators(comparison.getOperator(), otherComparison.getOperator())) {
 
-                if (!NumberUtils.createNumber(clause.getLeft().getVariable()).equals(NumberUtils.createNumber(clause.getRight().getVariable()))) {
-                    // Constraint are different numbers
-                    if (clause.getOperator().equals(Expression.Operator.EQ)) {
-                        clause.setFalse();
-                    } else if (Expression.isNotEqualOperator(clause.getOperator())) {
-                        clause.setTrue();
-                    }
+                    return true;
                 }
             }
+
+            comparisons.get(left).add(comparison);
+        }
+
+        return false;
+    }
+
+    //=========================================================================
+
+    // Returns the negation of an (already simplified) predicate
+    private Predicate negate(Predicate pred) {
+        if (pred.isTrue()) {
+            return Predicate.getFalse();
+        } else if (pred.isFalse()) {
+            return Predicate.getTrue();
+        } else if (pred.isUnary() && pred.getOperator().equals(Predicate.Operator.NOT)) {
+            // NOT operators cancel themselves
+            return pred.getLeft();
+        } else if (pred.isExpression() && pred.getExpression().isExpression()) {
+            Expression expr = pred.getExpression();
+            Expression.Operator oppositeOp = Expression.getOppositeOperator(expr.getOperator());
+
+            if (!oppositeOp.equals(Expression.Operator.NONE)) {
+                return Predicate.make(Expression.make(oppositeOp, expr.getLeft(), expr.getRight()));
+            }
+        }
+
+        return Predicate.make(Predicate.Operator.NOT, pred);
+    }
+
+    private Expression foldExpression(Expression expr) {
+        if (!expr.isExpression()) {
+            return expr;
+        }
+
+        Expression folded = _foldedExpressions.get(expr);
+        if (folded != null) {
+            return folded;
+        }
+
+        Expression left = foldExpression(expr.getLeft());
+        Expression right = foldExpression(expr.getRight());
+        Expression.Operator operator = expr.getOperator();
+
+        folded = null;
+
+        if (isComparisonOperator(operator)) {
+            folded = foldComparison(operator, left, right);
+        } else if (isNumericExpression(left) && isNumericExpression(right)) {
+            folded = foldArithmetic(operator, left, right);
+        }
+
+        if (folded == null) {
+            folded = (left == expr.getLeft() && right == expr.getRight()) ? expr : Expression.make(operator, left, right);
+        }
+
+        _foldedExpressions.put(expr, folded);
+        return folded;
+    }
+
+    static private Expression foldComparison(Expression.Operator operator, Expression left, Expression right) {
+        if (left.equals(right)) {
+            switch (operator) {
+                case EQ:
+                case GE:
+                case LE:
+                    return Expression.getTrue();
+                default:
+                    return Expression.getFalse();
+            }
+        }
+
+        BigDecimal leftValue = getNumericValue(left);
+        BigDecimal rightValue = getNumericValue(right);
+
+        if (leftValue == null || rightValue == null) {
+            return null;
+        }
+
+        int comparison = leftValue.compareTo(rightValue);
+
+        // String constants are only compared for equality (they are mapped to IDs in the Z3 output)
+        if (!isNumericExpression(left) || !isNumericExpression(right)) {
+            if (comparison != 0 && operator.equals(Expression.Operator.EQ)) {
+                return Expression.getFalse();
+            } else if (comparison != 0 && operator.equals(Expression.Operator.NE)) {
+                return Expression.getTrue();
+            }
+
+            return null;
         }
+
+        boolean result;
+
+        switch (operator) {
+            case EQ: result = (comparison == 0); break;
+            case NE: result = (comparison != 0); break;
+            case GT: result = (comparison > 0); break;
+            case GE: result = (comparison >= 0); break;
+            case LT: result = (comparison < 0); break;
+            case LE: result = (comparison <= 0); break;
+            default: return null;
+        }
+
+        return result ? Expression.getTrue() : Expression.getFalse();
     }
 
-    static private void removeRedundancies(Predicate pred) {
+    static private Expression foldArithmetic(Expression.Operator operator, Expression left, Expression right) {
+        Expression.Type type = left.isVariable() ? left.getType() : right.getType();
+
+        if (operator.equals(Expression.Operator.SUB) && left.equals(right)) {
+            return Expression.make("0", type);
+        }
+
+        BigDecimal leftValue = getNumericValue(left);
+        BigDecimal rightValue = getNumericValue(right);
+
+        if (leftValue == null || rightValue == null) {
+            return null;
+        }
+
+        // Division/remainder are left to the solver, since their rounding differs between Java and Z3
+        switch (operator) {
+            case ADD: return Expression.make(leftValue.add(rightValue).toPlainString(), type);
+            case SUB: return Expression.make(leftValue.subtract(rightValue).toPlainString(), type);
+            case MUL: return Expression.make(leftValue.multiply(rightValue).toPlainString(), type);
+            default:  return null;
+        }
+    }
+
+    static private BigDecimal getNumericValue(Expression expr) {
+        if (!expr.isVariable() || !NumberUtils.isNumber(expr.getVariable())) {
+            return null;
+        }
+
+        try {
+            return new BigDecimal(expr.getVariable());
+        } catch (NumberFormatException e) {
+            // e.g. hexadecimal or type-suffixed constants
+            return null;
+        }
+    }
+
+    static private boolean isNumericExpression(Expression expr) {
+        return !expr.getType().equals(Expression.Type.STRING) && !expr.getType().equals(Expression.Type.BITVEC);
+    }
+
+    static private boolean isComparisonOperator(Expression.Operator operator) {
+        switch (operator) {
+            case EQ:
+            case NE:
+            case GT:
+            case GE:
+            case LT:
+            case LE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // Whether "x op1 y" and "x op2 y" cannot both hold
+    static private boolean areExclusiveOperators(Expression.Operator op1, Expression.Operator op2) {
+        if (Expression.getOppositeOperator(op1).equals(op2)) {
+            return true;
+        }
+
+        switch (op1) {
+            case EQ: return op2.equals(Expression.Operator.GT) || op2.equals(Expression.Operator.LT);
+            case GT: return op2.equals(Expression.Operator.EQ) || op2.equals(Expression.Operator.LT);
+            case LT: return op2.equals(Expression.Operator.EQ) || op2.equals(Expression.Operator.GT);
+            default: return false;
+        }
+    }
+
+    static public long countNodes(Predicate pred) {
+        return countNodes(pred, new IdentityHashMap<Object, Long>());
+    }
+
+    // Size of the predicate as a tree (i.e. as written out), counting predicate and expression nodes
+    static private long countNodes(Object node, Map<Object, Long> nodeCounts) {
+        Long count = nodeCounts.get(node);
+        if (count != null) {
+            return count;
+        }
+
+        long nodeCount = 1;
+
+        if (node instanceof Predicate) {
+            Predicate pred = (Predicate)node;
+
+            if (pred.isExpression()) {
+                nodeCount += countNodes(pred.getExpression(), nodeCounts);
+            } else if (pred.isUnary()) {
+                nodeCount += countNodes(pred.getLeft(), nodeCounts);
+            } else if (pred.isBinary()) {
+                nodeCount += countNodes(pred.getLeft(), nodeCounts) + countNodes(pred.getRight(), nodeCounts);
+            }
+        } else {
+            Expression expr = (Expression)node;
+
+            if (expr.isExpression()) {
+                nodeCount += countNodes(expr.getLeft(), nodeCounts) + countNodes(expr.getRight(), nodeCounts);
+            }
+        }
+
+        nodeCounts.put(node, nodeCount);
+        return nodeCount;
+    }
+
+    //=========================================================================
+
+    // Propagates simple conjuncts (x op y) into the other side of an and
+    static private Predicate removeRedundancies(Predicate pred) {
         if (pred.isUnary()) {
-            removeRedundancies(pred.getLeft());
+            Predicate left = removeRedundancies(pred.getLeft());
+            return (left == pred.getLeft()) ? pred : Predicate.make(pred.getOperator(), left);
 
         } else if (pred.isBinary()) {
-            removeRedundancies(pred.getLeft());
-            removeRedundancies(pred.getRight());
+            Predicate left = removeRedundancies(pred.getLeft());
+            Predicate right = removeRedundancies(pred.getRight());
 
             if (pred.getOperator().equals(Predicate.Operator.AND)) {
-                if (pred.getRight().isExpression() && pred.getRight().getExpression().isSimpleExpression()) {
-                    propagateAndConstraint(pred.getLeft(), pred.getRight().getExpression());
-                    //removeRedundancies(pred.getLeft());
-                    return;
-
-                } else if (pred.getLeft().isExpression() && pred.getLeft().getExpression().isSimpleExpression()) {
-                    propagateAndConstraint(pred.getRight(), pred.getLeft().getExpression());
-                    //removeRedundancies(pred.getRight());
-                    return;
+                if (right.isExpression() && right.getExpression().isSimpleExpression()) {
+                    left = propagateAndConstraint(left, right.getExpression());
+
+                } else if (left.isExpression() && left.getExpression().isSimpleExpression()) {
+                    right = propagateAndConstraint(right, left.getExpression());
                 }
             }
+
+            return (left == pred.getLeft() && right == pred.getRight()) ? pred : Predicate.make(pred.getOperator(), left, right);
         }
+
+        return pred;
     }
 
-    static private void propagateAndConstraint(Predicate pred, Expression andPred) {
+    static private Predicate propagateAndConstraint(Predicate pred, Expression andPred) {
         if (pred.isExpression()) {
             if (pred.getExpression().isOppositeOf(andPred)) {
-                pred.set(Expression.getFalse());
-                return;
+                return Predicate.getFalse();
             }
 
             if (andPred.implies(pred.getExpression())) {
-                pred.set(Expression.getTrue());
-                return;
+                return Predicate.getTrue();
             }
 
         } else if (pred.isUnary()) {
-            propagateAndConstraint(pred.getLeft(), andPred);
+            Predicate left = propagateAndConstraint(pred.getLeft(), andPred);
 
-            if (pred.getLeft().isExpression() && pred.getOperator().equals(Predicate.Operator.NOT)) {
+            if (left.isExpression() && pred.getOperator().equals(Predicate.Operator.NOT)) {
                 // isEquivalentTo?  implies?
-                if (pred.getLeft().getExpression().equals(andPred)) {
-                    pred.set(Expression.getFalse());
-                    return;
-                } else if (pred.getLeft().getExpression().isOppositeOf(andPred)) {
-                    pred.set(Expression.getTrue());
-                    return;
+                if (left.getExpression().equals(andPred)) {
+                    return Predicate.getFalse();
+                } else if (left.getExpression().isOppositeOf(andPred)) {
+                    return Predicate.getTrue();
                 }
             }
 
+            return (left == pred.getLeft()) ? pred : Predicate.make(pred.getOperator(), left);
+
         } else if (pred.isBinary()) {
-            propagateAndConstraint(pred.getLeft(), andPred);
-            propagateAndConstraint(pred.getRight(), andPred);
+            Predicate left = propagateAndConstraint(pred.getLeft(), andPred);
+            Predicate right = propagateAndConstraint(pred.getRight(), andPred);
 
             if (pred.getOperator().equals(Predicate.Operator.AND)) {
-                if (pred.getLeft().isFalse() || pred.getRight().isFalse()) {
-                    pred.set(Expression.getFalse());
-                } else if (pred.getLeft().isTrue()) {
-                    pred.set(pred.getRight());
-                } else if (pred.getRight().isTrue()) {
-                    pred.set(pred.getLeft());
+                if (left.isFalse() || right.isFalse()) {
+                    return Predicate.getFalse();
+                } else if (left.isTrue()) {
+                    return right;
+                } else if (right.isTrue()) {
+                    return left;
                 }
 
             } else if (pred.getOperator().equals(Predicate.Operator.OR)) {
-                if (pred.getLeft().isTrue() || pred.getRight().isTrue()) {
-                    pred.set(Expression.getTrue());
-                } else if (pred.getLeft().isFalse()) {
-                    pred.set(pred.getRight());
-                } else if (pred.getRight().isFalse()) {
-                    pred.set(pred.getLeft());
+                if (left.isTrue() || right.isTrue()) {
+                    return Predicate.getTrue();
+                } else if (left.isFalse()) {
+                    return right;
+                } else if (right.isFalse()) {
+                    return left;
                 }
             }
+
+            return (left == pred.getLeft() && right == pred.getRight()) ? pred : Predicate.make(pred.getOperator(), left, right);
         }
+
+        return pred;
     }
 }
 
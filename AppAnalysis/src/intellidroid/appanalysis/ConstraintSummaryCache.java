@@ -0,0 +1,220 @@
+package intellidroid.appanalysis;
+
+import com.ibm.wala.ipa.callgraph.*;
+import com.ibm.wala.ipa.callgraph.propagation.*;
+import com.ibm.wala.classLoader.ProgramCounter;
+
+import java.util.*;
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+
+// Bounded (LRU) cache of per-method constraint summaries, shared by the constraint
+// analyses of all paths in a call graph.  A summary is the result of propagating data
+// and constraints through a method (a node on the path, up to the call to the next
+// node, or a helper method invoked along the way), together with its side effects on
+// the heap store data and the target parameters.  Since the result only depends on the
+// data flowing into the method, the key uses a value-based form of the parameter and
+// heap store data maps (including variable types) instead of the maps themselves.
+class ConstraintSummaryCache {
+    private static final boolean DEBUG = false;
+
+    private final int _maxEntries;
+    private final Map<Key, Summary> _summaries;
+
+    private long _hits = 0;
+    private long _misses = 0;
+
+    //=========================================================================
+
+    public static class Key {
+        private final CGNode _node;
+        private final String _target;
+        private final CGNode _nextNode;
+        private final ProgramCounter _pathTarget;
+        private final Map<Integer, String> _parameters;
+        private final Map<PointerKey, String> _storeData;
+        private final int _hashCode;
+
+        // target: instruction that the propagation stops at (or the return variable for helper methods)
+        public Key(CGNode node, String target, CGNode nextNode, ProgramCounter pathTarget, ValueDataMap parameterMap, Map<PointerKey, ExpressionGroup> storeDataMap) {
+            _node = node;
+            _target = target;
+            _nextNode = nextNode;
+            _pathTarget = pathTarget;
+            _parameters = new HashMap<Integer, String>();
+            _storeData = new HashMap<PointerKey, String>();
+
+            for (int valueNumber : parameterMap.getValueNumbers()) {
+                _parameters.put(valueNumber, getExpressionGroupKey(parameterMap.get(valueNumber)));
+            }
+
+            for (Map.Entry<PointerKey, ExpressionGroup> storeData : storeDataMap.entrySet()) {
+                _storeData.put(storeData.getKey(), getExpressionGroupKey(storeData.getValue()));
+            }
+
+            _hashCode = new HashCodeBuilder().
+                append(_node).
+                append(_target).
+                append(_nextNode).
+                append(_pathTarget).
+                append(_parameters).
+                append(_storeData).
+                toHashCode();
+        }
+
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+
+            Key otherKey = (Key)obj;
+
+            if (otherKey == this) {
+                return true;
+            }
+
+            return _hashCode == otherKey._hashCode && new EqualsBuilder().
+                append(_node, otherKey._node).
+                append(_target, otherKey._target).
+                append(_nextNode, otherKey._nextNode).
+                append(_pathTarget, otherKey._pathTarget).
+                append(_parameters, otherKey._parameters).
+                append(_storeData, otherKey._storeData).
+                isEquals();
+        }
+
+        public int hashCode() {
+            return _hashCode;
+        }
+    }
+
+    // Result of one propagation.  The data maps and expression groups are copied in and
+    // out, since the constraint analyses add to them; predicates and expressions are
+    // immutable and shared.
+    public static class Summary {
+        private final Predicate _constraints;
+        private final ValueDataMap _dataMap;
+        private final Map<PointerKey, ExpressionGroup> _storeDataMap;
+        private final Map<String, PointerKey> _pointerNames;
+        private final List<Expression> _targetParameters;
+
+        public Summary(Predicate constraints, ValueDataMap dataMap, Map<PointerKey, ExpressionGroup> storeDataMap, Map<String, PointerKey> pointerNames, List<Expression> targetParameters) {
+            _constraints = constraints;
+            _dataMap = ValueDataMap.duplicate(dataMap);
+            _storeDataMap = duplicateDataMap(storeDataMap);
+            _pointerNames = new HashMap<String, PointerKey>(pointerNames);
+            _targetParameters = new ArrayList<Expression>(targetParameters);
+        }
+
+        public Predicate getConstraints() {
+            return _constraints;
+        }
+
+        public ValueDataMap getDataMap() {
+            return ValueDataMap.duplicate(_dataMap);
+        }
+
+        public Map<PointerKey, ExpressionGroup> getStoreDataMap() {
+            return duplicateDataMap(_storeDataMap);
+        }
+
+        public Map<String, PointerKey> getPointerNames() {
+            return _pointerNames;
+        }
+
+        public List<Expression> getTargetParameters() {
+            return _targetParameters;
+        }
+    }
+
+    //=========================================================================
+
+    public ConstraintSummaryCache(final int maxEntries) {
+        _maxEntries = maxEntries;
+        _summaries = new LinkedHashMap<Key, Summary>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Summary> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    public synchronized Summary get(Key key) {
+        Summary summary = _summaries.get(key);
+
+        if (summary != null) {
+            _hits++;
+        } else {
+            _misses++;
+        }
+
+        return summary;
+    }
+
+    public synchronized void put(Key key, Summary summary) {
+        if (_maxEntries > 0) {
+            _summaries.put(key, summary);
+        }
+    }
+
+    public synchronized long getHits() {
+        return _hits;
+    }
+
+    public synchronized long getMisses() {
+        return _misses;
+    }
+
+    public synchronized void printStatistics() {
+        Output.debug(DEBUG, "Constraint summaries: " + _summaries.size() + " cached, " + _hits + " hits, " + _misses + " misses");
+    }
+
+    //=========================================================================
+
+    private static String getExpressionGroupKey(ExpressionGroup exprGrp) {
+        StringBuilder key = new StringBuilder();
+
+        if (exprGrp != null) {
+            for (Expression expr : exprGrp.toList()) {
+                appendExpressionKey(key, expr);
+                key.append("|");
+            }
+        }
+
+        return key.toString();
+    }
+
+    // Like Expression.toString(), but also includes the variable types
+    private static void appendExpressionKey(StringBuilder key, Expression expr) {
+        if (expr == null) {
+            key.append("null");
+        } else if (expr.isVariable()) {
+            key.append(expr.getVariable());
+            key.append(":");
+            key.append(expr.getType());
+        } else {
+            key.append("(");
+            appendExpressionKey(key, expr.getLeft());
+            key.append(" ");
+            key.append(expr.getOperator());
+            key.append(" ");
+            appendExpressionKey(key, expr.getRight());
+            key.append(")");
+        }
+    }
+
+    private static <K> Map<K, ExpressionGroup> duplicateDataMap(Map<K, ExpressionGroup> dataMap) {
+        if (dataMap == null) {
+            return null;
+        }
+
+        Map<K, ExpressionGroup> result = new HashMap<K, ExpressionGroup>();
+
+        for (Map.Entry<K, ExpressionGroup> data : dataMap.entrySet()) {
+            result.put(data.getKey(), ExpressionGroup.duplicate(data.getValue()));
+        }
+
+        return result;
+    }
+}
+
@@ -0,0 +1,103 @@
+package intellidroid.appanalysis;
+
+import com.ibm.wala.ssa.*;
+import com.ibm.wala.util.graph.*;
+import com.ibm.wala.util.intset.IBinaryNaturalRelation;
+
+import com.ibm.wala.cfg.Util;
+
+import java.util.*;
+
+// Structural facts about the control flow graph of an IR, which do not depend on the path
+// being analyzed: the back edges and the blocks reachable from each block.  Computed once
+// per IR (see ControlFlowFactsCache) and shared by all constraint analyses.
+class ControlFlowFacts {
+    private final IBinaryNaturalRelation _backEdges;
+
+    // Indexed by block number; blocks reachable from the block (including itself), following
+    // the same (normal and exceptional) edges as a path search over the CFG
+    private final BitSet[] _reachableBlocks;
+
+    public ControlFlowFacts(SSACFG cfg) {
+        _backEdges = Acyclic.computeBackEdges(cfg, cfg.entry());
+        _reachableBlocks = computeReachableBlocks(cfg);
+    }
+
+    public IBinaryNaturalRelation getBackEdges() {
+        return _backEdges;
+    }
+
+    public boolean canReach(ISSABasicBlock fromBlock, ISSABasicBlock toBlock) {
+        if (fromBlock == null || toBlock == null) {
+            return false;
+        }
+
+        BitSet reachableBlocks = _reachableBlocks[fromBlock.getNumber()];
+        return reachableBlocks != null && reachableBlocks.get(toBlock.getNumber());
+    }
+
+    // 1 if the target block can only be reached by taking the branch at the end of the
+    // conditional block, -1 if only by not taking it, and 0 otherwise
+    public int getRequiredBranchDirection(SSACFG cfg, ISSABasicBlock condBlock, ISSABasicBlock targetBlock) {
+        ISSABasicBlock takenBlock = Util.getTakenSuccessor(cfg, condBlock);
+        ISSABasicBlock notTakenBlock = Util.getNotTakenSuccessor(cfg, condBlock);
+
+        // Unresolvable branch target: the direction is unknown
+        if (takenBlock == null || notTakenBlock == null) {
+            return 0;
+        }
+
+        boolean takenPath = canReach(takenBlock, targetBlock);
+        boolean notTakenPath = canReach(notTakenBlock, targetBlock);
+
+        if (takenPath && !notTakenPath) {
+            return 1;
+        } else if (!takenPath && notTakenPath) {
+            return -1;
+        }
+
+        return 0;
+    }
+
+    //=========================================================================
+
+    static private BitSet[] computeReachableBlocks(SSACFG cfg) {
+        int maxNumber = cfg.getMaxNumber();
+        BitSet[] reachableBlocks = new BitSet[maxNumber + 1];
+
+        for (ISSABasicBlock block : cfg) {
+            BitSet blocks = new BitSet();
+            blocks.set(block.getNumber());
+            reachableBlocks[block.getNumber()] = blocks;
+        }
+
+        // Blocks are mostly numbered in program order, so iterating backwards usually
+        // only needs extra passes for loops
+        boolean changed = true;
+
+        while (changed) {
+            changed = false;
+
+            for (int number = maxNumber; number >= 0; number--) {
+                BitSet blocks = reachableBlocks[number];
+                if (blocks == null) {
+                    continue;
+                }
+
+                int cardinality = blocks.cardinality();
+                Iterator<ISSABasicBlock> succIter = cfg.getSuccNodes(cfg.getNode(number));
+
+                while (succIter.hasNext()) {
+                    blocks.or(reachableBlocks[succIter.next().getNumber()]);
+                }
+
+                if (blocks.cardinality() != cardinality) {
+                    changed = true;
+                }
+            }
+        }
+
+        return reachableBlocks;
+    }
+}
+
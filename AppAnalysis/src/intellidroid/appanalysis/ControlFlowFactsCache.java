@@ -0,0 +1,50 @@
+package intellidroid.appanalysis;
+
+import com.ibm.wala.ssa.*;
+
+import java.util.*;
+
+// Control flow facts per IR, shared by the constraint analyses of all paths.  IRs are held
+// weakly, so the facts are dropped together with IRs evicted from WALA's cache.
+class ControlFlowFactsCache {
+    private static final boolean DEBUG = false;
+
+    private final Map<IR, ControlFlowFacts> _facts = new WeakHashMap<IR, ControlFlowFacts>();
+
+    private long _hits = 0;
+    private long _misses = 0;
+
+    public ControlFlowFacts get(IR ir) {
+        synchronized (this) {
+            ControlFlowFacts facts = _facts.get(ir);
+
+            if (facts != null) {
+                _hits++;
+                return facts;
+            }
+
+            _misses++;
+        }
+
+        // Computed outside of the lock; if another thread computed the same facts in the
+        // meantime, its result is used
+        ControlFlowFacts facts = new ControlFlowFacts(ir.getControlFlowGraph());
+
+        synchronized (this) {
+            ControlFlowFacts existingFacts = _facts.get(ir);
+
+            if (existingFacts != null) {
+                return existingFacts;
+            }
+
+            _facts.put(ir, facts);
+        }
+
+        return facts;
+    }
+
+    public synchronized void printStatistics() {
+        Output.debug(DEBUG, "Control flow facts: " + _facts.size() + " cached, " + _hits + " hits, " + _misses + " misses");
+    }
+}
+
@@ -17,8 +17,6 @@ import java.util.*;
 import java.io.FileReader;
 import java.io.BufferedReader;
 
-// TODO: Actually make call graph generation incremental
-
 class EntrypointAnalysis {
     private static final boolean DEBUG = false;
 
@@ -26,11 +24,12 @@ class EntrypointAnalysis {
     private final ManifestAnalysis _manifestAnalysis;
     private final UIActivityMapping _uiActivityMapping;
     private CallGraphInfoListener _callGraphInfoListener;
+    private final Statistics _statistics;
 
     private Map<IMethod, MethodReference> _entrypointFrameworkMethodMap = new LinkedHashMap<IMethod, MethodReference>();
     private List<IMethod> _trueEntrypoints = new ArrayList<IMethod>();
 
-    private SSAPropagationCallGraphBuilder _callGraphBuilder = null;
+    private IncrementalZeroXCFABuilder _callGraphBuilder = null;
     private CallGraph _callGraph = null;
     private PointerAnalysis _pointerAnalysis = null;
 
@@ -103,7 +102,8 @@ class EntrypointAnalysis {
         _fragmentLifecycleMethods.add(Selector.make("onDetach()V"));
     }
 
-    public EntrypointAnalysis(IClassHierarchy cha, ManifestAnalysis manifestAnalysis, UIActivityMapping uiActivityMapping, CallGraphInfoListener callGraphInfoListener) {
+    public EntrypointAnalysis(IClassHierarchy cha, ManifestAnalysis manifestAnalysis, UIActivityMapping uiActivityMapping, CallGraphInfoListener callGraphInfoListener, Statistics statistics) {
+        _statistics = statistics;
         _cha = cha;
         _manifestAnalysis = manifestAnalysis;
         _uiActivityMapping = uiActivityMapping;
@@ -127,11 +127,20 @@ class EntrypointAnalysis {
 
         Output.debug(DEBUG, "Callback entrypoints:");
         boolean changed = true;
+        int round = 0;
 
         while(changed) {
             changed = false;
+
+            long roundStartTime = System.nanoTime();
             makeCallgraphIncremental(incrementalEntrypoints, _cha.getScope(), _cha);
-            //incrementalEntrypoints.clear();
+            long roundTime = System.nanoTime() - roundStartTime;
+
+            Output.debug(DEBUG, "Call graph round " + round + ": " + incrementalEntrypoints.size() + " new entrypoints, " + (roundTime / 1000000) + " ms");
+            _statistics.trackCallGraphRound(roundTime);
+
+            incrementalEntrypoints.clear();
+            round++;
 
             for (TypeReference callbackClassType : AndroidMethods.getCallbackClasses()) {
                 IClass callbackClass = _cha.lookupClass(callbackClassType);
@@ -437,22 +446,23 @@ class EntrypointAnalysis {
         return callbackClasses;
     }
 
-    private void makeCallgraphIncremental(Iterable<Entrypoint> entrypoints, AnalysisScope scope, IClassHierarchy cha) {
+    private void makeCallgraphIncremental(List<Entrypoint> entrypoints, AnalysisScope scope, IClassHierarchy cha) {
         try {
-            //if (_callGraphBuilder == null) {
-                AnalysisOptions options = new AnalysisOptions(scope, entrypoints);
+            if (_callGraphBuilder == null) {
+                AnalysisOptions options = new AnalysisOptions(scope, new ArrayList<Entrypoint>(entrypoints));
                 options.setSelector(new AndroidAppMethodTargetSelector(new ClassHierarchyMethodTargetSelector(cha), cha, _manifestAnalysis));
                 options.setSelector(new ClassHierarchyClassTargetSelector(cha));
                 //options.setReflectionOptions(AnalysisOptions.ReflectionOptions.FULL);
 
-                _callGraphBuilder = ZeroXCFABuilder.make(cha, options, new AnalysisCache(), new DefaultContextSelector(options, cha), null, ZeroXInstanceKeys.NONE);
-                _callGraphInfoListener.clear();
+                _callGraphBuilder = new IncrementalZeroXCFABuilder(cha, options, new AnalysisCache(), new DefaultContextSelector(options, cha), null, ZeroXInstanceKeys.NONE);
                 _callGraphBuilder.setBuilderListener(_callGraphInfoListener);
-            //}
+                _callGraph = _callGraphBuilder.makeCallGraph(options, null);
+
+            } else {
+                // Only the newly discovered entrypoints are added to the existing call graph
+                _callGraphBuilder.addEntrypoints(entrypoints);
+            }
 
-            //AnalysisOptions options = _callGraphBuilder.getOptions();
-            //options.setEntrypoints(entrypoints);
-            _callGraph = _callGraphBuilder.makeCallGraph(options, null);
             _pointerAnalysis = _callGraphBuilder.getPointerAnalysis();
 
             Output.debug(DEBUG, "< Call graph created >");
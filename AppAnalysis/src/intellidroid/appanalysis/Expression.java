@@ -27,120 +27,89 @@ class Expression {
 
     static private final TypeReference JavaLangAppString = TypeReference.findOrCreate(ClassLoaderReference.Application, "Ljava/lang/String");
 
-    private String _variable;
-    private Operator _operator = Operator.NONE;
-    private Expression _left = null;
-    private Expression _right = null;
-    private Type _type = Type.NONE;
-
-    public Expression(String variable, TypeReference type) {
-        _variable = variable;
-        _type = getTypeFromTypeReference(type);
-    }
-
-    public Expression(String variable, Type type) {
+    private static final NodeInterner<Expression> _interner = new NodeInterner<Expression>() {
+        @Override
+        protected boolean isSameNode(Expression expr, Expression other) {
+            return expr._operator == other._operator && expr._type == other._type &&
+                expr._left == other._left && expr._right == other._right &&
+                (expr._variable == null ? other._variable == null : expr._variable.equals(other._variable));
+        }
+    };
+
+    // Expressions are immutable and hash-consed: use the make() methods to create them
+    private final String _variable;
+    private final Operator _operator;
+    private final Expression _left;
+    private final Expression _right;
+    private final Type _type;
+    private final int _hashCode;
+
+    private Expression(String variable, Operator operator, Expression left, Expression right, Type type) {
         _variable = variable;
-        _type = type;
-    }
-
-    public Expression(Operator operator, Expression left, Expression right) {
         _operator = operator;
         _left = left;
         _right = right;
+        _type = type;
 
-        if (isBitwiseOperator(_operator)) {
-            setType(Type.BITVEC);
-        }
+        _hashCode = new HashCodeBuilder().
+            append(_variable).
+            append(_operator).
+            append(_left == null ? 0 : _left.hashCode()).
+            append(_right == null ? 0 : _right.hashCode()).
+            toHashCode();
     }
 
-    public Expression(IBinaryOpInstruction.IOperator operator, Expression left, Expression right) {
-        if (operator instanceof IBinaryOpInstruction.Operator) {
-            _operator = getOperatorForBinaryOp((IBinaryOpInstruction.Operator)operator);
-        } else {
-            _operator = getOperatorForShiftOp((IShiftInstruction.Operator)operator);
-        }
-
-        _left = left;
-        _right = right;
-
-        if (isBitwiseOperator(_operator)) {
-            setType(Type.BITVEC);
-        }
+    public static Expression make(String variable, TypeReference type) {
+        return make(variable, getTypeFromTypeReference(type));
     }
 
-    public Expression(IConditionalBranchInstruction.IOperator operator, Expression left, Expression right) {
-        _operator = getOperatorForCondBranchOp(operator);
-        _left = left;
-        _right = right;
-
-        if (isBitwiseOperator(_operator)) {
-            setType(Type.BITVEC);
-        }
+    public static Expression make(String variable, Type type) {
+        return _interner.intern(new Expression(variable, Operator.NONE, null, null, type));
     }
 
-    public Expression(Expression expr) {
-        _operator = expr.getOperator();
-        _left = expr.getLeft();
-        _right = expr.getRight();
-        _variable = expr.getVariable();
-        _type = expr.getType();
-    }
+    public static Expression make(Operator operator, Expression left, Expression right) {
+        if (isBitwiseOperator(operator)) {
+            left = left.withType(Type.BITVEC);
+            right = right.withType(Type.BITVEC);
+        }
 
-    public void set(Expression expr) {
-        _operator = expr.getOperator();
-        _left = expr.getLeft();
-        _right = expr.getRight();
-        _variable = expr.getVariable();
-        _type = expr.getType();
+        return _interner.intern(new Expression(null, operator, left, right, Type.NONE));
     }
 
-    public void set(String variable, Type type) {
-        _variable = variable;
-        _type = type;
-        _operator = Operator.NONE;
-        _left = null;
-        _right = null;
+    public static Expression make(IBinaryOpInstruction.IOperator operator, Expression left, Expression right) {
+        if (operator instanceof IBinaryOpInstruction.Operator) {
+            return make(getOperatorForBinaryOp((IBinaryOpInstruction.Operator)operator), left, right);
+        } else {
+            return make(getOperatorForShiftOp((IShiftInstruction.Operator)operator), left, right);
+        }
     }
 
-    public void set(Operator operator, Expression left, Expression right) {
-        _operator = operator;
-        _left = left;
-        _right = right;
-        _variable = null;
-        _type = Type.NONE;
+    public static Expression make(IConditionalBranchInstruction.IOperator operator, Expression left, Expression right) {
+        return make(getOperatorForCondBranchOp(operator), left, right);
     }
 
-    public void setTrue() {
-        _variable = "<true>";
-        _type = Type.INT;
-        _operator = Operator.NONE;
-        _left = null;
-        _right = null;
-    }
+    // Returns this expression with all its variables set to the given type
+    public Expression withType(Expression.Type type) {
+        if (isVariable()) {
+            return (_type == type) ? this : make(_variable, type);
+        }
 
-    public void setFalse() {
-        _variable = "<false>";
-        _type = Type.INT;
-        _operator = Operator.NONE;
-        _left = null;
-        _right = null;
-    }
+        Expression left = _left.withType(type);
+        Expression right = _right.withType(type);
 
-    public void setType(Expression.Type type) {
-        if (isVariable()) {
-            _type = type;
-        } else if (isExpression()) {
-            getLeft().setType(type);
-            getRight().setType(type);
+        if (left == _left && right == _right) {
+            return this;
         }
+
+        return _interner.intern(new Expression(null, _operator, left, right, _type));
     }
 
     static Expression getTrue() {
-        return new Expression("<true>", TypeReference.Boolean);
+        return make("<true>", TypeReference.Boolean);
     }
 
     static Expression getFalse() {
-        return new Expression("<false>", TypeReference.Boolean);
+        return make("<false>", TypeReference.Boolean);
     }
 
     public boolean isVariable() {
@@ -223,12 +192,22 @@ class Expression {
     }
 
     public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+
         if (!(o instanceof Expression)) {
             return false;
         }
 
         Expression other = (Expression)o;
 
+        // Canonical nodes only differ from equal ones in their variable types, so the
+        // structural comparison is mostly reached for unequal nodes with the same hash
+        if (_hashCode != other._hashCode) {
+            return false;
+        }
+
         if (isVariable() && other.isVariable()) {
             if (getVariable().equals(other.getVariable())) {
                 return true;
@@ -248,11 +227,7 @@ class Expression {
     }
 
     public int hashCode() {
-        return new HashCodeBuilder().
-            append(_variable).
-            append(_left).
-            append(_right).
-            toHashCode();
+        return _hashCode;
     }
 
     public boolean dependsOnInput() {
@@ -398,7 +373,7 @@ class Expression {
         }
     }
 
-    private Type getTypeFromTypeReference(TypeReference type) {
+    static private Type getTypeFromTypeReference(TypeReference type) {
         if (type.equals(TypeReference.Int)) {
             return Type.INT;
         } else if (type.equals(TypeReference.Boolean)) {
@@ -420,7 +395,7 @@ class Expression {
     }
 
 
-    private boolean isBitwiseOperator(Expression.Operator operator) {
+    static private boolean isBitwiseOperator(Expression.Operator operator) {
         switch (operator) {
             case AND:
             case OR:
@@ -452,7 +427,7 @@ class Expression {
             return left;
         }
 
-        return new Expression(operator, left, right);
+        return Expression.make(operator, left, right);
     }
 
     public static Expression combine(IBinaryOpInstruction.IOperator operator, Expression left, Expression right) {
@@ -471,20 +446,6 @@ class Expression {
         return Expression.combine(op, left, right);
     }
 
-    public static Expression duplicate(Expression expr) {
-        if (expr == null) {
-            return null;
-        }
-
-        if (expr.isVariable()) {
-            return new Expression(expr.getVariable(), expr.getType());
-        } else if (expr.isExpression()) {
-            return new Expression(expr.getOperator(), Expression.duplicate(expr.getLeft()), Expression.duplicate(expr.getRight()));
-        }
-
-        return null;
-    }
-
     //-------------------------------------------------------------------------
 
     public String toString() {
@@ -10,27 +10,58 @@ class ExpressionGroup {
         public T call(Expression expr);
     }
 
-    private List<Expression> _expressions = new ArrayList<Expression>();
+    // Groups larger than this also keep an identity set of their expressions for the duplicate check
+    private static final int MAX_LINEAR_SCAN = 8;
+
+    // Expressions are hash-consed, so duplicate alternatives are detected by identity.  Most
+    // groups hold one or two expressions, which are scanned directly.
+    private List<Expression> _expressions = new ArrayList<Expression>(2);
+    private Set<Expression> _expressionSet = null;
 
     public ExpressionGroup() {
     }
 
     public ExpressionGroup(Expression expr) {
-        _expressions.add(expr);
+        add(expr);
     }
 
     public void add(Expression expr) {
+        if (_expressionSet != null) {
+            if (_expressionSet.add(expr)) {
+                _expressions.add(expr);
+            }
+
+            return;
+        }
+
+        for (Expression groupExpr : _expressions) {
+            if (groupExpr == expr) {
+                return;
+            }
+        }
+
         _expressions.add(expr);
+
+        if (_expressions.size() > MAX_LINEAR_SCAN) {
+            _expressionSet = Collections.newSetFromMap(new IdentityHashMap<Expression, Boolean>());
+            _expressionSet.addAll(_expressions);
+        }
     }
 
     public void addAll(ExpressionGroup exprGrp) {
-        _expressions.addAll(exprGrp.toList());
+        for (Expression expr : exprGrp.toList()) {
+            add(expr);
+        }
     }
 
     public boolean isEmpty() {
         return _expressions.isEmpty();
     }
 
+    public int size() {
+        return _expressions.size();
+    }
+
     public List<Expression> toList() {
         return _expressions;
     }
@@ -39,7 +70,7 @@ class ExpressionGroup {
         Predicate pred = null;
 
         for (Expression expr : _expressions) {
-            pred = Predicate.combine(Predicate.Operator.AND, pred, new Predicate(expr));
+            pred = Predicate.combine(Predicate.Operator.AND, pred, Predicate.make(expr));
         }
 
         return pred;
@@ -49,7 +80,7 @@ class ExpressionGroup {
         Predicate pred = null;
 
         for (Expression expr : _expressions) {
-            pred = Predicate.combine(Predicate.Operator.OR, pred, new Predicate(Predicate.Operator.NOT, new Predicate(expr)));
+            pred = Predicate.combine(Predicate.Operator.OR, pred, Predicate.make(Predicate.Operator.NOT, Predicate.make(expr)));
         }
 
         return pred;
@@ -69,6 +100,32 @@ class ExpressionGroup {
         return false;
     }
 
+    static public ExpressionGroup duplicate(ExpressionGroup exprGrp) {
+        if (exprGrp == null) {
+            return null;
+        }
+
+        // Expressions are immutable, so only the group itself is copied (it has no duplicates,
+        // so the expressions are not checked again)
+        ExpressionGroup result = new ExpressionGroup();
+        result._expressions = new ArrayList<Expression>(exprGrp._expressions);
+
+        if (exprGrp._expressionSet != null) {
+            result._expressionSet = Collections.newSetFromMap(new IdentityHashMap<Expression, Boolean>());
+            result._expressionSet.addAll(exprGrp._expressions);
+        }
+
+        return result;
+    }
+
+    // Upper bound on the number of alternatives produced by combining the two groups
+    static public long getCombinedSize(ExpressionGroup leftExprGrp, ExpressionGroup rightExprGrp) {
+        long leftSize = (leftExprGrp == null) ? 1 : leftExprGrp.size();
+        long rightSize = (rightExprGrp == null) ? 1 : rightExprGrp.size();
+
+        return leftSize * rightSize;
+    }
+
     static public ExpressionGroup extract(Callable<Expression> func, ExpressionGroup exprGrp) {
         ExpressionGroup result = new ExpressionGroup();
 
@@ -0,0 +1,271 @@
+package intellidroid.appanalysis;
+
+import com.ibm.wala.classLoader.*;
+
+import java.util.*;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+
+// On-disk cache of the framework (android.jar) class files.  The classes are stored
+// uncompressed in a single file keyed by the SHA-1 of the jar and memory-mapped on
+// load, so that class files are read lazily without inflating the jar each run.
+// Loaded modules are also kept per JVM, keyed by the same hash.
+class FrameworkCache {
+    private static final boolean DEBUG = false;
+
+    private static final int CACHE_MAGIC = 0x49444643;
+    private static final int CACHE_VERSION = 1;
+
+    private static final Map<String, Module> _loadedModules = new HashMap<String, Module>();
+
+    //=========================================================================
+
+    private static class MappedModule implements Module {
+        private final String _cacheFileName;
+        private final List<ModuleEntry> _entries = new ArrayList<ModuleEntry>();
+
+        public MappedModule(String cacheFileName) {
+            _cacheFileName = cacheFileName;
+        }
+
+        @Override
+        public Iterator<ModuleEntry> getEntries() {
+            return _entries.iterator();
+        }
+
+        @Override
+        public String toString() {
+            return "FrameworkCache:" + _cacheFileName;
+        }
+    }
+
+    private static class MappedModuleEntry implements ModuleEntry {
+        private final MappedModule _module;
+        private final ByteBuffer _data;
+        private final String _name;
+        private final int _offset;
+        private final int _length;
+
+        public MappedModuleEntry(MappedModule module, ByteBuffer data, String name, int offset, int length) {
+            _module = module;
+            _data = data;
+            _name = name;
+            _offset = offset;
+            _length = length;
+        }
+
+        @Override
+        public String getName() {
+            return _name;
+        }
+
+        @Override
+        public boolean isClassFile() {
+            return true;
+        }
+
+        @Override
+        public boolean isSourceFile() {
+            return false;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            // Duplicate so that concurrent readers do not share a buffer position
+            ByteBuffer data = _data.duplicate();
+            data.position(_offset);
+
+            byte[] contents = new byte[_length];
+            data.get(contents);
+            return new ByteArrayInputStream(contents);
+        }
+
+        @Override
+        public boolean isModuleFile() {
+            return false;
+        }
+
+        @Override
+        public Module asModule() {
+            return null;
+        }
+
+        @Override
+        public String getClassName() {
+            return _name.substring(0, _name.length() - ".class".length());
+        }
+
+        @Override
+        public Module getContainer() {
+            return _module;
+        }
+
+        @Override
+        public String toString() {
+            return "FrameworkCache:" + _name;
+        }
+    }
+
+    //=========================================================================
+
+    public static synchronized Module getFrameworkModule(String jarPath, String cacheDirectory) throws IOException {
+        if (cacheDirectory == null) {
+            return new JarFileModule(new JarFile(jarPath));
+        }
+
+        try {
+            String jarHash = getContentHash(jarPath);
+
+            if (_loadedModules.containsKey(jarHash)) {
+                return _loadedModules.get(jarHash);
+            }
+
+            File cacheFile = new File(cacheDirectory, "android-" + jarHash + ".cache");
+
+            if (!cacheFile.isFile()) {
+                Output.log("Creating framework cache: " + cacheFile.getPath());
+                writeCache(jarPath, cacheFile);
+            }
+
+            Module frameworkModule = readCache(cacheFile);
+            _loadedModules.put(jarHash, frameworkModule);
+            return frameworkModule;
+
+        } catch (Exception e) {
+            Output.error("Cannot use framework cache: " + e.toString());
+            e.printStackTrace();
+        }
+
+        return new JarFileModule(new JarFile(jarPath));
+    }
+
+    private static String getContentHash(String fileName) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-1");
+        InputStream in = new BufferedInputStream(new FileInputStream(fileName));
+        byte[] buffer = new byte[64 * 1024];
+        int read;
+
+        try {
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+
+        StringBuilder hash = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hash.append(String.format("%02x", b));
+        }
+
+        return hash.toString();
+    }
+
+    // Layout: magic, version, index length, index (name, offset, length)*, class file data
+    private static void writeCache(String jarPath, File cacheFile) throws IOException {
+        JarFile jarFile = new JarFile(jarPath);
+        ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+        DataOutputStream index = new DataOutputStream(indexBytes);
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        List<ZipEntry> classEntries = new ArrayList<ZipEntry>();
+
+        try {
+            Enumeration<? extends ZipEntry> entries = jarFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (!entry.isDirectory() && entry.getName().endsWith(".class")) {
+                    classEntries.add(entry);
+                }
+            }
+
+            index.writeInt(classEntries.size());
+
+            for (ZipEntry entry : classEntries) {
+                InputStream in = jarFile.getInputStream(entry);
+                int offset = data.size();
+                byte[] buffer = new byte[8192];
+                int read;
+
+                try {
+                    while ((read = in.read(buffer)) != -1) {
+                        data.write(buffer, 0, read);
+                    }
+                } finally {
+                    in.close();
+                }
+
+                index.writeUTF(entry.getName());
+                index.writeInt(offset);
+                index.writeInt(data.size() - offset);
+            }
+        } finally {
+            jarFile.close();
+        }
+
+        index.close();
+        cacheFile.getAbsoluteFile().getParentFile().mkdirs();
+
+        // Write to a temporary file first so that concurrent runs never see a partial cache
+        File tempFile = File.createTempFile("android-", ".tmp", cacheFile.getAbsoluteFile().getParentFile());
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+
+        try {
+            out.writeInt(CACHE_MAGIC);
+            out.writeInt(CACHE_VERSION);
+            out.writeInt(indexBytes.size());
+            indexBytes.writeTo(out);
+            data.writeTo(out);
+        } finally {
+            out.close();
+        }
+
+        if (!tempFile.renameTo(cacheFile)) {
+            tempFile.delete();
+
+            if (!cacheFile.isFile()) {
+                throw new IOException("Cannot create " + cacheFile.getPath());
+            }
+        }
+    }
+
+    private static Module readCache(File cacheFile) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(cacheFile, "r");
+        MappedByteBuffer buffer;
+
+        try {
+            // The mapping stays valid after the channel is closed
+            buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+        } finally {
+            file.close();
+        }
+
+        if (buffer.getInt() != CACHE_MAGIC || buffer.getInt() != CACHE_VERSION) {
+            throw new IOException("Invalid framework cache: " + cacheFile.getPath());
+        }
+
+        byte[] indexBytes = new byte[buffer.getInt()];
+        buffer.get(indexBytes);
+        int dataStart = buffer.position();
+
+        MappedModule module = new MappedModule(cacheFile.getPath());
+        DataInputStream index = new DataInputStream(new ByteArrayInputStream(indexBytes));
+        int numEntries = index.readInt();
+
+        for (int i = 0; i < numEntries; i++) {
+            String name = index.readUTF();
+            int offset = index.readInt();
+            int length = index.readInt();
+
+            module._entries.add(new MappedModuleEntry(module, buffer, name, dataStart + offset, length));
+        }
+
+        Output.debug(DEBUG, "Framework cache: " + numEntries + " classes from " + cacheFile.getPath());
+        return module;
+    }
+}
+
@@ -0,0 +1,69 @@
+package intellidroid.appanalysis;
+
+import java.util.*;
+import java.io.File;
+
+import com.google.common.io.Files;
+
+// Z3 constraint code extracted by FrameworkAnalysis for each framework callback
+// (<class>.<method>.py), loaded into memory once per JVM.  The app's constraint files
+// reference the framework code (written once per output directory) instead of
+// including a copy of it.
+class FrameworkConstraints {
+    private static final boolean DEBUG = false;
+
+    public static final String FRAMEWORK_Z3_DIRECTORY = "../FrameworkAnalysis/z3output/";
+
+    // Output subdirectory for the framework constraint files
+    public static final String OUTPUT_SUBDIRECTORY = "framework";
+
+    private static Map<String, String> _constraintCode = null;
+
+    //=========================================================================
+
+    public static synchronized void load() {
+        if (_constraintCode != null) {
+            return;
+        }
+
+        _constraintCode = new HashMap<String, String>();
+        File[] z3Files = new File(FRAMEWORK_Z3_DIRECTORY).listFiles();
+
+        if (z3Files == null) {
+            Output.debug(DEBUG, "No framework constraints in " + FRAMEWORK_Z3_DIRECTORY);
+            return;
+        }
+
+        for (File z3File : z3Files) {
+            String fileName = z3File.getName();
+
+            if (!z3File.isFile() || !fileName.endsWith(".py")) {
+                continue;
+            }
+
+            try {
+                _constraintCode.put(fileName.substring(0, fileName.length() - ".py".length()), new String(Files.toByteArray(z3File), "UTF-8"));
+            } catch (Exception e) {
+                Output.error("Cannot read framework constraints " + z3File.getPath() + ": " + e.toString());
+                e.printStackTrace();
+            }
+        }
+
+        Output.debug(DEBUG, "Loaded " + _constraintCode.size() + " framework constraint files");
+    }
+
+    // Constraint code for a framework callback (file-friendly name), or null if there is none
+    public static String getConstraintCode(String callbackName) {
+        load();
+
+        synchronized (FrameworkConstraints.class) {
+            return _constraintCode.get(callbackName);
+        }
+    }
+
+    // Path of the framework constraint file, relative to the output directory
+    public static String getOutputFileName(String callbackName) {
+        return OUTPUT_SUBDIRECTORY + "/" + callbackName + ".py";
+    }
+}
+
@@ -0,0 +1,33 @@
+package intellidroid.appanalysis;
+
+import com.ibm.wala.ipa.callgraph.*;
+import com.ibm.wala.ipa.callgraph.impl.*;
+import com.ibm.wala.ipa.cha.IClassHierarchy;
+import com.ibm.wala.ipa.callgraph.propagation.SSAContextInterpreter;
+import com.ibm.wala.ipa.callgraph.propagation.cfa.ZeroXCFABuilder;
+import com.ibm.wala.util.CancelException;
+
+// Builder that can extend an existing call graph with additional entrypoints.  The
+// fake root method, propagation system and analysis cache from the previous
+// rounds are kept, so only the code reachable from the new entrypoints is solved.
+class IncrementalZeroXCFABuilder extends ZeroXCFABuilder {
+
+    public IncrementalZeroXCFABuilder(IClassHierarchy cha, AnalysisOptions options, AnalysisCache cache, ContextSelector appContextSelector, SSAContextInterpreter appContextInterpreter, int instancePolicy) {
+        super(cha, options, cache, appContextSelector, appContextInterpreter, instancePolicy);
+    }
+
+    public void addEntrypoints(Iterable<Entrypoint> entrypoints) throws CancelException {
+        CGNode fakeRootNode = getCallGraph().getFakeRootNode();
+        AbstractRootMethod fakeRootMethod = (AbstractRootMethod)fakeRootNode.getMethod();
+
+        for (Entrypoint entrypoint : entrypoints) {
+            entrypoint.addCall(fakeRootMethod);
+        }
+
+        // Re-visit the fake root so that the new invocations are added to the
+        // constraint system, then continue solving from the current solution.
+        addConstraintsFromChangedNode(fakeRootNode, null);
+        getSolver().solve(null);
+    }
+}
+
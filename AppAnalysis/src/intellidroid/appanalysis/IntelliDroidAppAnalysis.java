@@ -13,6 +13,9 @@ import java.util.jar.JarFile;
 import java.io.File;
 import java.io.FileReader;
 import java.io.BufferedReader;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.cli.*;
 import org.apache.commons.io.FileUtils;
@@ -27,22 +30,78 @@ public class IntelliDroidAppAnalysis {
         REFLECTION
     }
 
+    enum ConstraintFormat {
+        PYTHON,
+        SMTLIB2
+    }
+
     public static class Configuration {
-        static public TargetType Target = TargetType.METHODS;
-        static public Set<String> TargetMethods = new HashSet<String>();
+        public TargetType Target = TargetType.METHODS;
+        public Set<String> TargetMethods = new HashSet<String>();
+
+        public String AppDirectory = null;
+        public String AppName = null;
+        public String OutputDirectory = null;
+
+        public boolean PrintOutput = true;
+        public boolean PrintConstraints = false;
+        public boolean GenerateStats = false;
+        public boolean CompactOutput = false;
+        public ConstraintFormat ConstraintOutputFormat = ConstraintFormat.PYTHON;
+
+        public int Threads = 1;
+        public String FrameworkCacheDirectory = "./android/cache";
+
+        // Path search budgets (0: unlimited)
+        public int MaxPathsPerTarget = 0;
+        public int MaxPathLength = 0;
+        public long PathSearchTimeout = 0;
 
-        static public String AppDirectory = null;
-        static public String AppName = null;
-        static public String OutputDirectory = null;
+        // Search for paths backwards from the target call sites, skipping the entrypoints that
+        // cannot reach a target
+        public boolean BackwardPathSearch = false;
 
-        static public boolean PrintOutput = true;
-        static public boolean PrintConstraints = false;
-        static public boolean GenerateStats = false;
+        // Maximum number of cached per-method constraint summaries (0: no caching)
+        public int ConstraintSummaryCacheSize = 4096;
+
+        // Maximum number of alternative expressions for a value before it is widened to an
+        // unconstrained value (0: unlimited)
+        public int MaxExpressionAlternatives = 256;
+
+        public Configuration() {
+        }
+
+        // Per-app copy of the command-line configuration (used in batch mode)
+        public Configuration(Configuration config) {
+            Target = config.Target;
+            TargetMethods = new HashSet<String>(config.TargetMethods);
+            AppDirectory = config.AppDirectory;
+            AppName = config.AppName;
+            OutputDirectory = config.OutputDirectory;
+            PrintOutput = config.PrintOutput;
+            PrintConstraints = config.PrintConstraints;
+            GenerateStats = config.GenerateStats;
+            CompactOutput = config.CompactOutput;
+            ConstraintOutputFormat = config.ConstraintOutputFormat;
+            Threads = config.Threads;
+            FrameworkCacheDirectory = config.FrameworkCacheDirectory;
+            MaxPathsPerTarget = config.MaxPathsPerTarget;
+            MaxPathLength = config.MaxPathLength;
+            PathSearchTimeout = config.PathSearchTimeout;
+            BackwardPathSearch = config.BackwardPathSearch;
+            ConstraintSummaryCacheSize = config.ConstraintSummaryCacheSize;
+            MaxExpressionAlternatives = config.MaxExpressionAlternatives;
+        }
     }
 
-    public static Configuration Config = new Configuration();
+    private final Configuration _config;
+    private final Statistics _statistics;
 
     public static void main(String[] args) throws Exception {
+        Configuration config = new Configuration();
+        List<String> batchAppDirectories = null;
+        int jobs = 1;
+
         Options options = new Options();
         options.addOption(
             Option.builder("o").longOpt("output")
@@ -74,6 +133,84 @@ public class IntelliDroidAppAnalysis {
                 .desc("Print extracted constraints in standard output")
                 .build()
         );
+        options.addOption(
+            Option.builder("z").longOpt("compact")
+                .required(false).hasArg(false)
+                .desc("Write appInfo.json without indentation (default in batch mode)")
+                .build()
+        );
+        options.addOption(
+            Option.builder("F").longOpt("constraint-format")
+                .required(false).hasArg(true)
+                .desc("Format of the constraint files: \"python\" (Z3 Python code, used by the dynamic client) or \"smt2\" (SMT-LIB2) (default: \"python\")")
+                .build()
+        );
+        options.addOption(
+            Option.builder("j").longOpt("threads")
+                .required(false).hasArg(true)
+                .desc("Number of threads used to analyze entrypoints in parallel (default: 1)")
+                .build()
+        );
+        options.addOption(
+            Option.builder("P").longOpt("max-paths")
+                .required(false).hasArg(true)
+                .desc("Maximum number of paths per entrypoint and target method (shortest paths are found first)")
+                .build()
+        );
+        options.addOption(
+            Option.builder("L").longOpt("max-path-length")
+                .required(false).hasArg(true)
+                .desc("Maximum number of methods in a path from an entrypoint to a target method")
+                .build()
+        );
+        options.addOption(
+            Option.builder("T").longOpt("path-timeout")
+                .required(false).hasArg(true)
+                .desc("Time limit (ms) when searching for paths from an entrypoint to a target method")
+                .build()
+        );
+        options.addOption(
+            Option.builder("B").longOpt("backward-search")
+                .required(false).hasArg(false)
+                .desc("Search for paths backwards from the target call sites, only from the entrypoints that can reach them")
+                .build()
+        );
+        options.addOption(
+            Option.builder("S").longOpt("summary-cache")
+                .required(false).hasArg(true)
+                .desc("Maximum number of cached per-method constraint summaries; 0 disables the cache (default: 4096)")
+                .build()
+        );
+        options.addOption(
+            Option.builder("A").longOpt("max-alternatives")
+                .required(false).hasArg(true)
+                .desc("Maximum number of alternative expressions for a value before it is left unconstrained; 0 for no limit (default: 256)")
+                .build()
+        );
+        options.addOption(
+            Option.builder("c").longOpt("framework-cache")
+                .required(false).hasArg(true)
+                .desc("Directory for the cached framework classes (default: \"./android/cache\")")
+                .build()
+        );
+        options.addOption(
+            Option.builder("C").longOpt("no-framework-cache")
+                .required(false).hasArg(false)
+                .desc("Load the framework classes directly from android.jar")
+                .build()
+        );
+        options.addOption(
+            Option.builder("b").longOpt("batch")
+                .required(false).hasArg(false)
+                .desc("Analyze every extracted APK in the given directory (or listed in the given file, one per line); results are written to a subdirectory of \"--output\" per app")
+                .build()
+        );
+        options.addOption(
+            Option.builder("J").longOpt("jobs")
+                .required(false).hasArg(true)
+                .desc("Number of apps analyzed concurrently in batch mode (default: 1)")
+                .build()
+        );
         options.addOption(
             Option.builder("h").longOpt("help")
                 .required(false).hasArg(false)
@@ -117,58 +254,103 @@ public class IntelliDroidAppAnalysis {
                 throw new ParseException("Missing target APK directory", 0);
             }
 
-            Config.AppDirectory = operands.get(0);
-            Config.AppName = commands.getOptionValue("n", null);
-            Config.OutputDirectory = commands.getOptionValue("o", "./pathOutput");
+            config.AppName = commands.getOptionValue("n", null);
+            config.OutputDirectory = commands.getOptionValue("o", "./pathOutput");
 
-            // Clean output directory
-            try {
-                File outputDirFile = new File(Config.OutputDirectory);
-                outputDirFile.mkdirs();
+            if (commands.hasOption("b")) {
+                config.CompactOutput = true;
+                batchAppDirectories = getBatchAppDirectories(operands.get(0));
+                if (batchAppDirectories.isEmpty()) {
+                    throw new ParseException("No extracted APK directories found in " + operands.get(0), 0);
+                }
 
-                FileUtils.cleanDirectory(outputDirFile);
-            } catch (Exception e) {
-                Output.error(e.toString());
-                e.printStackTrace();
+                if (commands.hasOption("J")) {
+                    try {
+                        jobs = Integer.parseInt(commands.getOptionValue("J"));
+                    } catch (NumberFormatException e) {
+                        throw new ParseException("Invalid number of jobs", 0);
+                    }
+
+                    if (jobs < 1) {
+                        throw new ParseException("Invalid number of jobs", 0);
+                    }
+                }
+            } else {
+                config.AppDirectory = operands.get(0);
             }
 
             if (commands.hasOption("x")) {
-                Config.PrintOutput = false;
+                config.PrintOutput = false;
             };
 
             if (commands.hasOption("y")) {
-                Config.PrintConstraints = true;
+                config.PrintConstraints = true;
+            };
+
+            if (commands.hasOption("z")) {
+                config.CompactOutput = true;
             };
 
             if (commands.hasOption("s")) {
-                Config.GenerateStats = true;
+                config.GenerateStats = true;
+            };
+
+            if (commands.hasOption("F")) {
+                String constraintFormat = commands.getOptionValue("F");
+
+                if (constraintFormat.equals("python")) {
+                    config.ConstraintOutputFormat = ConstraintFormat.PYTHON;
+                } else if (constraintFormat.equals("smt2")) {
+                    config.ConstraintOutputFormat = ConstraintFormat.SMTLIB2;
+                } else {
+                    throw new ParseException("Invalid constraint format", 0);
+                }
+            }
+
+            if (commands.hasOption("j")) {
+                try {
+                    config.Threads = Integer.parseInt(commands.getOptionValue("j"));
+                } catch (NumberFormatException e) {
+                    throw new ParseException("Invalid number of threads", 0);
+                }
+
+                if (config.Threads < 1) {
+                    throw new ParseException("Invalid number of threads", 0);
+                }
             };
 
+            config.MaxPathsPerTarget = (int)getNonNegativeOption(commands, "P");
+            config.MaxPathLength = (int)getNonNegativeOption(commands, "L");
+            config.PathSearchTimeout = getNonNegativeOption(commands, "T");
+            config.BackwardPathSearch = commands.hasOption("B");
+
+            if (commands.hasOption("S")) {
+                config.ConstraintSummaryCacheSize = (int)getNonNegativeOption(commands, "S");
+            }
+
+            if (commands.hasOption("A")) {
+                config.MaxExpressionAlternatives = (int)getNonNegativeOption(commands, "A");
+            }
+
+            if (commands.hasOption("C")) {
+                config.FrameworkCacheDirectory = null;
+            } else {
+                config.FrameworkCacheDirectory = commands.getOptionValue("c", config.FrameworkCacheDirectory);
+            }
+
             if (commands.hasOption("R")) {
                 Output.error("Reflection targeting currently not implemented yet.");
                 return;
             } else if (commands.hasOption("N")) {
                 Output.log("Target: native methods");
-                Config.Target = TargetType.NATIVE;
+                config.Target = TargetType.NATIVE;
             } else {
                 String targetMethodsFile = commands.getOptionValue("t", "./targetedMethods.txt");
                 Output.log("Target: " + targetMethodsFile);
-                Config.Target = TargetType.METHODS;
+                config.Target = TargetType.METHODS;
 
                 try {
-                    BufferedReader br = new BufferedReader(new FileReader(targetMethodsFile));
-                    String line;
-                    while ((line = br.readLine()) != null) {
-                        if (line.isEmpty() || line.startsWith("#")) {
-                            continue;
-                        }
-
-                        String methodSignature = line.substring(line.indexOf("<") + 1, line.lastIndexOf(">"));
-                        Config.TargetMethods.add(methodSignature);
-                    }
-
-                    br.close();
-
+                    readTargetMethods(targetMethodsFile, config.TargetMethods);
                 } catch (Exception e) {
                     System.err.println("Cannot read target methods file");
                     System.err.println("Exception: " + e.toString());
@@ -177,7 +359,7 @@ public class IntelliDroidAppAnalysis {
             }
         } catch (ParseException e) {
             HelpFormatter helpFormatter = new HelpFormatter();
-            helpFormatter.printHelp("IntelliDroidAppAnalysis [options] <directory path to extracted APK>", "output: extracted paths and constraints in \"--output\" directory", options, "\nUse the scripts in the \"preprocess\" directory to extract the target APK prior to running analysis", false);
+            helpFormatter.printHelp("IntelliDroidAppAnalysis [options] <directory path to extracted APK (with \"--batch\": directory of extracted APKs or file listing them)>", "output: extracted paths and constraints in \"--output\" directory", options, "\nUse the scripts in the \"preprocess\" directory to extract the target APK prior to running analysis", false);
 
             return;
         } catch (AlreadySelectedException e) {
@@ -185,29 +367,213 @@ public class IntelliDroidAppAnalysis {
             return;
         }
 
-        Output.log("Starting IntelliDroidAppAnalysis for " + (Config.AppName == null ? Config.AppDirectory : Config.AppName));
-        IntelliDroidAppAnalysis analysis = new IntelliDroidAppAnalysis();
+        // Shared by all analyzed apps
+        FrameworkConstraints.load();
+
+        if (batchAppDirectories != null) {
+            analyzeBatch(config, batchAppDirectories, jobs);
+            return;
+        }
+
+        cleanOutputDirectory(config.OutputDirectory);
+
+        Output.log("Starting IntelliDroidAppAnalysis for " + (config.AppName == null ? config.AppDirectory : config.AppName));
+        IntelliDroidAppAnalysis analysis = new IntelliDroidAppAnalysis(config);
         analysis.analyze();
     }
 
-    public IntelliDroidAppAnalysis() {
+    private static long getNonNegativeOption(CommandLine commands, String option) throws ParseException {
+        if (!commands.hasOption(option)) {
+            return 0;
+        }
+
+        long value = -1;
+
+        try {
+            value = Long.parseLong(commands.getOptionValue(option));
+        } catch (NumberFormatException e) {
+            throw new ParseException("Invalid value for -" + option, 0);
+        }
+
+        if (value < 0) {
+            throw new ParseException("Invalid value for -" + option, 0);
+        }
+
+        return value;
+    }
+
+    private static List<String> getBatchAppDirectories(String batchPath) throws ParseException {
+        List<String> appDirectories = new ArrayList<String>();
+        File batchFile = new File(batchPath);
+
+        if (batchFile.isDirectory()) {
+            File[] appDirs = batchFile.listFiles();
+            Arrays.sort(appDirs);
+
+            for (File appDir : appDirs) {
+                if (new File(appDir, "apk").isDirectory()) {
+                    appDirectories.add(appDir.getPath());
+                }
+            }
+
+        } else {
+            // Queue file listing one extracted APK directory per line
+            try {
+                BufferedReader br = new BufferedReader(new FileReader(batchFile));
+                String line;
+                while ((line = br.readLine()) != null) {
+                    line = line.trim();
+                    if (line.isEmpty() || line.startsWith("#")) {
+                        continue;
+                    }
+
+                    appDirectories.add(line);
+                }
+
+                br.close();
+
+            } catch (Exception e) {
+                throw new ParseException("Cannot read batch file " + batchPath, 0);
+            }
+        }
+
+        return appDirectories;
+    }
+
+    private static void analyzeBatch(final Configuration batchConfig, List<String> appDirectories, int jobs) throws Exception {
+        final boolean concurrent = jobs > 1;
+        ExecutorService executor = Executors.newFixedThreadPool(jobs);
+
+        for (String appDirectory : appDirectories) {
+            final Configuration appConfig = new Configuration(batchConfig);
+            appConfig.AppDirectory = appDirectory;
+            appConfig.OutputDirectory = batchConfig.OutputDirectory + "/" + new File(appDirectory).getName();
+
+            executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    analyzeBatchApp(appConfig, concurrent);
+                }
+            });
+        }
+
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+    }
+
+    private static void analyzeBatchApp(Configuration config, boolean bufferOutput) {
+        // Keep the output of concurrently analyzed apps from interleaving
+        if (bufferOutput) {
+            Output.startCapture();
+        }
+
+        try {
+            cleanOutputDirectory(config.OutputDirectory);
+
+            Output.log("Starting IntelliDroidAppAnalysis for " + config.AppDirectory);
+            IntelliDroidAppAnalysis analysis = new IntelliDroidAppAnalysis(config);
+            analysis.analyze();
+
+        } catch (Throwable e) {
+            // A failing app should not stop the rest of the batch
+            Output.error("Analysis failed for " + config.AppDirectory + ": " + e.toString());
+            e.printStackTrace();
+
+        } finally {
+            if (bufferOutput) {
+                Output.flush(Output.endCapture());
+            }
+        }
+    }
+
+    private static void cleanOutputDirectory(String outputDirectory) {
+        try {
+            File outputDirFile = new File(outputDirectory);
+            outputDirFile.mkdirs();
+
+            FileUtils.cleanDirectory(outputDirFile);
+        } catch (Exception e) {
+            Output.error(e.toString());
+            e.printStackTrace();
+        }
+    }
+
+    // Reads the method signatures (or patterns) of a target methods file, one "<...>" per line
+    static void readTargetMethods(String targetMethodsFile, Set<String> targetMethods) throws Exception {
+        BufferedReader br = new BufferedReader(new FileReader(targetMethodsFile));
+        String line;
+        while ((line = br.readLine()) != null) {
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+
+            String methodSignature = line.substring(line.indexOf("<") + 1, line.lastIndexOf(">"));
+            targetMethods.add(methodSignature);
+        }
+
+        br.close();
+    }
+
+    public IntelliDroidAppAnalysis(Configuration config) {
+        _config = config;
+        _statistics = new Statistics(config);
+    }
+
+    // Call graph of an app and the analyses built with it, from which its paths are analyzed
+    static class AppCallGraph {
+        public final ManifestAnalysis _manifestAnalysis;
+        public final EntrypointAnalysis _entrypointAnalysis;
+        public final UIActivityMapping _uiActivityAnalysis;
+        public final CallGraphInfoListener _callGraphInfoListener;
+
+        public AppCallGraph(ManifestAnalysis manifestAnalysis, EntrypointAnalysis entrypointAnalysis, UIActivityMapping uiActivityAnalysis, CallGraphInfoListener callGraphInfoListener) {
+            _manifestAnalysis = manifestAnalysis;
+            _entrypointAnalysis = entrypointAnalysis;
+            _uiActivityAnalysis = uiActivityAnalysis;
+            _callGraphInfoListener = callGraphInfoListener;
+        }
     }
 
     public void analyze() throws Exception {
-        Statistics.startAnalysis();
+        _statistics.startAnalysis();
 
+        AppCallGraph appCallGraph = buildCallGraph();
+        if (appCallGraph == null) {
+            return;
+        }
+
+        _statistics.startConstraintAnalysis();
+
+        // Analyze paths that lead to invocations of targeted methods
+        TargetedPathsAnalysis targetedPathsAnalysis = new TargetedPathsAnalysis(
+            appCallGraph._entrypointAnalysis, 
+            appCallGraph._manifestAnalysis, 
+            appCallGraph._uiActivityAnalysis, 
+            appCallGraph._callGraphInfoListener,
+            _config,
+            _statistics
+        );
+        targetedPathsAnalysis.analyze();
+
+        _statistics.endConstraintAnalysis();
+        _statistics.endAnalysis();
+
+        _statistics.writeToFile();
+    }
+
+    AppCallGraph buildCallGraph() throws Exception {
         String appPath = null;
         String manifestPath = null;
 
-        String extractedApkPath = Config.AppDirectory + "/apk";
+        String extractedApkPath = _config.AppDirectory + "/apk";
         File extractedApkDir = new File(extractedApkPath);
 
-        if (Config.AppName != null) {
-            //appPath = Config.AppDirectory + "/" + Config.AppName + ".jar";
-            //manifestPath = Config.AppDirectory + "/" + Config.AppName + ".xml";
+        if (_config.AppName != null) {
+            //appPath = _config.AppDirectory + "/" + _config.AppName + ".jar";
+            //manifestPath = _config.AppDirectory + "/" + _config.AppName + ".xml";
 
             Output.error("\nDeprecated. Please use the preprocessing scripts.\n");
-            return;
+            return null;
 
         } else if (extractedApkDir.isDirectory()) {
             appPath = extractedApkPath + "/classes.jar";
@@ -215,7 +581,7 @@ public class IntelliDroidAppAnalysis {
 
         } else {
             Output.error("\nMissing AndroidManifest.xml and/or classes.jar files in target APK directory.");
-            return;
+            return null;
         }
 
         ManifestAnalysis manifestAnalysis = new ManifestAnalysis(manifestPath);
@@ -223,63 +589,51 @@ public class IntelliDroidAppAnalysis {
 
         // Represents code to be analyzed
         AnalysisScope appScope = AnalysisScopeReader.makeJavaBinaryAnalysisScope(appPath, null);
-        Module androidMod = new JarFileModule(new JarFile(_androidLib));
+        Module androidMod = FrameworkCache.getFrameworkModule(_androidLib, _config.FrameworkCacheDirectory);
         appScope.addToScope(ClassLoaderReference.Extension, androidMod);
 
         // A class hierarchy for name resolution, etc.
         IClassHierarchy appHierarchy = ClassHierarchy.make(appScope);
 
-        if (Config.Target == TargetType.NATIVE) {
+        if (_config.Target == TargetType.NATIVE) {
             Iterator<IClass> appClassIter = appHierarchy.getLoader(ClassLoaderReference.Application).iterateAllClasses();
             while (appClassIter.hasNext()) {
                 IClass appClass = appClassIter.next();
                 for (IMethod appMethod : appClass.getDeclaredMethods()) {
                     if (appMethod.isNative()) {
-                        Config.TargetMethods.add(appMethod.getSignature());
+                        _config.TargetMethods.add(appMethod.getSignature());
                     }
                 }
             }
         }
 
-        Statistics.startCallGraph();
+        _statistics.startCallGraph();
 
-        CallGraphInfoListener callGraphInfoListener = new CallGraphInfoListener(appHierarchy);
-        UIActivityMapping uiActivityAnalysis = new UIActivityMapping(appHierarchy);
+        CallGraphInfoListener callGraphInfoListener = new CallGraphInfoListener(appHierarchy, _config.TargetMethods, _statistics);
+        UIActivityMapping uiActivityAnalysis = new UIActivityMapping(appHierarchy, _config.AppDirectory);
 
         // Look for entrypoints and generate call graph
         EntrypointAnalysis entrypointAnalysis = new EntrypointAnalysis(
             appHierarchy, 
             manifestAnalysis, 
             uiActivityAnalysis, 
-            callGraphInfoListener
+            callGraphInfoListener,
+            _statistics
         );
 
-        Statistics.endCallGraph();
+        _statistics.endCallGraph();
+        _statistics.setInvokeListenerTime(callGraphInfoListener.getInvokeTime());
 
         Collection<IMethod> entrypoints = entrypointAnalysis.getEntrypoints();
         CallGraph callGraph = entrypointAnalysis.getCallGraph();
         PointerAnalysis pointerAnalysis = entrypointAnalysis.getPointerAnalysis();
 
-        Statistics.setNumberOfNodes(callGraph.getNumberOfNodes());
-        Statistics.setNumberOfEdges(GraphUtil.countEdges(callGraph));
+        _statistics.setNumberOfNodes(callGraph.getNumberOfNodes());
+        _statistics.setNumberOfEdges(GraphUtil.countEdges(callGraph));
 
         uiActivityAnalysis.setCallGraph(callGraphInfoListener, pointerAnalysis);
 
-        Statistics.startConstraintAnalysis();
-
-        // Analyze paths that lead to invocations of targeted methods
-        TargetedPathsAnalysis targetedPathsAnalysis = new TargetedPathsAnalysis(
-            entrypointAnalysis, 
-            manifestAnalysis, 
-            uiActivityAnalysis, 
-            callGraphInfoListener
-        );
-        targetedPathsAnalysis.analyze();
-
-        Statistics.endConstraintAnalysis();
-        Statistics.endAnalysis();
-
-        Statistics.writeToFile();
+        return new AppCallGraph(manifestAnalysis, entrypointAnalysis, uiActivityAnalysis, callGraphInfoListener);
     }
 }
 
@@ -0,0 +1,115 @@
+package intellidroid.appanalysis;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.*;
+
+// Hash-consing table for immutable constraint nodes (Expression, Predicate).  Returns
+// the canonical instance of a node, so that structurally identical nodes (and their
+// subtrees) are only stored once.  Nodes are held weakly and dropped from the table
+// once they are no longer referenced.
+//
+// The table is split into independently locked stripes (selected by node hash), so that
+// threads analyzing paths in parallel rarely wait for each other when creating nodes.
+abstract class NodeInterner<T> {
+    private static final int STRIPES = 64;
+
+    private final Stripe<T>[] _stripes;
+
+    //=========================================================================
+
+    private static class NodeReference<T> extends WeakReference<T> {
+        private final int _hash;
+
+        public NodeReference(T node, int hash, ReferenceQueue<T> queue) {
+            super(node, queue);
+            _hash = hash;
+        }
+    }
+
+    // Part of the table holding the nodes whose hashes map to it; guarded by its own lock
+    private static class Stripe<T> {
+        private final Map<Integer, List<NodeReference<T>>> _buckets = new HashMap<Integer, List<NodeReference<T>>>();
+        private final ReferenceQueue<T> _staleNodes = new ReferenceQueue<T>();
+        private int _size = 0;
+
+        @SuppressWarnings("unchecked")
+        private void removeStaleNodes() {
+            NodeReference<T> nodeRef;
+
+            while ((nodeRef = (NodeReference<T>)_staleNodes.poll()) != null) {
+                List<NodeReference<T>> bucket = _buckets.get(nodeRef._hash);
+
+                if (bucket != null && bucket.remove(nodeRef)) {
+                    _size--;
+
+                    if (bucket.isEmpty()) {
+                        _buckets.remove(nodeRef._hash);
+                    }
+                }
+            }
+        }
+    }
+
+    //=========================================================================
+
+    @SuppressWarnings("unchecked")
+    public NodeInterner() {
+        _stripes = (Stripe<T>[])new Stripe<?>[STRIPES];
+
+        for (int i = 0; i < STRIPES; i++) {
+            _stripes[i] = new Stripe<T>();
+        }
+    }
+
+    // Whether the nodes are identical, given that their children are already canonical
+    protected abstract boolean isSameNode(T node, T other);
+
+    public T intern(T node) {
+        int hash = node.hashCode();
+        Stripe<T> stripe = getStripe(hash);
+
+        synchronized (stripe) {
+            stripe.removeStaleNodes();
+
+            List<NodeReference<T>> bucket = stripe._buckets.get(hash);
+
+            if (bucket == null) {
+                bucket = new ArrayList<NodeReference<T>>(1);
+                stripe._buckets.put(hash, bucket);
+            } else {
+                for (NodeReference<T> nodeRef : bucket) {
+                    T canonicalNode = nodeRef.get();
+
+                    if (canonicalNode != null && isSameNode(canonicalNode, node)) {
+                        return canonicalNode;
+                    }
+                }
+            }
+
+            bucket.add(new NodeReference<T>(node, hash, stripe._staleNodes));
+            stripe._size++;
+
+            return node;
+        }
+    }
+
+    public int size() {
+        int size = 0;
+
+        for (Stripe<T> stripe : _stripes) {
+            synchronized (stripe) {
+                stripe.removeStaleNodes();
+                size += stripe._size;
+            }
+        }
+
+        return size;
+    }
+
+    private Stripe<T> getStripe(int hash) {
+        // Spread the high bits, since many hashes differ only there
+        hash ^= (hash >>> 16);
+        return _stripes[hash & (STRIPES - 1)];
+    }
+}
@@ -1,9 +1,26 @@
 package intellidroid.appanalysis;
 
+import java.util.*;
+
 class Output {
 
+    // Per-thread buffers used to keep output from concurrently analyzed paths (and apps) together
+    private static final ThreadLocal<Deque<StringBuilder>> _capture = new ThreadLocal<Deque<StringBuilder>>() {
+        @Override
+        protected Deque<StringBuilder> initialValue() {
+            return new ArrayDeque<StringBuilder>();
+        }
+    };
+
     public static void log(String output) {
-        System.out.println(output);
+        StringBuilder capture = _capture.get().peek();
+
+        if (capture != null) {
+            capture.append(output);
+            capture.append("\n");
+        } else {
+            System.out.println(output);
+        }
     }
 
     public static void error(String output) {
@@ -12,22 +29,48 @@ class Output {
 
     public static void debug(boolean debugFlag, String output) {
         if (debugFlag) {
-            System.out.println(output);
+            log(output);
         }
     }
 
-    public static void printPathInfo(String output) {
-        if (IntelliDroidAppAnalysis.Config.PrintOutput) {
-            System.out.println(output);
+    public static void printPathInfo(IntelliDroidAppAnalysis.Configuration config, String output) {
+        if (config.PrintOutput) {
+            log(output);
         }
     }
 
-    public static void printConstraints(Predicate pred) {
+    public static void printConstraints(IntelliDroidAppAnalysis.Configuration config, Predicate pred) {
         if (pred != null) {
-            if (IntelliDroidAppAnalysis.Config.PrintConstraints) {
+            if (config.PrintConstraints) {
                 pred.print(1);
             }
         }
     }
+
+    //=========================================================================
+
+    public static void startCapture() {
+        _capture.get().push(new StringBuilder());
+    }
+
+    public static String endCapture() {
+        StringBuilder capture = _capture.get().poll();
+        return capture == null ? "" : capture.toString();
+    }
+
+    // Emits previously captured output, into the enclosing capture if there is one
+    public static void flush(String capturedOutput) {
+        if (capturedOutput.isEmpty()) {
+            return;
+        }
+
+        StringBuilder capture = _capture.get().peek();
+
+        if (capture != null) {
+            capture.append(capturedOutput);
+        } else {
+            System.out.print(capturedOutput);
+        }
+    }
 }
 
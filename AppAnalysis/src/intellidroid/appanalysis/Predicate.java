@@ -2,6 +2,7 @@ package intellidroid.appanalysis;
 
 import com.ibm.wala.types.TypeReference;
 import java.lang.NullPointerException;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
 
 class Predicate {
     public enum Operator {
@@ -11,35 +12,49 @@ class Predicate {
         NOT
     }
 
-    private Expression _expr = null;
-    private Operator _operator = Operator.NONE;
-    private Predicate _left = null;
-    private Predicate _right = null;
+    private static final NodeInterner<Predicate> _interner = new NodeInterner<Predicate>() {
+        @Override
+        protected boolean isSameNode(Predicate pred, Predicate other) {
+            return pred._operator == other._operator && pred._expr == other._expr &&
+                pred._left == other._left && pred._right == other._right;
+        }
+    };
 
-    public Predicate(Predicate pred) {
-        _expr = pred.getExpression();
-        _operator = pred.getOperator();
-        _left = pred.getLeft();
-        _right = pred.getRight();
-    }
+    // Predicates are immutable and hash-consed: use the make() methods to create them
+    private final Expression _expr;
+    private final Operator _operator;
+    private final Predicate _left;
+    private final Predicate _right;
+    private final int _hashCode;
 
-    public Predicate(Operator unaryOperator, Predicate left) {
-        _operator = unaryOperator;
+    private Predicate(Expression expr, Operator operator, Predicate left, Predicate right) {
+        _expr = expr;
+        _operator = operator;
         _left = left;
+        _right = right;
+
+        _hashCode = new HashCodeBuilder().
+            append(_expr == null ? 0 : _expr.hashCode()).
+            append(_operator).
+            append(_left == null ? 0 : _left.hashCode()).
+            append(_right == null ? 0 : _right.hashCode()).
+            toHashCode();
     }
 
-    public Predicate(Operator binaryOperator, Predicate left, Predicate right) {
-        _operator = binaryOperator;
-        _left = left;
-        _right = right;
+    public static Predicate make(Operator unaryOperator, Predicate left) {
+        return _interner.intern(new Predicate(null, unaryOperator, left, null));
     }
 
-    public Predicate(Expression expr) {
-        _expr = expr;
+    public static Predicate make(Operator binaryOperator, Predicate left, Predicate right) {
+        return _interner.intern(new Predicate(null, binaryOperator, left, right));
+    }
+
+    public static Predicate make(Expression expr) {
+        return _interner.intern(new Predicate(expr, Operator.NONE, null, null));
     }
 
-    public Predicate(String variable, TypeReference type) {
-        _expr = new Expression(variable, type);
+    public static Predicate make(String variable, TypeReference type) {
+        return make(Expression.make(variable, type));
     }
 
     public boolean isVariable() {
@@ -59,43 +74,15 @@ class Predicate {
             return left;
         }
 
-        return new Predicate(binaryOperator, left, right);
-    }
-
-    public void set(Expression expr) {
-        _expr = expr;
-        _operator = Operator.NONE;
-        _left = null;
-        _right = null;
-    }
-
-    public void set(Operator unaryOperator, Predicate left) {
-        _operator = unaryOperator;
-        _left = left;
-        _right = null;
-        _expr = null;
-    }
-
-    public void set(Operator binaryOperator, Predicate left, Predicate right) {
-        _operator = binaryOperator;
-        _left = left;
-        _right = right;
-        _expr = null;
-    }
-
-    public void set(Predicate pred) {
-        _operator = pred.getOperator();
-        _left = pred.getLeft();
-        _right = pred.getRight();
-        _expr = pred.getExpression();;
+        return make(binaryOperator, left, right);
     }
 
     static public Predicate getTrue() {
-        return new Predicate(Expression.getTrue());
+        return make(Expression.getTrue());
     }
 
     static public Predicate getFalse() {
-        return new Predicate(Expression.getFalse());
+        return make(Expression.getFalse());
     }
 
     public boolean equals(Object obj) {
@@ -107,8 +94,16 @@ class Predicate {
             return false;
         }
 
+        if (obj == this) {
+            return true;
+        }
+
         Predicate other = (Predicate)obj;
 
+        if (_hashCode != other._hashCode) {
+            return false;
+        }
+
         if (this.isUnary() && other.isUnary()) {
             if (this.getOperator().equals(other.getOperator()) &&
                 this.getLeft().equals(other.getLeft())) {
@@ -139,6 +134,10 @@ class Predicate {
         return false;
     }
 
+    public int hashCode() {
+        return _hashCode;
+    }
+
     public boolean contains(Predicate other) {
         if (this.equals(other)) {
             return true;
@@ -257,20 +256,6 @@ class Predicate {
         return false;
     }
 
-    public static Predicate duplicate(Predicate pred) {
-        if (pred != null) {
-            if (pred.isExpression()) {
-                return new Predicate(Expression.duplicate(pred.getExpression()));
-            } else if (pred.isUnary()) {
-                return new Predicate(pred.getOperator(), Predicate.duplicate(pred.getLeft()));
-            } else if (pred.isBinary()) {
-                return new Predicate(pred.getOperator(), Predicate.duplicate(pred.getLeft()), Predicate.duplicate(pred.getRight()));
-            }
-        }
-
-        return null;
-    }
-
     // ------------------------------------------------------------------------
 
     public void print() {
@@ -286,7 +271,7 @@ class Predicate {
             }
 
             predString.append(getExpression().toString());
-            System.out.println(predString.toString());
+            Output.log(predString.toString());
 
         } else if (isUnary()) {
             StringBuilder predString = new StringBuilder();
@@ -296,7 +281,7 @@ class Predicate {
             }
 
             predString.append(getOperatorString());
-            System.out.println(predString.toString());
+            Output.log(predString.toString());
 
             getLeft().print(indent + 1);
 
@@ -312,7 +297,7 @@ class Predicate {
                 predString.append("    ");
             }
             predString.append(getOperatorString());
-            System.out.println(predString.toString());
+            Output.log(predString.toString());
 
             if (getRight().isBinary() && getRight().getOperator().equals(getOperator())) {
                 getRight().print(indent );
@@ -0,0 +1,23 @@
+package intellidroid.appanalysis;
+
+import java.util.*;
+import java.io.IOException;
+import java.io.Writer;
+
+// Python code for the Z3 bindings, which is run by the dynamic client with a Solver "s"
+class PythonConstraintEmitter implements ConstraintEmitter {
+    @Override
+    public String getFileExtension() {
+        return ".py";
+    }
+
+    @Override
+    public void writeConstraints(Z3ConstraintGenerator z3Generator, List<String> comments, Writer writer) throws IOException {
+        for (String comment : comments) {
+            writer.write("# " + comment + "\n");
+        }
+
+        writer.write("\n");
+        writer.write(z3Generator.getZ3ConstraintCode());
+    }
+}
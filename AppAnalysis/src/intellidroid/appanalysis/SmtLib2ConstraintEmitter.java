@@ -0,0 +1,374 @@
+package intellidroid.appanalysis;
+
+import java.util.*;
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import org.apache.commons.lang3.math.NumberUtils;
+
+// SMT-LIB2 constraint files, which can be given directly to a solver (e.g. "z3 -smt2 <file>")
+// without running Python.  Variables and strings are numbered as in the Python code, so the
+// app info is the same for both formats.  Subformulas that occur more than once are defined
+// once with define-fun, and the file is written while the formula is traversed.
+class SmtLib2ConstraintEmitter implements ConstraintEmitter {
+    private enum Sort {
+        BOOL, INT, REAL, BITVEC
+    }
+
+    private static final BigInteger BITVEC_MODULUS = BigInteger.ONE.shiftLeft(32);
+
+    @Override
+    public String getFileExtension() {
+        return ".smt2";
+    }
+
+    @Override
+    public void writeConstraints(Z3ConstraintGenerator z3Generator, List<String> comments, Writer writer) throws IOException {
+        for (String comment : comments) {
+            writer.write("; " + comment + "\n");
+        }
+
+        writer.write("\n");
+        writer.write("(set-option :produce-models true)\n");
+
+        new SmtLib2Writer(z3Generator, writer).write();
+
+        writer.write("(check-sat)\n");
+        writer.write("(get-model)\n");
+    }
+
+    //=========================================================================
+
+    // State for writing the constraints of one path
+    private static class SmtLib2Writer {
+        private final Z3ConstraintGenerator _z3Generator;
+        private final Writer _writer;
+
+        private final Map<String, Sort> _variableSorts = new HashMap<String, Sort>();
+        private final Map<Object, Sort> _sorts = new IdentityHashMap<Object, Sort>();
+        private final Map<Object, String> _definedNames = new IdentityHashMap<Object, String>();
+        private final Set<Object> _visitedNodes = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        private int _definitionNum = 0;
+
+        public SmtLib2Writer(Z3ConstraintGenerator z3Generator, Writer writer) {
+            _z3Generator = z3Generator;
+            _writer = writer;
+        }
+
+        public void write() throws IOException {
+            Predicate constraint = _z3Generator.getConstraint();
+
+            writeDeclarations();
+            _writer.write("\n");
+
+            defineSharedNodes(constraint);
+
+            _writer.write("(assert ");
+            writeTerm(constraint, Sort.BOOL);
+            _writer.write(")\n");
+        }
+
+        private void writeDeclarations() throws IOException {
+            for (Map.Entry<Expression, String> variable : _z3Generator.getZ3Variables().entrySet()) {
+                Sort sort = getVariableSort(variable.getKey().getType());
+                _variableSorts.put(variable.getValue(), sort);
+
+                _writer.write("(declare-const " + variable.getValue() + " " + getSortString(sort) + ")");
+                _writer.write("    ; " + variable.getKey().getVariable().replace('\n', ' ') + "\n");
+            }
+        }
+
+        // Defines the shared nodes in post-order, so that each definition only refers to
+        // nodes that are already defined
+        private void defineSharedNodes(Object node) throws IOException {
+            if (!_visitedNodes.add(node)) {
+                return;
+            }
+
+            if (node instanceof Predicate) {
+                Predicate pred = (Predicate)node;
+
+                if (pred.isExpression()) {
+                    defineSharedNodes(pred.getExpression());
+                } else if (pred.isUnary()) {
+                    defineSharedNodes(pred.getLeft());
+                } else if (pred.isBinary()) {
+                    defineSharedNodes(pred.getLeft());
+                    defineSharedNodes(pred.getRight());
+                }
+            } else if (((Expression)node).isExpression()) {
+                Expression expr = (Expression)node;
+                defineSharedNodes(expr.getLeft());
+                defineSharedNodes(expr.getRight());
+            }
+
+            if (!_z3Generator.isSharedNode(node)) {
+                return;
+            }
+
+            String name = "IAAt" + (_definitionNum++);
+
+            _writer.write("(define-fun " + name + " () " + getSortString(getSort(node)) + " ");
+            writeNode(node);
+            _writer.write(")\n");
+
+            _definedNames.put(node, name);
+        }
+
+        // Writes a node as a term of the given sort (converting it if necessary)
+        private void writeTerm(Object node, Sort sort) throws IOException {
+            Sort nodeSort = getSort(node);
+
+            if (nodeSort == null) {
+                _writer.write(getConstant(_z3Generator.getZ3Variable((Expression)node), sort));
+                return;
+            }
+
+            if (nodeSort == sort) {
+                writeNode(node);
+                return;
+            }
+
+            switch (sort) {
+                case BOOL:
+                    _writer.write("(not (= ");
+                    writeNode(node);
+                    _writer.write(" " + getConstant("0", nodeSort) + "))");
+                    return;
+                case INT:
+                    if (nodeSort == Sort.BOOL) {
+                        _writer.write("(ite ");
+                        writeNode(node);
+                        _writer.write(" 1 0)");
+                    } else {
+                        _writer.write(nodeSort == Sort.REAL ? "(to_int " : "(bv2int ");
+                        writeNode(node);
+                        _writer.write(")");
+                    }
+                    return;
+                case REAL:
+                    _writer.write("(to_real ");
+                    writeTerm(node, Sort.INT);
+                    _writer.write(")");
+                    return;
+                case BITVEC:
+                    _writer.write("((_ int2bv 32) ");
+                    writeTerm(node, Sort.INT);
+                    _writer.write(")");
+                    return;
+            }
+        }
+
+        private void writeNode(Object node) throws IOException {
+            String definedName = _definedNames.get(node);
+            if (definedName != null) {
+                _writer.write(definedName);
+                return;
+            }
+
+            if (node instanceof Predicate) {
+                Predicate pred = (Predicate)node;
+
+                if (pred.isExpression()) {
+                    writeTerm(pred.getExpression(), Sort.BOOL);
+                } else if (pred.isUnary()) {
+                    _writer.write("(not ");
+                    writeTerm(pred.getLeft(), Sort.BOOL);
+                    _writer.write(")");
+                } else if (pred.isBinary()) {
+                    _writer.write(pred.getOperator() == Predicate.Operator.AND ? "(and " : "(or ");
+                    writeTerm(pred.getLeft(), Sort.BOOL);
+                    _writer.write(" ");
+                    writeTerm(pred.getRight(), Sort.BOOL);
+                    _writer.write(")");
+                }
+
+                return;
+            }
+
+            Expression expr = (Expression)node;
+
+            if (expr.isVariable()) {
+                String value = _z3Generator.getZ3Variable(expr);
+                _writer.write(_variableSorts.containsKey(value) ? value : getConstant(value, getSort(expr)));
+                return;
+            }
+
+            Sort operandSort = getOperandSort(expr);
+
+            _writer.write("(" + getOperatorString(expr.getOperator(), operandSort) + " ");
+            writeTerm(expr.getLeft(), operandSort);
+            _writer.write(" ");
+            writeTerm(expr.getRight(), operandSort);
+            _writer.write(")");
+        }
+
+        //=====================================================================
+
+        // Sort of a predicate/expression, or null for numeric constants (which take the sort
+        // of the other operand, as in the Python bindings)
+        private Sort getSort(Object node) {
+            if (node instanceof Predicate) {
+                return Sort.BOOL;
+            }
+
+            if (_sorts.containsKey(node)) {
+                return _sorts.get(node);
+            }
+
+            Expression expr = (Expression)node;
+            Sort sort;
+
+            if (expr.isVariable()) {
+                String value = _z3Generator.getZ3Variable(expr);
+                sort = _variableSorts.get(value);
+
+                if (sort == null && !isIntegerConstant(value)) {
+                    sort = Sort.REAL;
+                }
+            } else if (isComparison(expr.getOperator())) {
+                sort = Sort.BOOL;
+            } else {
+                sort = getOperandSort(expr);
+            }
+
+            _sorts.put(node, sort);
+            return sort;
+        }
+
+        private Sort getOperandSort(Expression expr) {
+            Sort leftSort = getSort(expr.getLeft());
+            Sort rightSort = getSort(expr.getRight());
+            Sort sort;
+
+            if (leftSort == null || leftSort == rightSort) {
+                sort = (rightSort == null) ? Sort.INT : rightSort;
+            } else if (rightSort == null) {
+                sort = leftSort;
+            } else if (leftSort == Sort.BITVEC || rightSort == Sort.BITVEC) {
+                sort = Sort.BITVEC;
+            } else if (leftSort == Sort.REAL || rightSort == Sort.REAL) {
+                sort = Sort.REAL;
+            } else {
+                sort = Sort.INT;
+            }
+
+            switch (expr.getOperator()) {
+                case EQ:
+                case NE:
+                    return sort;
+                case REM:
+                    return (sort == Sort.BITVEC) ? Sort.BITVEC : Sort.INT;
+                case AND:
+                case OR:
+                case XOR:
+                    return (sort == Sort.BOOL) ? Sort.BOOL : Sort.BITVEC;
+                case SHL:
+                case SHR:
+                    return Sort.BITVEC;
+                default:
+                    return (sort == Sort.BOOL) ? Sort.INT : sort;
+            }
+        }
+
+        private Sort getVariableSort(Expression.Type type) {
+            switch (type) {
+                case INT:
+                case LONG:
+                case STRING:
+                    return Sort.INT;
+                case BOOL:
+                    return Sort.BOOL;
+                case BITVEC:
+                    return Sort.BITVEC;
+                default:
+                    return Sort.REAL;
+            }
+        }
+
+        private String getSortString(Sort sort) {
+            switch (sort) {
+                case BOOL: return "Bool";
+                case INT: return "Int";
+                case REAL: return "Real";
+                default: return "(_ BitVec 32)";
+            }
+        }
+
+        private String getOperatorString(Expression.Operator operator, Sort sort) {
+            boolean bitvec = (sort == Sort.BITVEC);
+
+            switch (operator) {
+                case ADD: return bitvec ? "bvadd" : "+";
+                case SUB: return bitvec ? "bvsub" : "-";
+                case MUL: return bitvec ? "bvmul" : "*";
+                case DIV: return bitvec ? "bvsdiv" : (sort == Sort.REAL ? "/" : "div");
+                // Matches the Python output, where % on bit-vectors is the signed modulo
+                case REM: return bitvec ? "bvsmod" : "mod";
+                case GT: return bitvec ? "bvsgt" : ">";
+                case GE: return bitvec ? "bvsge" : ">=";
+                case LT: return bitvec ? "bvslt" : "<";
+                case LE: return bitvec ? "bvsle" : "<=";
+                case EQ: return "=";
+                case NE: return "distinct";
+                case AND: return bitvec ? "bvand" : "and";
+                case OR: return bitvec ? "bvor" : "or";
+                case XOR: return bitvec ? "bvxor" : "xor";
+                case SHL: return "bvshl";
+                case SHR: return "bvashr";
+                default: return "";
+            }
+        }
+
+        // Numeric constant (as written in the Python bindings) as an SMT-LIB2 constant of the given sort
+        private String getConstant(String value, Sort sort) {
+            BigDecimal number;
+
+            try {
+                number = new BigDecimal(NumberUtils.createNumber(value).toString());
+            } catch (Exception e) {
+                Output.error("Invalid numeric constant in constraint: " + value);
+                return value;
+            }
+
+            if (sort == null) {
+                sort = isIntegerConstant(value) ? Sort.INT : Sort.REAL;
+            }
+
+            switch (sort) {
+                case BOOL:
+                    return (number.signum() != 0) ? "true" : "false";
+                case BITVEC:
+                    return "(_ bv" + number.toBigInteger().mod(BITVEC_MODULUS) + " 32)";
+                case INT:
+                    number = new BigDecimal(number.toBigInteger());
+                    break;
+                default:
+                    number = number.setScale(Math.max(number.scale(), 1));
+                    break;
+            }
+
+            String constant = number.abs().toPlainString();
+            return (number.signum() < 0) ? "(- " + constant + ")" : constant;
+        }
+
+        private boolean isIntegerConstant(String value) {
+            return NumberUtils.isDigits(value) || (value.startsWith("-") && NumberUtils.isDigits(value.substring(1)));
+        }
+
+        private boolean isComparison(Expression.Operator operator) {
+            switch (operator) {
+                case GT:
+                case GE:
+                case LT:
+                case LE:
+                case EQ:
+                case NE:
+                    return true;
+                default:
+                    return false;
+            }
+        }
+    }
+}
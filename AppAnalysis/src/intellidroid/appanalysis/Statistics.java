@@ -1,80 +1,338 @@
 package intellidroid.appanalysis;
 
 import java.util.*;
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
 
 import com.ibm.wala.classLoader.*;
 import com.ibm.wala.ipa.callgraph.*;
 import com.ibm.wala.util.collections.*;
 
+import com.google.gson.stream.JsonWriter;
+
 class Statistics {
-    static private Date _startTime = null;
-    static private Date _endTime = null;
+    private final IntelliDroidAppAnalysis.Configuration _config;
+
+    private static final String ANALYSIS_PHASE = "analysis";
+    private static final String CALL_GRAPH_PHASE = "callGraph";
+    private static final String CONSTRAINT_ANALYSIS_PHASE = "constraintAnalysis";
+
+    // Phase name -> timing and heap usage, in the order the phases started
+    private final Map<String, PhaseMetrics> _phases = new LinkedHashMap<String, PhaseMetrics>();
+
+    // In the order of the entrypoints
+    private final List<EntrypointMetrics> _entrypoints = new ArrayList<EntrypointMetrics>();
+
+    private long _numberOfNodes = 0;
+    private long _numberOfEdges = 0;
+    private Set<CGNode> _pathNodes = new HashSet<CGNode>();
+    private Set<Pair<IMethod, IMethod>> _pathEdges = new HashSet<Pair<IMethod, IMethod>>();
+
+    private long _pathSearchNodesVisited = 0;
+    private long _summaryCacheHits = 0;
+    private long _summaryCacheMisses = 0;
+    private long _constraintNodesBeforeMinimization = 0;
+    private long _constraintNodesAfterMinimization = 0;
+    private long _widenedExpressions = 0;
+
+    // Bytes of Z3 constraint files written, and bytes that would have been written with the framework constraints copied into each file
+    private long _constraintFileBytes = 0;
+    private long _inlinedConstraintFileBytes = 0;
+
+    // Constraint files not written (or solved) because another path has the same formula
+    private long _deduplicatedConstraints = 0;
+    private long _deduplicatedConstraintBytes = 0;
+
+    // Target method -> number of path searches stopped by {path limit, length limit, deadline}
+    private Map<String, int[]> _pathSearchTruncations = new TreeMap<String, int[]>();
+
+    private List<Long> _callGraphRoundTimes = new ArrayList<Long>();
+
+    // Time spent in the call graph builder's invoke listener
+    private long _invokeListenerTime = 0;
+
+    private int _pathAnalysisThreads = 1;
+    private long _pathAnalysisTime = 0;
+    private long _pathTaskTime = 0;
+
+    // Samples the heap usage (every 10 ms) while a phase is running
+    private static final long HEAP_SAMPLE_INTERVAL = 10;
+    private Timer _heapSampler = null;
+
+    //=========================================================================
+
+    private static class PhaseMetrics {
+        private final long _startTime = System.nanoTime();
+        private long _endTime = 0;
+
+        // Peak of the heap usage sampled during the phase, and committed heap sampled at its end
+        // (in batch mode, the heap is shared by the apps analyzed concurrently)
+        private long _heapPeak = 0;
+        private long _heapCommitted = 0;
+
+        public long getTime() {
+            return (_endTime == 0) ? 0 : _endTime - _startTime;
+        }
+    }
+
+    // Path search and analysis of the paths from one entrypoint
+    static class EntrypointMetrics {
+        private final String _entrypoint;
+        private long _searchTime = 0;
+        private long _nodesVisited = 0;
+        private int _pathsFound = 0;
+        private final List<PathMetrics> _paths = new ArrayList<PathMetrics>();
+
+        public EntrypointMetrics(String entrypoint) {
+            _entrypoint = entrypoint;
+        }
+
+        public void trackPathSearch(long nanos, long nodesVisited, int pathsFound) {
+            _searchTime += nanos;
+            _nodesVisited += nodesVisited;
+            _pathsFound += pathsFound;
+        }
+
+        public synchronized void addPath(PathMetrics pathMetrics) {
+            _paths.add(pathMetrics);
+        }
+
+        private synchronized long getAnalysisTime() {
+            long analysisTime = 0;
+
+            for (PathMetrics pathMetrics : _paths) {
+                analysisTime += pathMetrics._analysisTime;
+            }
+
+            return analysisTime;
+        }
+    }
+
+    // Constraint analysis and output of one call path (and of the paths it depends on)
+    static class PathMetrics {
+        private final String _target;
+        private final long _analysisTime;
+        private final long _constraintNodes;
+        private final boolean _feasible;
+
+        // Set when the path is written (infeasible paths are not)
+        private int _callPathID = -1;
+        private int _constraintFiles = 0;
+        private long _constraintBytes = 0;
 
-    static private Date _callGraphStartTime = null;
-    static private Date _callGraphEndTime = null;
+        public PathMetrics(String target, long analysisTime, long constraintNodes, boolean feasible) {
+            _target = target;
+            _analysisTime = analysisTime;
+            _constraintNodes = constraintNodes;
+            _feasible = feasible;
+        }
 
-    static private Date _constraintStartTime = null;
-    static private Date _constraintEndTime = null;
+        public void setCallPathID(int callPathID) {
+            _callPathID = callPathID;
+        }
 
-    static private long _numberOfNodes = 0;
-    static private long _numberOfEdges = 0;
-    static private Set<CGNode> _pathNodes = new HashSet<CGNode>();
-    static private Set<Pair<IMethod, IMethod>> _pathEdges = new HashSet<Pair<IMethod, IMethod>>();
+        public void trackConstraintFile(long bytes) {
+            _constraintFiles++;
+            _constraintBytes += bytes;
+        }
+    }
 
     //=========================================================================
 
-    static public void startAnalysis() {
-        if (IntelliDroidAppAnalysis.Config.GenerateStats) {
-            _startTime = new Date();
+    public Statistics(IntelliDroidAppAnalysis.Configuration config) {
+        _config = config;
+    }
+
+    public boolean isEnabled() {
+        return _config.GenerateStats;
+    }
+
+    public void startAnalysis() {
+        startPhase(ANALYSIS_PHASE);
+    }
+
+    public void endAnalysis() {
+        endPhase(ANALYSIS_PHASE);
+    }
+
+    public void startCallGraph() {
+        startPhase(CALL_GRAPH_PHASE);
+    }
+
+    public void endCallGraph() {
+        endPhase(CALL_GRAPH_PHASE);
+    }
+
+    public void startConstraintAnalysis() {
+        startPhase(CONSTRAINT_ANALYSIS_PHASE);
+    }
+
+    public void endConstraintAnalysis() {
+        endPhase(CONSTRAINT_ANALYSIS_PHASE);
+    }
+
+    synchronized public void startPhase(String name) {
+        if (_config.GenerateStats) {
+            _phases.put(name, new PhaseMetrics());
+            sampleHeap();
+
+            if (_heapSampler == null) {
+                _heapSampler = new Timer("heap-sampler", true);
+                _heapSampler.scheduleAtFixedRate(new TimerTask() {
+                    @Override
+                    public void run() {
+                        sampleHeap();
+                    }
+                }, HEAP_SAMPLE_INTERVAL, HEAP_SAMPLE_INTERVAL);
+            }
+        }
+    }
+
+    synchronized public void endPhase(String name) {
+        if (_config.GenerateStats && _phases.containsKey(name)) {
+            sampleHeap();
+
+            PhaseMetrics phase = _phases.get(name);
+            phase._endTime = System.nanoTime();
+            phase._heapCommitted = Runtime.getRuntime().totalMemory();
+
+            if (_heapSampler != null && !hasRunningPhase()) {
+                _heapSampler.cancel();
+                _heapSampler = null;
+            }
+        }
+    }
+
+    // The heap usage is sampled periodically (and at the phase boundaries) while a phase is
+    // running, and its maximum kept for every running phase (phases nest).  The JVM's pool peaks
+    // are not used, since resetting them would affect the other apps analyzed concurrently.
+    private synchronized void sampleHeap() {
+        long heapUsed = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+
+        for (PhaseMetrics phase : _phases.values()) {
+            if (phase._endTime == 0) {
+                phase._heapPeak = Math.max(phase._heapPeak, heapUsed);
+            }
+        }
+    }
+
+    private boolean hasRunningPhase() {
+        for (PhaseMetrics phase : _phases.values()) {
+            if (phase._endTime == 0) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    // Record for the paths of an entrypoint; added in the order the entrypoints are analyzed
+    synchronized public EntrypointMetrics addEntrypoint(String entrypoint) {
+        EntrypointMetrics entrypointMetrics = new EntrypointMetrics(entrypoint);
+
+        if (_config.GenerateStats) {
+            _entrypoints.add(entrypointMetrics);
+        }
+
+        return entrypointMetrics;
+    }
+
+    public void trackCallGraphRound(long nanos) {
+        if (_config.GenerateStats) {
+            _callGraphRoundTimes.add(nanos / 1000000);
         }
     }
 
-    static public void endAnalysis() {
-        if (IntelliDroidAppAnalysis.Config.GenerateStats) {
-            _endTime = new Date();
+    public void setInvokeListenerTime(long nanos) {
+        if (_config.GenerateStats) {
+            _invokeListenerTime = nanos / 1000000;
         }
     }
 
-    static public void startCallGraph() {
-        if (IntelliDroidAppAnalysis.Config.GenerateStats) {
-            _callGraphStartTime = new Date();
+    synchronized public void trackPathSearchTruncation(String targetMethod, boolean pathLimit, boolean lengthLimit, boolean deadline) {
+        if (_config.GenerateStats && (pathLimit || lengthLimit || deadline)) {
+            if (!_pathSearchTruncations.containsKey(targetMethod)) {
+                _pathSearchTruncations.put(targetMethod, new int[3]);
+            }
+
+            int[] truncations = _pathSearchTruncations.get(targetMethod);
+            truncations[0] += pathLimit ? 1 : 0;
+            truncations[1] += lengthLimit ? 1 : 0;
+            truncations[2] += deadline ? 1 : 0;
         }
     }
 
-    static public void endCallGraph() {
-        if (IntelliDroidAppAnalysis.Config.GenerateStats) {
-            _callGraphEndTime = new Date();
+    public void setPathSearchNodesVisited(long num) {
+        if (_config.GenerateStats) {
+            _pathSearchNodesVisited = num;
         }
     }
 
-    static public void startConstraintAnalysis() {
-        if (IntelliDroidAppAnalysis.Config.GenerateStats) {
-            _constraintStartTime = new Date();
+    public void setConstraintSummaryCacheStats(long hits, long misses) {
+        if (_config.GenerateStats) {
+            _summaryCacheHits = hits;
+            _summaryCacheMisses = misses;
         }
     }
 
-    static public void endConstraintAnalysis() {
-        if (IntelliDroidAppAnalysis.Config.GenerateStats) {
-            _constraintEndTime = new Date();
+    public void setWidenedExpressions(long num) {
+        if (_config.GenerateStats) {
+            _widenedExpressions = num;
         }
     }
 
-    static public void setNumberOfNodes(long num) {
-        if (IntelliDroidAppAnalysis.Config.GenerateStats) {
+    synchronized public void trackConstraintFileBytes(long bytesWritten, long inlinedBytes) {
+        if (_config.GenerateStats) {
+            _constraintFileBytes += bytesWritten;
+            _inlinedConstraintFileBytes += inlinedBytes;
+        }
+    }
+
+    synchronized public void trackDeduplicatedConstraints(long bytes) {
+        if (_config.GenerateStats) {
+            _deduplicatedConstraints++;
+            _deduplicatedConstraintBytes += bytes;
+        }
+    }
+
+    synchronized public void trackConstraintMinimization(long nodesBefore, long nodesAfter) {
+        if (_config.GenerateStats) {
+            _constraintNodesBeforeMinimization += nodesBefore;
+            _constraintNodesAfterMinimization += nodesAfter;
+        }
+    }
+
+    public void setNumberOfNodes(long num) {
+        if (_config.GenerateStats) {
             _numberOfNodes = num;
         }
     }
 
-    static public void setNumberOfEdges(long num) {
-        if (IntelliDroidAppAnalysis.Config.GenerateStats) {
+    public void setNumberOfEdges(long num) {
+        if (_config.GenerateStats) {
             _numberOfEdges = num;
         }
     }
 
-    static public void trackPath(List<CGNode> path, IMethod targetMethod) {
-        if (IntelliDroidAppAnalysis.Config.GenerateStats) {
+    synchronized public void addPathTaskTime(long nanos) {
+        if (_config.GenerateStats) {
+            _pathTaskTime += nanos;
+        }
+    }
+
+    public void setPathAnalysisTime(int threads, long nanos) {
+        if (_config.GenerateStats) {
+            _pathAnalysisThreads = threads;
+            _pathAnalysisTime = nanos;
+        }
+    }
+
+    synchronized public void trackPath(List<CGNode> path, IMethod targetMethod) {
+        if (_config.GenerateStats) {
             _pathNodes.addAll(path);
 
             for (int i = 0; i < path.size() - 1 ; i++) {
@@ -89,57 +347,207 @@ class Statistics {
 
     //=========================================================================
 
-    static public void writeToFile() {
-        if (IntelliDroidAppAnalysis.Config.GenerateStats) {
-            try {
-                // Print timing information
-                FileWriter fileWriter = new FileWriter("./timingStats.csv", true);
-                PrintWriter timeWriter = new PrintWriter(fileWriter);
-                String timingStr = IntelliDroidAppAnalysis.Config.AppDirectory + "," + getTotalTime() + "," + getCallGraphTime() + "," + getConstraintAnalysisTime();
-                timeWriter.println(timingStr);
-                timeWriter.close();
-                fileWriter.close();
-
-                // Print static analysis statitics 
-                FileWriter statsFileWriter = new FileWriter("./staticStats.csv", true);
-                PrintWriter statsWriter = new PrintWriter(statsFileWriter);
-                String statsStr = IntelliDroidAppAnalysis.Config.AppDirectory + "," + _numberOfNodes + "," + _numberOfEdges + "," + _pathNodes.size() + "," + _pathEdges.size();
-                statsWriter.println(statsStr);
-                statsWriter.close();
-                statsFileWriter.close();
-            } catch (Exception e) {
-                e.printStackTrace();
+    public void writeToFile() {
+        if (_config.GenerateStats) {
+            // Analyses running concurrently in batch mode append to the same files
+            synchronized (Statistics.class) {
+                try {
+                    // Print timing information
+                    FileWriter fileWriter = new FileWriter("./timingStats.csv", true);
+                    PrintWriter timeWriter = new PrintWriter(fileWriter);
+                    String timingStr = _config.AppDirectory + "," + getTotalTime() + "," + getCallGraphTime() + "," + getConstraintAnalysisTime() + "," + _pathAnalysisThreads + "," + String.format("%.2f", getPathAnalysisParallelism()) + "," + getCallGraphRoundTimes() + "," + _invokeListenerTime + "," + String.format("%.2f", getInvokeListenerShare());
+                    timeWriter.println(timingStr);
+                    timeWriter.close();
+                    fileWriter.close();
+
+                    // Print static analysis statitics 
+                    FileWriter statsFileWriter = new FileWriter("./staticStats.csv", true);
+                    PrintWriter statsWriter = new PrintWriter(statsFileWriter);
+                    String statsStr = _config.AppDirectory + "," + _numberOfNodes + "," + _numberOfEdges + "," + _pathNodes.size() + "," + _pathEdges.size() + "," + _pathSearchNodesVisited + "," + _summaryCacheHits + "," + _summaryCacheMisses + "," + _constraintNodesBeforeMinimization + "," + _constraintNodesAfterMinimization + "," + _widenedExpressions + "," + _constraintFileBytes + "," + _inlinedConstraintFileBytes + "," + _deduplicatedConstraints + "," + _deduplicatedConstraintBytes;
+                    statsWriter.println(statsStr);
+                    statsWriter.close();
+                    statsFileWriter.close();
+
+                    writeMetricsReport();
+
+                    // Print path searches truncated by the search budgets
+                    if (!_pathSearchTruncations.isEmpty()) {
+                        FileWriter truncationFileWriter = new FileWriter("./truncationStats.csv", true);
+                        PrintWriter truncationWriter = new PrintWriter(truncationFileWriter);
+
+                        for (Map.Entry<String, int[]> truncation : _pathSearchTruncations.entrySet()) {
+                            int[] counts = truncation.getValue();
+                            truncationWriter.println(_config.AppDirectory + ",\"" + truncation.getKey() + "\"," + counts[0] + "," + counts[1] + "," + counts[2]);
+                        }
+
+                        truncationWriter.close();
+                        truncationFileWriter.close();
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
             }
         }
     }
 
     //=========================================================================
 
-    static private long getTotalTime() {
-        return _endTime.getTime() - _startTime.getTime();
+    // Per-app report (phases, counters, entrypoints and paths) in the output directory
+    private synchronized void writeMetricsReport() throws Exception {
+        JsonWriter writer = new JsonWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(_config.OutputDirectory + "/metrics.json"), "UTF-8")));
+
+        if (!_config.CompactOutput) {
+            writer.setIndent("  ");
+        }
+
+        try {
+            writer.beginObject();
+            writer.name("app").value(_config.AppDirectory);
+
+            writer.name("phases");
+            writer.beginArray();
+
+            for (Map.Entry<String, PhaseMetrics> phase : _phases.entrySet()) {
+                writer.beginObject();
+                writer.name("name").value(phase.getKey());
+                writer.name("timeNanos").value(phase.getValue().getTime());
+                writer.name("heapPeakBytes").value(phase.getValue()._heapPeak);
+                writer.name("heapCommittedBytes").value(phase.getValue()._heapCommitted);
+                writer.endObject();
+            }
+
+            writer.endArray();
+
+            writer.name("counters");
+            writer.beginObject();
+            writer.name("callGraphNodes").value(_numberOfNodes);
+            writer.name("callGraphEdges").value(_numberOfEdges);
+            writer.name("pathNodes").value(_pathNodes.size());
+            writer.name("pathEdges").value(_pathEdges.size());
+            writer.name("pathSearchNodesVisited").value(_pathSearchNodesVisited);
+            writer.name("summaryCacheHits").value(_summaryCacheHits);
+            writer.name("summaryCacheMisses").value(_summaryCacheMisses);
+            writer.name("constraintNodesBeforeMinimization").value(_constraintNodesBeforeMinimization);
+            writer.name("constraintNodesAfterMinimization").value(_constraintNodesAfterMinimization);
+            writer.name("widenedExpressions").value(_widenedExpressions);
+            writer.name("constraintFileBytes").value(_constraintFileBytes);
+            writer.name("inlinedConstraintFileBytes").value(_inlinedConstraintFileBytes);
+            writer.name("deduplicatedConstraints").value(_deduplicatedConstraints);
+            writer.name("deduplicatedConstraintBytes").value(_deduplicatedConstraintBytes);
+            writer.name("invokeListenerMillis").value(_invokeListenerTime);
+            writer.name("pathAnalysisThreads").value(_pathAnalysisThreads);
+            writer.name("pathAnalysisNanos").value(_pathAnalysisTime);
+            writer.name("pathTaskNanos").value(_pathTaskTime);
+            writer.endObject();
+
+            writer.name("entrypoints");
+            writer.beginArray();
+
+            for (EntrypointMetrics entrypoint : _entrypoints) {
+                writer.beginObject();
+                writer.name("entrypoint").value(entrypoint._entrypoint);
+                writer.name("searchTimeNanos").value(entrypoint._searchTime);
+                writer.name("analysisTimeNanos").value(entrypoint.getAnalysisTime());
+                writer.name("nodesVisited").value(entrypoint._nodesVisited);
+                writer.name("pathsFound").value(entrypoint._pathsFound);
+
+                writer.name("paths");
+                writer.beginArray();
+
+                synchronized (entrypoint) {
+                    for (PathMetrics path : entrypoint._paths) {
+                        writer.beginObject();
+                        writer.name("callPathID").value(path._callPathID);
+                        writer.name("target").value(path._target);
+                        writer.name("analysisTimeNanos").value(path._analysisTime);
+                        writer.name("feasible").value(path._feasible);
+                        writer.name("constraintNodes").value(path._constraintNodes);
+                        writer.name("constraintFiles").value(path._constraintFiles);
+                        writer.name("constraintBytes").value(path._constraintBytes);
+                        writer.endObject();
+                    }
+                }
+
+                writer.endArray();
+                writer.endObject();
+            }
+
+            writer.endArray();
+            writer.endObject();
+
+        } finally {
+            writer.close();
+        }
+    }
+
+    // Wall-clock time (ms) of a phase
+    private long getPhaseTime(String name) {
+        PhaseMetrics phase = _phases.get(name);
+        return (phase == null) ? 0 : phase.getTime() / 1000000;
     }
 
-    static private long getCallGraphTime() {
-        return _callGraphEndTime.getTime() - _callGraphStartTime.getTime();
+    private long getTotalTime() {
+        return getPhaseTime(ANALYSIS_PHASE);
     }
 
-    static private long getConstraintAnalysisTime() {
-        return _constraintEndTime.getTime() - _constraintStartTime.getTime();
+    private long getCallGraphTime() {
+        return getPhaseTime(CALL_GRAPH_PHASE);
+    }
+
+    private long getConstraintAnalysisTime() {
+        return getPhaseTime(CONSTRAINT_ANALYSIS_PHASE);
+    }
+
+    // Time (ms) of each call graph construction round, separated by ';'
+    private String getCallGraphRoundTimes() {
+        StringBuilder roundTimes = new StringBuilder();
+
+        for (Long roundTime : _callGraphRoundTimes) {
+            if (roundTimes.length() > 0) {
+                roundTimes.append(";");
+            }
+
+            roundTimes.append(roundTime);
+        }
+
+        return roundTimes.toString();
+    }
+
+    // Time spent in the invoke listener relative to the time to build the call graph
+    private double getInvokeListenerShare() {
+        long callGraphTime = getCallGraphTime();
+
+        if (callGraphTime == 0) {
+            return 0.0;
+        }
+
+        return (double)_invokeListenerTime / callGraphTime;
+    }
+
+    // Total time spent analyzing individual entrypoints/paths relative to the wall-clock time of
+    // the phase, i.e. the average number of busy threads.  This is the parallel utilization, not
+    // a speedup: comparing against a run with --threads 1 is needed for that.
+    private double getPathAnalysisParallelism() {
+        if (_pathAnalysisTime == 0) {
+            return 1.0;
+        }
+
+        return (double)_pathTaskTime / _pathAnalysisTime;
     }
 
-    static private long getNumberOfNodes() {
+    private long getNumberOfNodes() {
         return _numberOfNodes;
     }
 
-    static private long getNumberOfEdges() {
+    private long getNumberOfEdges() {
         return _numberOfEdges;
     }
 
-    static private long getNumberOfPathNodes() {
+    private long getNumberOfPathNodes() {
         return _pathNodes.size();
     }
 
-    static private long getNumberOfPathEdges() {
+    private long getNumberOfPathEdges() {
         return _pathEdges.size();
     }
 
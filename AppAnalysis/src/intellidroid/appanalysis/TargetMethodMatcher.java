@@ -0,0 +1,224 @@
+package intellidroid.appanalysis;
+
+import com.ibm.wala.classLoader.*;
+
+import java.util.*;
+
+// Target method patterns, which name several methods with one line of a target file:
+//
+//   <type>[+].<method>[(<descriptor>)]
+//
+// In the type, "*" matches part of a package/class name and "**" any number of packages;
+// "+" also matches the subtypes of the type (e.g. any override of "HttpClient+.execute").  In
+// the method name and descriptor, "*" matches any characters; without a descriptor, all
+// overloads match.  The patterns are compiled into a trie over the package/class names, so
+// matching a method only walks the names of its class (and of its supertypes, for "+").
+class TargetMethodMatcher {
+    private static final boolean DEBUG = false;
+
+    private static class TypeNode {
+        public final Map<String, TypeNode> _children = new HashMap<String, TypeNode>();
+
+        // Names with a wildcard ("*") -> node
+        public final Map<String, TypeNode> _patternChildren = new LinkedHashMap<String, TypeNode>();
+
+        // "**": any number of names
+        public TypeNode _anyNamesChild = null;
+
+        // Method patterns of the types ending at this node
+        public final List<MethodPattern> _methodPatterns = new ArrayList<MethodPattern>();
+    }
+
+    private static class MethodPattern {
+        public final String _name;
+        public final String _descriptor;
+        public final boolean _includeSubtypes;
+
+        public MethodPattern(String name, String descriptor, boolean includeSubtypes) {
+            _name = name;
+            _descriptor = descriptor;
+            _includeSubtypes = includeSubtypes;
+        }
+
+        public boolean matches(IMethod method, boolean subtype) {
+            if (subtype && !_includeSubtypes) {
+                return false;
+            }
+
+            if (!matchesWildcard(_name, method.getName().toString())) {
+                return false;
+            }
+
+            return _descriptor == null || matchesWildcard(_descriptor, method.getDescriptor().toString());
+        }
+    }
+
+    private final TypeNode _root = new TypeNode();
+    private boolean _hasSubtypePatterns = false;
+    private int _numberOfPatterns = 0;
+
+    static public boolean isPattern(String targetMethod) {
+        return targetMethod.indexOf('*') >= 0 || targetMethod.indexOf('+') >= 0 || targetMethod.indexOf('(') < 0;
+    }
+
+    public void addPattern(String pattern) {
+        int descriptorIndex = pattern.indexOf('(');
+        String namePattern = (descriptorIndex < 0) ? pattern : pattern.substring(0, descriptorIndex);
+        String descriptor = (descriptorIndex < 0) ? null : pattern.substring(descriptorIndex);
+
+        int methodNameIndex = namePattern.lastIndexOf('.');
+        if (methodNameIndex <= 0 || methodNameIndex == namePattern.length() - 1) {
+            Output.error("Invalid target method pattern: " + pattern);
+            return;
+        }
+
+        String typePattern = namePattern.substring(0, methodNameIndex);
+        boolean includeSubtypes = typePattern.endsWith("+");
+
+        if (includeSubtypes) {
+            typePattern = typePattern.substring(0, typePattern.length() - 1);
+            _hasSubtypePatterns = true;
+        }
+
+        if (descriptor != null && descriptor.equals("(*)")) {
+            descriptor = null;
+        }
+
+        TypeNode node = _root;
+
+        for (String name : typePattern.split("\\.")) {
+            if (name.equals("**")) {
+                if (node._anyNamesChild == null) {
+                    node._anyNamesChild = new TypeNode();
+                }
+
+                node = node._anyNamesChild;
+                continue;
+            }
+
+            Map<String, TypeNode> children = (name.indexOf('*') >= 0) ? node._patternChildren : node._children;
+            TypeNode child = children.get(name);
+
+            if (child == null) {
+                child = new TypeNode();
+                children.put(name, child);
+            }
+
+            node = child;
+        }
+
+        node._methodPatterns.add(new MethodPattern(namePattern.substring(methodNameIndex + 1), descriptor, includeSubtypes));
+        _numberOfPatterns++;
+
+        Output.debug(DEBUG, "Target pattern: " + pattern);
+    }
+
+    public boolean matches(IMethod method) {
+        if (_numberOfPatterns == 0) {
+            return false;
+        }
+
+        IClass declaringClass = method.getDeclaringClass();
+
+        if (matchesType(declaringClass, method, false)) {
+            return true;
+        }
+
+        if (!_hasSubtypePatterns) {
+            return false;
+        }
+
+        for (IClass superclass = declaringClass.getSuperclass(); superclass != null; superclass = superclass.getSuperclass()) {
+            if (matchesType(superclass, method, true)) {
+                return true;
+            }
+        }
+
+        try {
+            for (IClass implementedInterface : declaringClass.getAllImplementedInterfaces()) {
+                if (matchesType(implementedInterface, method, true)) {
+                    return true;
+                }
+            }
+        } catch (Exception e) {
+            // Interfaces of the class that are not in the class hierarchy
+            Output.debug(DEBUG, "Cannot get interfaces of " + declaringClass.getName() + ": " + e.toString());
+        }
+
+        return false;
+    }
+
+    //=========================================================================
+
+    private boolean matchesType(IClass klass, IMethod method, boolean subtype) {
+        String typeName = klass.getName().toString();
+
+        // Array types have no (targetable) methods of their own
+        if (!typeName.startsWith("L")) {
+            return false;
+        }
+
+        return matchesType(_root, typeName.substring(1).split("/"), 0, method, subtype);
+    }
+
+    private boolean matchesType(TypeNode node, String[] names, int index, IMethod method, boolean subtype) {
+        if (index == names.length) {
+            for (MethodPattern methodPattern : node._methodPatterns) {
+                if (methodPattern.matches(method, subtype)) {
+                    return true;
+                }
+            }
+        } else {
+            TypeNode child = node._children.get(names[index]);
+
+            if (child != null && matchesType(child, names, index + 1, method, subtype)) {
+                return true;
+            }
+
+            for (Map.Entry<String, TypeNode> patternChild : node._patternChildren.entrySet()) {
+                if (matchesWildcard(patternChild.getKey(), names[index]) && matchesType(patternChild.getValue(), names, index + 1, method, subtype)) {
+                    return true;
+                }
+            }
+        }
+
+        if (node._anyNamesChild != null) {
+            for (int nextIndex = index; nextIndex <= names.length; nextIndex++) {
+                if (matchesType(node._anyNamesChild, names, nextIndex, method, subtype)) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    // Whether the text matches the pattern, in which "*" matches any (possibly empty) sequence of characters
+    static private boolean matchesWildcard(String pattern, String text) {
+        int patternIndex = 0;
+        int textIndex = 0;
+        int starIndex = -1;
+        int starTextIndex = 0;
+
+        while (textIndex < text.length()) {
+            if (patternIndex < pattern.length() && pattern.charAt(patternIndex) == '*') {
+                starIndex = patternIndex++;
+                starTextIndex = textIndex;
+            } else if (patternIndex < pattern.length() && pattern.charAt(patternIndex) == text.charAt(textIndex)) {
+                patternIndex++;
+                textIndex++;
+            } else if (starIndex >= 0) {
+                patternIndex = starIndex + 1;
+                textIndex = ++starTextIndex;
+            } else {
+                return false;
+            }
+        }
+
+        while (patternIndex < pattern.length() && pattern.charAt(patternIndex) == '*') {
+            patternIndex++;
+        }
+
+        return patternIndex == pattern.length();
+    }
+}
@@ -16,20 +16,37 @@ import com.ibm.wala.util.collections.*;
 
 import java.util.*;
 import java.io.File;
-import java.io.PrintWriter;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.BufferedReader;
-
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.io.CountingOutputStream;
 import com.google.common.io.Files;
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonWriter;
 
 class TargetedPathsAnalysis {
-    private final String _frameworkZ3Dir = "../FrameworkAnalysis/z3output/";
+    private static final boolean DEBUG = false;
+
+    private final ConstraintDeduplication _constraintDeduplication = new ConstraintDeduplication();
+    private final ConstraintEmitter _constraintEmitter;
+
+    // Framework constraint files already written to the output directory
+    private final Set<String> _writtenFrameworkConstraints = new HashSet<String>();
 
     private final EntrypointAnalysis _entrypointAnalysis;
     private final ManifestAnalysis _manifestAnalysis;
@@ -37,42 +54,311 @@ class TargetedPathsAnalysis {
     private final CallGraphInfoListener _callGraphInfo;
     private final CallGraph _callGraph;
     private final PointerAnalysis _pointerAnalysis;
+    private final IntelliDroidAppAnalysis.Configuration _config;
+    private final Statistics _statistics;
+
+    private final Gson _gson = new Gson();
 
     int _callPathID = 0;
 
+    private final CallGraphReachability _reachability;
+    private final CallPathTrie _callPathTrie;
+    private final AtomicLong _pathSearchNodesVisited = new AtomicLong();
+    private final AtomicLong _widenedExpressions = new AtomicLong();
+    private final ConstraintSummaryCache _summaryCache;
+    private final ControlFlowFactsCache _controlFlowFactsCache = new ControlFlowFactsCache();
+    private Set<CGNode> _uiNotificationNodes = null;
+
+    // Target methods that each entrypoint node can reach (backward path search only)
+    private Map<CGNode, List<String>> _entrypointTargets = null;
+
+    // Keeps cached IR/DefUse strongly reachable while paths are analyzed in parallel
+    private final List<Object> _pinnedNodeData = new ArrayList<Object>();
+
     //=========================================================================
 
-    private class AndroidAppDFSPathFinder extends DFSPathFinder<CGNode> {
-        public AndroidAppDFSPathFinder(Graph<CGNode> G, java.util.Iterator<CGNode> nodes, Filter<CGNode> f) {
+    private interface CallPathFinder {
+        // Returns the next path to a target, ordered from the target back to the root
+        public List<CGNode> find();
+        public boolean hasNext();
+        public long getNodesVisited();
+    }
+
+    // Path finder that applies the path search budgets, and reports whether they cut the search short
+    private interface BudgetedCallPathFinder extends CallPathFinder {
+        public boolean isLengthExceeded();
+        public boolean isDeadlineExceeded();
+    }
+
+    private class AndroidAppDFSPathFinder extends DFSPathFinder<CGNode> implements CallPathFinder {
+        // App nodes that can reach one of the search targets; other successors are pruned
+        private final BitSet _reachingNodes;
+        private long _nodesVisited = 0;
+
+        public AndroidAppDFSPathFinder(Graph<CGNode> G, java.util.Iterator<CGNode> nodes, Filter<CGNode> f, BitSet reachingNodes) {
             super (G, nodes, f);
+            _reachingNodes = reachingNodes;
         }
 
-        public AndroidAppDFSPathFinder(Graph<CGNode> G, CGNode N, Filter<CGNode> f) {
+        public AndroidAppDFSPathFinder(Graph<CGNode> G, CGNode N, Filter<CGNode> f, BitSet reachingNodes) {
             super (G, N, f);
+            _reachingNodes = reachingNodes;
         }
 
         @Override
         protected Iterator<CGNode> getConnected(CGNode node) {
-            List<CGNode> appSuccNodes = new ArrayList<CGNode>();
-            Iterator<CGNode> succNodesIter = G.getSuccNodes(node);
+            _pathSearchNodesVisited.incrementAndGet();
+            _nodesVisited++;
+            return _reachability.getAppSuccNodes(node, _reachingNodes);
+        }
+
+        @Override
+        public long getNodesVisited() {
+            return _nodesVisited;
+        }
+    }
+
+    // Breadth-first search over app nodes, so that the shortest path to each target is found
+    // first.  Used when path search budgets are set; stops at the maximum path length (in
+    // nodes) and at the deadline.
+    private class AndroidAppBFSPathFinder implements BudgetedCallPathFinder {
+        private final Filter<CGNode> _filter;
+        private final BitSet _reachingNodes;
+        private final int _maxLength;
+        private final long _deadline;
+
+        private final Deque<CGNode> _queue = new ArrayDeque<CGNode>();
+        private final Map<CGNode, CGNode> _parentNodes = new HashMap<CGNode, CGNode>();
+        private final Map<CGNode, Integer> _pathLengths = new HashMap<CGNode, Integer>();
+
+        private boolean _lengthExceeded = false;
+        private boolean _deadlineExceeded = false;
+        private long _nodesVisited = 0;
+
+        public AndroidAppBFSPathFinder(CGNode rootNode, Filter<CGNode> filter, BitSet reachingNodes, int maxLength, long deadline) {
+            _filter = filter;
+            _reachingNodes = reachingNodes;
+            _maxLength = maxLength;
+            _deadline = deadline;
+
+            _queue.add(rootNode);
+            _parentNodes.put(rootNode, null);
+            _pathLengths.put(rootNode, 1);
+        }
+
+        @Override
+        public List<CGNode> find() {
+            while (!_queue.isEmpty()) {
+                if (_deadline > 0 && System.nanoTime() > _deadline) {
+                    _deadlineExceeded = true;
+                    _queue.clear();
+                    return null;
+                }
+
+                CGNode node = _queue.poll();
+                expand(node);
+
+                if (_filter.accepts(node)) {
+                    List<CGNode> path = new ArrayList<CGNode>();
+                    for (CGNode pathNode = node; pathNode != null; pathNode = _parentNodes.get(pathNode)) {
+                        path.add(pathNode);
+                    }
+
+                    return path;
+                }
+            }
+
+            return null;
+        }
+
+        private void expand(CGNode node) {
+            _pathSearchNodesVisited.incrementAndGet();
+            _nodesVisited++;
+
+            Iterator<CGNode> succNodesIter = _reachability.getAppSuccNodes(node, _reachingNodes);
+            int pathLength = _pathLengths.get(node);
+
+            if (_maxLength > 0 && pathLength >= _maxLength) {
+                if (succNodesIter.hasNext()) {
+                    _lengthExceeded = true;
+                }
+
+                return;
+            }
 
             while (succNodesIter.hasNext()) {
                 CGNode succNode = succNodesIter.next();
-                IClass succNodeClass = succNode.getMethod().getDeclaringClass();
 
-                if (succNodeClass.getClassLoader().getReference().equals(ClassLoaderReference.Application) && 
-                    !succNodeClass.getName().toString().startsWith("Landroid/support/v")) {
-                    appSuccNodes.add(succNode);
+                if (!_parentNodes.containsKey(succNode)) {
+                    _parentNodes.put(succNode, node);
+                    _pathLengths.put(succNode, pathLength + 1);
+                    _queue.add(succNode);
                 }
             }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !_queue.isEmpty();
+        }
 
-            return appSuccNodes.iterator();
+        @Override
+        public boolean isLengthExceeded() {
+            return _lengthExceeded;
+        }
+
+        @Override
+        public boolean isDeadlineExceeded() {
+            return _deadlineExceeded;
+        }
+
+        @Override
+        public long getNodesVisited() {
+            return _nodesVisited;
+        }
+    }
+
+    // Paths from the nodes invoking a target back to the root, over the app nodes that can reach
+    // a target (the search never enters the rest of the call graph).  A single search from the
+    // root records the predecessor of each node on a shortest path, and each path is then read
+    // off by following the predecessors back from an invoking node, so the subgraph is traversed
+    // once rather than once per invoking node.  Like the forward search, finds one path per
+    // invoking node.  The path search budgets apply as in the breadth-first search: the paths are
+    // returned shortest first, paths longer than the maximum length are dropped, and no further
+    // paths are returned after the deadline.
+    private class AndroidAppBackwardPathFinder implements BudgetedCallPathFinder {
+        private final CGNode _rootNode;
+        private final int[] _predNumbers;
+        private final int _maxLength;
+        private final long _deadline;
+        private final List<CGNode> _startNodes = new ArrayList<CGNode>();
+        private int _startIndex = 0;
+
+        private boolean _lengthExceeded = false;
+        private boolean _deadlineExceeded = false;
+        private long _nodesVisited = 0;
+
+        public AndroidAppBackwardPathFinder(CGNode rootNode, Set<CGNode> invokingNodes, BitSet reachingNodes, int maxLength, long deadline) {
+            _rootNode = rootNode;
+            _predNumbers = _reachability.getShortestPathTree(rootNode, reachingNodes);
+            _maxLength = maxLength;
+            _deadline = deadline;
+
+            final Map<CGNode, Integer> pathLengths = new HashMap<CGNode, Integer>();
+
+            // Collected in call graph order, so that paths are found in the same order on every run
+            for (int nodeNumber = 0; nodeNumber < _predNumbers.length; nodeNumber++) {
+                if (_predNumbers[nodeNumber] < 0) {
+                    continue;
+                }
+
+                _nodesVisited++;
+
+                CGNode node = _reachability.getNode(nodeNumber);
+                if (invokingNodes.contains(node)) {
+                    _startNodes.add(node);
+                    pathLengths.put(node, getPathLength(nodeNumber));
+                }
+            }
+
+            // Shortest paths first (the sort is stable, so equal lengths keep call graph order)
+            Collections.sort(_startNodes, new Comparator<CGNode>() {
+                @Override
+                public int compare(CGNode node, CGNode other) {
+                    return pathLengths.get(node).compareTo(pathLengths.get(other));
+                }
+            });
+
+            _pathSearchNodesVisited.addAndGet(_nodesVisited);
+        }
+
+        private int getPathLength(int nodeNumber) {
+            int pathLength = 1;
+
+            while (_predNumbers[nodeNumber] != nodeNumber) {
+                nodeNumber = _predNumbers[nodeNumber];
+                pathLength++;
+            }
+
+            return pathLength;
+        }
+
+        @Override
+        public List<CGNode> find() {
+            if (_startIndex >= _startNodes.size()) {
+                return null;
+            }
+
+            if (_deadline > 0 && System.nanoTime() > _deadline) {
+                _deadlineExceeded = true;
+                _startIndex = _startNodes.size();
+                return null;
+            }
+
+            List<CGNode> path = new ArrayList<CGNode>();
+            CGNode node = _startNodes.get(_startIndex++);
+            path.add(node);
+
+            while (!node.equals(_rootNode)) {
+                node = _reachability.getNode(_predNumbers[_reachability.getNodeNumber(node)]);
+                path.add(node);
+            }
+
+            // The remaining paths are at least as long
+            if (_maxLength > 0 && path.size() > _maxLength) {
+                _lengthExceeded = true;
+                _startIndex = _startNodes.size();
+                return null;
+            }
+
+            return path;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return _startIndex < _startNodes.size();
+        }
+
+        @Override
+        public boolean isLengthExceeded() {
+            return _lengthExceeded;
+        }
+
+        @Override
+        public boolean isDeadlineExceeded() {
+            return _deadlineExceeded;
+        }
+
+        @Override
+        public long getNodesVisited() {
+            return _nodesVisited;
+        }
+    }
+
+    // Constraints and event chain computed for a call path; path IDs and files are assigned afterwards
+    private class TargetedPathResult {
+        private final CallPath _callPath;
+        private final Predicate _constraints;
+        private final LinkedHashMap<CallPath, Predicate> _eventChain;
+        private final String _constraintOutput;
+        private final String _eventChainOutput;
+        private Statistics.PathMetrics _metrics = null;
+
+        public TargetedPathResult(CallPath callPath, Predicate constraints, LinkedHashMap<CallPath, Predicate> eventChain, String constraintOutput, String eventChainOutput) {
+            _callPath = callPath;
+            _constraints = constraints;
+            _eventChain = eventChain;
+            _constraintOutput = constraintOutput;
+            _eventChainOutput = eventChainOutput;
         }
     }
 
     //=========================================================================
 
-    public TargetedPathsAnalysis(EntrypointAnalysis entrypointAnalysis, ManifestAnalysis manifestAnalysis, UIActivityMapping uiActivityAnalysis, CallGraphInfoListener callGraphInfo) {
+    public TargetedPathsAnalysis(EntrypointAnalysis entrypointAnalysis, ManifestAnalysis manifestAnalysis, UIActivityMapping uiActivityAnalysis, CallGraphInfoListener callGraphInfo, IntelliDroidAppAnalysis.Configuration config, Statistics statistics) {
+        _config = config;
+        _statistics = statistics;
+
         _entrypointAnalysis = entrypointAnalysis;
         _callGraph = entrypointAnalysis.getCallGraph();
         _pointerAnalysis = entrypointAnalysis.getPointerAnalysis();
@@ -80,151 +366,393 @@ class TargetedPathsAnalysis {
         _manifestAnalysis = manifestAnalysis;
         _uiActivityAnalysis = uiActivityAnalysis;
         _callGraphInfo = callGraphInfo;
+
+        _reachability = new CallGraphReachability(_callGraph);
+        _callPathTrie = new CallPathTrie(_callGraph);
+        _summaryCache = (config.ConstraintSummaryCacheSize > 0) ? new ConstraintSummaryCache(config.ConstraintSummaryCacheSize) : null;
+
+        if (config.ConstraintOutputFormat == IntelliDroidAppAnalysis.ConstraintFormat.SMTLIB2) {
+            _constraintEmitter = new SmtLib2ConstraintEmitter();
+        } else {
+            _constraintEmitter = new PythonConstraintEmitter();
+        }
     }
 
-    public void analyze() {
-        JsonObject targetedPathsJson = new JsonObject();
+    // Fails (rather than continuing without output) if appInfo.json cannot be written
+    public void analyze() throws IOException {
+        // Call paths are written to appInfo.json as they are analyzed, rather than at the end
+        JsonWriter appInfoWriter = startAppInfo();
 
-        Collection<IMethod> entrypoints = _entrypointAnalysis.getEntrypoints();
+        List<IMethod> entrypoints = new ArrayList<IMethod>(_entrypointAnalysis.getEntrypoints());
+        if (_config.BackwardPathSearch) {
+            entrypoints = getTargetReachingEntrypoints(entrypoints);
+        }
 
-        for (IMethod entrypoint : entrypoints) {
-            LinkedHashMap<Integer, JsonObject> entrypointPathsJsonMap = analyzePathsFromEntrypoint(entrypoint);
+        analyzeEntrypoints(entrypoints, appInfoWriter);
 
-            if (entrypointPathsJsonMap != null && !entrypointPathsJsonMap.isEmpty()) {
-                for (Map.Entry<Integer, JsonObject> entrypointPathsEntry : entrypointPathsJsonMap.entrySet()) {
-                    Integer callPathID = entrypointPathsEntry.getKey();
-                    JsonObject entrypointPathJson = entrypointPathsEntry.getValue();
-                    targetedPathsJson.add(callPathID.toString(), entrypointPathJson);
-                }
+        _statistics.setPathSearchNodesVisited(_pathSearchNodesVisited.get());
+        _statistics.setWidenedExpressions(_widenedExpressions.get());
+
+        _controlFlowFactsCache.printStatistics();
+
+        if (_summaryCache != null) {
+            _summaryCache.printStatistics();
+            _statistics.setConstraintSummaryCacheStats(_summaryCache.getHits(), _summaryCache.getMisses());
+        }
+
+        endAppInfo(appInfoWriter);
+    }
+
+    private void analyzeEntrypoints(List<IMethod> entrypoints, JsonWriter appInfoWriter) {
+        int threads = _config.Threads;
+
+        long startTime = System.nanoTime();
+
+        if (threads <= 1) {
+            for (IMethod entrypoint : entrypoints) {
+                Statistics.EntrypointMetrics entrypointMetrics = _statistics.addEntrypoint(entrypoint.getSignature());
+                writeTargetedPaths(analyzePathsFromEntrypoint(entrypoint, entrypointMetrics, false), entrypointMetrics, appInfoWriter);
+            }
+
+        } else {
+            prepareParallelAnalysis();
+
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            List<ForkJoinTask<List<TargetedPathResult>>> entrypointTasks = new ArrayList<ForkJoinTask<List<TargetedPathResult>>>();
+            List<Statistics.EntrypointMetrics> entrypointMetricsList = new ArrayList<Statistics.EntrypointMetrics>();
+
+            for (final IMethod entrypoint : entrypoints) {
+                final Statistics.EntrypointMetrics entrypointMetrics = _statistics.addEntrypoint(entrypoint.getSignature());
+                entrypointMetricsList.add(entrypointMetrics);
+
+                entrypointTasks.add(pool.submit(new RecursiveTask<List<TargetedPathResult>>() {
+                    @Override
+                    protected List<TargetedPathResult> compute() {
+                        return analyzePathsFromEntrypoint(entrypoint, entrypointMetrics, true);
+                    }
+                }));
+            }
+
+            // Path IDs are assigned in entrypoint order so that the output does not depend on the thread count
+            for (int i = 0; i < entrypointTasks.size(); i++) {
+                writeTargetedPaths(entrypointTasks.get(i).join(), entrypointMetricsList.get(i), appInfoWriter);
             }
+
+            pool.shutdown();
+            _pinnedNodeData.clear();
         }
 
-        // Print call path and constraint information
-        JsonObject appInfoJson = new JsonObject();
-        appInfoJson.addProperty("packageName", _manifestAnalysis.getPackageName());
-        appInfoJson.addProperty("mainActivity", _manifestAnalysis.getMainActivityName());
-        appInfoJson.add("callPaths", targetedPathsJson);
+        _statistics.setPathAnalysisTime(threads, System.nanoTime() - startTime);
+    }
 
+    //=========================================================================
+
+    private JsonWriter startAppInfo() throws IOException {
         String appInfoFileName = "appInfo.json";
 
+        FileOutputStream appInfoStream = new FileOutputStream(_config.OutputDirectory + "/" + appInfoFileName);
+        JsonWriter appInfoWriter = new JsonWriter(new BufferedWriter(Channels.newWriter(appInfoStream.getChannel(), "UTF-8")));
+
         try {
-            Gson gson = new GsonBuilder().setPrettyPrinting().create();
-            PrintWriter appInfoWriter = new PrintWriter(IntelliDroidAppAnalysis.Config.OutputDirectory + "/" + appInfoFileName, "UTF-8");
-            appInfoWriter.print(gson.toJson(appInfoJson));
+            // Same format as Gson's (pretty-printed) output
+            appInfoWriter.setHtmlSafe(true);
+            if (!_config.CompactOutput) {
+                appInfoWriter.setIndent("  ");
+            }
+
+            appInfoWriter.beginObject();
+            appInfoWriter.name("packageName").value(_manifestAnalysis.getPackageName());
+            appInfoWriter.name("mainActivity").value(_manifestAnalysis.getMainActivityName());
+            appInfoWriter.name("callPaths");
+            appInfoWriter.beginObject();
+
+            return appInfoWriter;
+
+        } catch (IOException e) {
             appInfoWriter.close();
+            throw e;
+        }
+    }
+
+    private void writeTargetedPaths(List<TargetedPathResult> pathResults, Statistics.EntrypointMetrics entrypointMetrics, JsonWriter appInfoWriter) {
+        if (pathResults == null) {
+            return;
+        }
+
+        for (TargetedPathResult pathResult : pathResults) {
+            if (pathResult != null && pathResult._metrics != null) {
+                entrypointMetrics.addPath(pathResult._metrics);
+            }
+
+            try {
+                JsonObject targetedPathJson = writeTargetedPath(pathResult, _callPathID);
+
+                if (targetedPathJson != null) {
+                    appInfoWriter.name(Integer.toString(_callPathID));
+                    _gson.toJson(targetedPathJson, appInfoWriter);
+
+                    _callPathID++;
+                }
+
+            } catch (Exception e) {
+                System.err.println("Exception: " + e.toString());
+                e.printStackTrace();
+            }
+        }
+
+        try {
+            appInfoWriter.flush();
         } catch (Exception e) {
             System.err.println("Exception: " + e.toString());
             e.printStackTrace();
         }
     }
 
-    private LinkedHashMap<Integer, JsonObject> analyzePathsFromEntrypoint(IMethod entrypoint) {
+    private void endAppInfo(JsonWriter appInfoWriter) throws IOException {
+        try {
+            appInfoWriter.endObject();
+            appInfoWriter.endObject();
+        } finally {
+            appInfoWriter.close();
+        }
+    }
+
+    //=========================================================================
+
+    private List<TargetedPathResult> analyzePathsFromEntrypoint(IMethod entrypoint, Statistics.EntrypointMetrics entrypointMetrics, boolean parallel) {
+        long startTime = System.nanoTime();
+
         Set<CGNode> entrypointNodes = _callGraph.getNodes(entrypoint.getReference());
         if (entrypointNodes.isEmpty()) {
             return null;
         }
 
         CGNode entrypointNode = entrypointNodes.iterator().next();
-        Set<CallPath> callPaths = findCallPathsToMethods(entrypointNode);
+        Set<CallPath> callPaths = findCallPathsToMethods(entrypointNode, entrypointMetrics);
 
-        LinkedHashMap<Integer, JsonObject> entrypointPathsJsonMap = new LinkedHashMap<Integer, JsonObject>();
+        _statistics.addPathTaskTime(System.nanoTime() - startTime);
 
-        for (CallPath callPath : callPaths) {
-            try {
-                JsonObject targetedPathJson = analyzeTargetedPath(callPath, _callPathID);
+        List<TargetedPathResult> pathResults = new ArrayList<TargetedPathResult>();
 
-                if (targetedPathJson != null) {
-                    entrypointPathsJsonMap.put(_callPathID, targetedPathJson);
-                    _callPathID++;
+        if (!parallel) {
+            for (CallPath callPath : callPaths) {
+                pathResults.add(analyzeTargetedPathTimed(callPath));
+            }
+
+            return pathResults;
+        }
+
+        List<RecursiveTask<TargetedPathResult>> pathTasks = new ArrayList<RecursiveTask<TargetedPathResult>>();
+
+        for (final CallPath callPath : callPaths) {
+            RecursiveTask<TargetedPathResult> pathTask = new RecursiveTask<TargetedPathResult>() {
+                @Override
+                protected TargetedPathResult compute() {
+                    return analyzeTargetedPathTimed(callPath);
                 }
+            };
 
-            } catch (Exception e) {
-                System.err.println("Exception: " + e.toString());
-                e.printStackTrace();
-            }
+            pathTask.fork();
+            pathTasks.add(pathTask);
         }
 
-        return entrypointPathsJsonMap;
+        for (RecursiveTask<TargetedPathResult> pathTask : pathTasks) {
+            pathResults.add(pathTask.join());
+        }
+
+        return pathResults;
+    }
+
+    // Path search from an entrypoint, without analyzing the constraints of the paths (for the benchmarks)
+    Set<CallPath> findCallPathsFromEntrypoint(IMethod entrypoint) {
+        Set<CGNode> entrypointNodes = _callGraph.getNodes(entrypoint.getReference());
+        if (entrypointNodes.isEmpty()) {
+            return Collections.emptySet();
+        }
+
+        return findCallPathsToMethods(entrypointNodes.iterator().next(), new Statistics.EntrypointMetrics(entrypoint.getSignature()));
+    }
+
+    // Minimized constraints of a path, without its event chain (for the benchmarks)
+    Predicate analyzePathConstraints(CallPath callPath) {
+        ConstraintAnalysis constraintAnalyzer = analyzeConstraints(callPath);
+        return ConstraintMinimization.minimize(constraintAnalyzer.getConstraints(), _statistics);
+    }
+
+    private TargetedPathResult analyzeTargetedPathTimed(CallPath callPath) {
+        long startTime = System.nanoTime();
+        TargetedPathResult pathResult = null;
+
+        try {
+            pathResult = analyzeTargetedPath(callPath);
+        } catch (Exception e) {
+            System.err.println("Exception: " + e.toString());
+            e.printStackTrace();
+        }
+
+        long analysisTime = System.nanoTime() - startTime;
+        _statistics.addPathTaskTime(analysisTime);
+
+        if (pathResult != null && _statistics.isEnabled()) {
+            Predicate constraints = pathResult._constraints;
+            long constraintNodes = (constraints == null) ? 0 : ConstraintMinimization.countNodes(constraints);
+            boolean feasible = (constraints == null || !constraints.isFalse());
+
+            pathResult._metrics = new Statistics.PathMetrics(callPath.getTargetCallSite().getDeclaredTarget().getSignature(), analysisTime, constraintNodes, feasible);
+        }
+
+        return pathResult;
+    }
+
+    // WALA's IR and class hierarchy caches are not thread-safe, so populate them (and keep the IRs
+    // strongly reachable) before the paths are analyzed concurrently.
+    private void prepareParallelAnalysis() {
+        IClassHierarchy cha = _callGraph.getClassHierarchy();
+
+        for (CGNode node : _callGraph) {
+            IR ir = node.getIR();
+            if (ir == null) {
+                continue;
+            }
+
+            _pinnedNodeData.add(ir);
+            _pinnedNodeData.add(node.getDU());
+
+            for (SSAInstruction instr : ir.getInstructions()) {
+                if (instr instanceof SSAAbstractInvokeInstruction) {
+                    cha.resolveMethod(((SSAAbstractInvokeInstruction)instr).getDeclaredTarget());
+                } else if (instr instanceof SSAFieldAccessInstruction) {
+                    cha.resolveField(((SSAFieldAccessInstruction)instr).getDeclaredField());
+                }
+            }
+        }
     }
 
     //=========================================================================
 
-    private JsonObject analyzeTargetedPath(CallPath callPath, int callPathID) {
-        // Extract constraints that govern path's execution
-        ConstraintAnalysis constraintAnalyzer = new ConstraintAnalysis(callPath);
-        Predicate constraints = constraintAnalyzer.getConstraints();
-        ConstraintMinimization.minimize(constraints);
+    private ConstraintAnalysis analyzeConstraints(CallPath callPath) {
+        ConstraintAnalysis constraintAnalysis = new ConstraintAnalysis(callPath, _summaryCache, _controlFlowFactsCache, _config.MaxExpressionAlternatives);
+        _widenedExpressions.addAndGet(constraintAnalysis.getWidenedExpressions());
+
+        return constraintAnalysis;
+    }
+
+    private TargetedPathResult analyzeTargetedPath(CallPath callPath) {
+        // The captures are always ended, so that a failing path does not leave its buffer on
+        // the thread and swallow the output of the paths analyzed after it
+        ConstraintAnalysis constraintAnalyzer = null;
+        Predicate constraints = null;
+        String constraintOutput = null;
 
-        if (IntelliDroidAppAnalysis.Config.PrintOutput) {
-            printCallPath(callPathID, callPath, constraints);
+        Output.startCapture();
+        try {
+            // Extract constraints that govern path's execution
+            constraintAnalyzer = analyzeConstraints(callPath);
+            constraints = constraintAnalyzer.getConstraints();
+            constraints = ConstraintMinimization.minimize(constraints, _statistics);
+        } finally {
+            constraintOutput = Output.endCapture();
         }
 
         if (constraints != null && constraints.isFalse()) {
             // If path not feasible, do not include it
-            return null;
+            return new TargetedPathResult(callPath, constraints, null, constraintOutput, "");
         }
 
-        // Create event chain to handle dependent paths
-        LinkedHashMap<CallPath, Predicate> eventChain = new LinkedHashMap<CallPath, Predicate>();
-        eventChain.put(callPath, constraints);
+        LinkedHashMap<CallPath, Predicate> eventChain = null;
+        String eventChainOutput = null;
+
+        Output.startCapture();
+        try {
+            // Create event chain to handle dependent paths
+            eventChain = new LinkedHashMap<CallPath, Predicate>();
+            eventChain.put(callPath, constraints);
 
-        // Check for heap dependencies
-        Map<PointerKey, Predicate> heapDependencies = constraintAnalyzer.getHeapDependencies();
+            // Check for heap dependencies
+            Map<PointerKey, Predicate> heapDependencies = constraintAnalyzer.getHeapDependencies();
 
-        if (heapDependencies != null) {
-            for (PointerKey pKey : heapDependencies.keySet()) {
-                Predicate heapConstraint = Predicate.duplicate(heapDependencies.get(pKey));
-                String pKeyName = constraintAnalyzer.getPointerKeyName(pKey);
-                LinkedHashMap<CallPath, Predicate> heapConstraintChain = analyzeHeapConstraint(pKey, pKeyName, heapConstraint);
+            if (heapDependencies != null) {
+                for (PointerKey pKey : heapDependencies.keySet()) {
+                    Predicate heapConstraint = heapDependencies.get(pKey);
+                    String pKeyName = constraintAnalyzer.getPointerKeyName(pKey);
+                    LinkedHashMap<CallPath, Predicate> heapConstraintChain = analyzeHeapConstraint(pKey, pKeyName, heapConstraint);
 
-                if (heapConstraintChain != null && !heapConstraintChain.isEmpty()) {
-                    eventChain.putAll(heapConstraintChain);
+                    if (heapConstraintChain != null && !heapConstraintChain.isEmpty()) {
+                        eventChain.putAll(heapConstraintChain);
+                    }
                 }
-            }
-        } 
+            } 
 
-        // Check for dependencies on SharedPreferences (specific case of file dependencies)
-        Map<String, Expression> sharedPrefDependencies = constraintAnalyzer.getSharedPrefDependencies();
-        if (sharedPrefDependencies != null) {
-            for (String key : sharedPrefDependencies.keySet()) {
-                Expression sharedPrefExpression = sharedPrefDependencies.get(key);
-                LinkedHashMap<CallPath, Predicate> sharedPrefConstraintChain = analyzeSharedPrefConstraint(key, sharedPrefExpression);
+            // Check for dependencies on SharedPreferences (specific case of file dependencies)
+            Map<String, Expression> sharedPrefDependencies = constraintAnalyzer.getSharedPrefDependencies();
+            if (sharedPrefDependencies != null) {
+                for (String key : sharedPrefDependencies.keySet()) {
+                    Expression sharedPrefExpression = sharedPrefDependencies.get(key);
+                    LinkedHashMap<CallPath, Predicate> sharedPrefConstraintChain = analyzeSharedPrefConstraint(key, sharedPrefExpression);
 
-                if (sharedPrefConstraintChain != null && !sharedPrefConstraintChain.isEmpty()) {
-                    eventChain.putAll(sharedPrefConstraintChain);
+                    if (sharedPrefConstraintChain != null && !sharedPrefConstraintChain.isEmpty()) {
+                        eventChain.putAll(sharedPrefConstraintChain);
+                    }
                 }
             }
-        }
 
-        // Check for IPC dependencies
-        MethodReference entrypointMethod = _entrypointAnalysis.getOverriddenFrameworkMethod(callPath.getPath().get(0).getMethod());
-        String entrypointType = getCallbackType(entrypointMethod);
+            // Check for IPC dependencies
+            MethodReference entrypointMethod = _entrypointAnalysis.getOverriddenFrameworkMethod(callPath.getStartNode().getMethod());
+            String entrypointType = getCallbackType(entrypointMethod);
 
-        if (!entrypointType.equals("activity") && !entrypointType.equals("service")) {
-            LinkedHashMap<CallPath, Predicate> ipcConstraintChain = analyzeIPCConstraints(callPath.getPath().get(0));
-            if (ipcConstraintChain != null && !ipcConstraintChain.isEmpty()) {
-                eventChain.putAll(ipcConstraintChain);
+            if (!entrypointType.equals("activity") && !entrypointType.equals("service")) {
+                LinkedHashMap<CallPath, Predicate> ipcConstraintChain = analyzeIPCConstraints(callPath.getStartNode());
+                if (ipcConstraintChain != null && !ipcConstraintChain.isEmpty()) {
+                    eventChain.putAll(ipcConstraintChain);
+                }
             }
-        }
 
-        if (IntelliDroidAppAnalysis.Config.PrintOutput) {
-            if (entrypointType.equals("ui")) {
-                Set<TypeReference> uiActivities = _uiActivityAnalysis.getActivityForUIHandler(callPath.getPath().get(0).getMethod(), entrypointMethod);
-                for (TypeReference uiActivity : uiActivities) {
-                    Output.printPathInfo("    < UI activity >: " + uiActivity.getName());
+            if (_config.PrintOutput) {
+                if (entrypointType.equals("ui")) {
+                    Set<TypeReference> uiActivities = _uiActivityAnalysis.getActivityForUIHandler(callPath.getStartNode().getMethod(), entrypointMethod);
+                    for (TypeReference uiActivity : uiActivities) {
+                        Output.printPathInfo(_config, "    < UI activity >: " + uiActivity.getName());
+                    }
                 }
             }
+        } finally {
+            eventChainOutput = Output.endCapture();
+        }
+
+        return new TargetedPathResult(callPath, constraints, eventChain, constraintOutput, eventChainOutput);
+    }
+
+    private JsonObject writeTargetedPath(TargetedPathResult pathResult, int callPathID) {
+        if (pathResult == null) {
+            return null;
+        }
+
+        CallPath callPath = pathResult._callPath;
+        Output.flush(pathResult._constraintOutput);
+
+        if (_config.PrintOutput) {
+            printCallPath(callPathID, callPath, pathResult._constraints);
+        }
+
+        if (pathResult._eventChain == null) {
+            return null;
+        }
+
+        if (pathResult._metrics != null) {
+            pathResult._metrics.setCallPathID(callPathID);
         }
 
+        Output.flush(pathResult._eventChainOutput);
+
         // Create JSON object to store information about event chain
         JsonObject targetedPathJson = new JsonObject();
-        targetedPathJson.addProperty("startMethod", callPath.getPath().get(0).getMethod().getSignature());
+        targetedPathJson.addProperty("startMethod", callPath.getStartNode().getMethod().getSignature());
         targetedPathJson.addProperty("targetMethod", callPath.getTargetCallSite().getDeclaredTarget().getSignature());
 
         JsonArray eventChainJsonArray = new JsonArray();
         int z3FileNameID = 0;
 
-        List<Map.Entry<CallPath, Predicate>> eventChainEntries = new ArrayList<Map.Entry<CallPath, Predicate>>(eventChain.entrySet());
+        List<Map.Entry<CallPath, Predicate>> eventChainEntries = new ArrayList<Map.Entry<CallPath, Predicate>>(pathResult._eventChain.entrySet());
         Collections.reverse(eventChainEntries);
 
         for (Map.Entry<CallPath, Predicate> eventChainEntry : eventChainEntries) {
@@ -234,11 +762,11 @@ class TargetedPathsAnalysis {
             String z3ConstraintsFileName = null;
 
             if (eventChainPathConstraints != null) {
-                z3ConstraintsFileName = "constraints" + callPathID + "_" + z3FileNameID + ".py";
+                z3ConstraintsFileName = "constraints" + callPathID + "_" + z3FileNameID + _constraintEmitter.getFileExtension();
                 z3FileNameID++;
             }
 
-            JsonObject eventChainPathJson = writePathAndZ3Constraints(eventChainPath, eventChainPathConstraints, z3ConstraintsFileName);
+            JsonObject eventChainPathJson = writePathAndZ3Constraints(eventChainPath, eventChainPathConstraints, z3ConstraintsFileName, pathResult._metrics);
             eventChainJsonArray.add(eventChainPathJson);
         }
 
@@ -263,29 +791,29 @@ class TargetedPathsAnalysis {
             return null;
         }
 
-        ConstraintAnalysis storeConstraintAnalysis = new ConstraintAnalysis(storeCallPath);
+        ConstraintAnalysis storeConstraintAnalysis = analyzeConstraints(storeCallPath);
         Predicate storeConstraints = storeConstraintAnalysis.getConstraints();
 
         if (storeConstraintAnalysis.getDataForPointerKey(pKey) != null) {
             if (storeConstraints != null) {
-                storeConstraints = new Predicate(Predicate.Operator.AND, heapConstraint, storeConstraints);
+                storeConstraints = Predicate.make(Predicate.Operator.AND, heapConstraint, storeConstraints);
             } else {
                 storeConstraints = heapConstraint;
             }
 
-            //Predicate pKeyNameConstraint = new Predicate(new Expression(Expression.Operator.EQ, new Expression(pKeyName, TypeReference.Int), storeConstraintAnalysis.getDataForPointerKey(pKey)));
-            Predicate pKeyNameConstraint = ExpressionGroup.combine(Expression.Operator.EQ, new Expression(pKeyName, TypeReference.Int), storeConstraintAnalysis.getDataForPointerKey(pKey)).toPredicate();
+            //Predicate pKeyNameConstraint = Predicate.make(Expression.make(Expression.Operator.EQ, Expression.make(pKeyName, TypeReference.Int), storeConstraintAnalysis.getDataForPointerKey(pKey)));
+            Predicate pKeyNameConstraint = ExpressionGroup.combine(Expression.Operator.EQ, Expression.make(pKeyName, TypeReference.Int), storeConstraintAnalysis.getDataForPointerKey(pKey)).toPredicate();
 
             if (storeConstraints != null && pKeyNameConstraint != null) {
-                storeConstraints = new Predicate(Predicate.Operator.AND, storeConstraints, pKeyNameConstraint);
+                storeConstraints = Predicate.make(Predicate.Operator.AND, storeConstraints, pKeyNameConstraint);
             } else {
                 storeConstraints = pKeyNameConstraint;
             }
         }
 
-        ConstraintMinimization.minimize(storeConstraints);
+        storeConstraints = ConstraintMinimization.minimize(storeConstraints, _statistics);
 
-        if (IntelliDroidAppAnalysis.Config.PrintOutput) {
+        if (_config.PrintOutput) {
             printHeapPath(storeCallPath, storeConstraints, pKey);
         }
 
@@ -313,13 +841,13 @@ class TargetedPathsAnalysis {
                 return null;
             }
 
-            ConstraintAnalysis storeConstraintAnalysis = new ConstraintAnalysis(storeCallPath);
+            ConstraintAnalysis storeConstraintAnalysis = analyzeConstraints(storeCallPath);
             Predicate storeConstraints = storeConstraintAnalysis.getConstraints();
-            ConstraintMinimization.minimize(storeConstraints);
+            storeConstraints = ConstraintMinimization.minimize(storeConstraints, _statistics);
 
             //storeConstraints = Predicate.combine(Predicate.Operator.AND, sharedPrefConstraint, storeConstraints);
 
-            if (IntelliDroidAppAnalysis.Config.PrintOutput) {
+            if (_config.PrintOutput) {
                 printSharedPrefPath(storeCallPath, storeConstraints, key);
             }
 
@@ -334,21 +862,21 @@ class TargetedPathsAnalysis {
             List<CGNode> uiNodePath = new ArrayList<CGNode>();
             uiNodePath.add(_callGraphInfo.getSharedPrefUIStore(key));
 
-            CallPath uiCallPath = new CallPath(uiNodePath, -1, _callGraph, _pointerAnalysis);
+            CallPath uiCallPath = new CallPath(uiNodePath, -1, _callPathTrie, _pointerAnalysis);
 
-            Predicate uiConstraint = new Predicate(new Expression(Expression.Operator.EQ, new Expression("SharedPreferences<" + key + ">", TypeReference.JavaLangString), new Expression("<UI>", TypeReference.JavaLangString)));
+            Predicate uiConstraint = Predicate.make(Expression.make(Expression.Operator.EQ, Expression.make("SharedPreferences<" + key + ">", TypeReference.JavaLangString), Expression.make("<UI>", TypeReference.JavaLangString)));
             sharedPrefConstraintChain.put(uiCallPath, uiConstraint);
             
-            Output.printPathInfo("    " + _callGraphInfo.getSharedPrefUIStore(key));
+            Output.printPathInfo(_config, "    " + _callGraphInfo.getSharedPrefUIStore(key));
 
             //if (_printConstraints) {
             //    uiConstraint.printExpression(1);
             //}
-            Output.printConstraints(uiConstraint);
+            Output.printConstraints(_config, uiConstraint);
         }
 
         if (sharedPrefConstraintChain.isEmpty()) {
-            Output.printPathInfo("    < no code path to SharedPreferences store >");
+            Output.printPathInfo(_config, "    < no code path to SharedPreferences store >");
         }
 
         return sharedPrefConstraintChain;
@@ -428,10 +956,10 @@ class TargetedPathsAnalysis {
                         continue;
                     }
 
-                    ConstraintAnalysis ipcConstraintAnalysis = new ConstraintAnalysis(ipcCallPath);
+                    ConstraintAnalysis ipcConstraintAnalysis = analyzeConstraints(ipcCallPath);
                     Predicate ipcConstraints = ipcConstraintAnalysis.getConstraints();
 
-                    if (IntelliDroidAppAnalysis.Config.PrintOutput) {
+                    if (_config.PrintOutput) {
                         printCallbackRegistrationPath(ipcCallPath, ipcConstraints, appCallbackClass);
                     }
 
@@ -446,12 +974,87 @@ class TargetedPathsAnalysis {
 
     //=========================================================================
 
-    private Set<CallPath> findCallPathsToMethods(final CGNode rootNode) {
-        Set<CallPath> callPaths = new HashSet<CallPath>();
+    // Entrypoints from which at least one target method can be reached (the others have no paths)
+    private List<IMethod> getTargetReachingEntrypoints(List<IMethod> entrypoints) {
+        List<IMethod> reachingEntrypoints = new ArrayList<IMethod>();
+
+        for (IMethod entrypoint : entrypoints) {
+            Set<CGNode> entrypointNodes = _callGraph.getNodes(entrypoint.getReference());
+            if (!entrypointNodes.isEmpty() && !getSearchTargets(entrypointNodes.iterator().next()).isEmpty()) {
+                reachingEntrypoints.add(entrypoint);
+            }
+        }
+
+        Output.debug(DEBUG, "Skipping " + (entrypoints.size() - reachingEntrypoints.size()) + " of " + entrypoints.size() + " entrypoints that cannot reach a target");
+        return reachingEntrypoints;
+    }
+
+    // Target methods to search for from the root node: all of them, or for the backward search,
+    // only those that the root can reach
+    private Collection<String> getSearchTargets(CGNode rootNode) {
+        if (!_config.BackwardPathSearch) {
+            return _callGraphInfo.getTargetMethods();
+        }
+
+        List<String> targetMethods = getEntrypointTargets().get(rootNode);
+        if (targetMethods == null) {
+            // Not an entrypoint; fall back to checking each target
+            targetMethods = new ArrayList<String>();
+
+            for (String targetMethod : _callGraphInfo.getTargetMethods()) {
+                Set<CGNode> invokingNodes = _callGraphInfo.getTargetMethodInvokingNodes(targetMethod);
+                if (invokingNodes.contains(rootNode) || _reachability.canReach(rootNode, _reachability.getNodesReaching(invokingNodes))) {
+                    targetMethods.add(targetMethod);
+                }
+            }
+        }
+
+        return targetMethods;
+    }
+
+    // Computed once for all entrypoints: one backward reachability pass per target method
+    private synchronized Map<CGNode, List<String>> getEntrypointTargets() {
+        if (_entrypointTargets != null) {
+            return _entrypointTargets;
+        }
+
+        List<CGNode> entrypointNodes = new ArrayList<CGNode>();
+        for (IMethod entrypoint : _entrypointAnalysis.getEntrypoints()) {
+            Set<CGNode> nodes = _callGraph.getNodes(entrypoint.getReference());
+            if (!nodes.isEmpty()) {
+                entrypointNodes.add(nodes.iterator().next());
+            }
+        }
+
+        Map<CGNode, List<String>> entrypointTargets = new HashMap<CGNode, List<String>>();
+        for (CGNode entrypointNode : entrypointNodes) {
+            entrypointTargets.put(entrypointNode, new ArrayList<String>());
+        }
+
+        for (String targetMethod : _callGraphInfo.getTargetMethods()) {
+            Set<CGNode> invokingNodes = _callGraphInfo.getTargetMethodInvokingNodes(targetMethod);
+            BitSet reachingNodes = _reachability.getNodesReaching(invokingNodes);
+
+            for (CGNode entrypointNode : entrypointNodes) {
+                if (invokingNodes.contains(entrypointNode) || _reachability.canReach(entrypointNode, reachingNodes)) {
+                    entrypointTargets.get(entrypointNode).add(targetMethod);
+                }
+            }
+        }
+
+        _entrypointTargets = entrypointTargets;
+        return _entrypointTargets;
+    }
+
+    private Set<CallPath> findCallPathsToMethods(final CGNode rootNode, Statistics.EntrypointMetrics entrypointMetrics) {
+        long startTime = System.nanoTime();
+        long nodesVisited = 0;
+
+        Set<CallPath> callPaths = new LinkedHashSet<CallPath>();
         final IClassHierarchy cha = _callGraph.getClassHierarchy();
         final HeapModel heapModel = _pointerAnalysis.getHeapModel();
 
-        for (String targetMethod : _callGraphInfo.getTargetMethods()) {
+        for (String targetMethod : getSearchTargets(rootNode)) {
             final Set<CGNode> invokingNodes = _callGraphInfo.getTargetMethodInvokingNodes(targetMethod);
 
             Filter<CGNode> targetMethodFilter = new Filter<CGNode>() {
@@ -470,8 +1073,29 @@ class TargetedPathsAnalysis {
                 }
             };
 
-            DFSPathFinder<CGNode> pathFinder = new AndroidAppDFSPathFinder(_callGraph, rootNode, targetMethodFilter);
+            BitSet reachingNodes = _reachability.getNodesReaching(invokingNodes);
+            if (!invokingNodes.contains(rootNode) && !_reachability.canReach(rootNode, reachingNodes)) {
+                continue;
+            }
+
+            int maxPaths = _config.MaxPathsPerTarget;
+            int maxLength = _config.MaxPathLength;
+            long timeout = _config.PathSearchTimeout;
+            CallPathFinder pathFinder = null;
+
+            long deadline = timeout > 0 ? System.nanoTime() + timeout * 1000000 : 0;
+
+            if (_config.BackwardPathSearch) {
+                pathFinder = new AndroidAppBackwardPathFinder(rootNode, invokingNodes, reachingNodes, maxLength, deadline);
+            } else if (maxPaths > 0 || maxLength > 0 || timeout > 0) {
+                pathFinder = new AndroidAppBFSPathFinder(rootNode, targetMethodFilter, reachingNodes, maxLength, deadline);
+            } else {
+                pathFinder = new AndroidAppDFSPathFinder(_callGraph, rootNode, targetMethodFilter, reachingNodes);
+            }
+
             //Set<CGNode> foundTargetMethods = new HashSet<CGNode>();
+            int numTargetPaths = 0;
+            boolean pathLimitReached = false;
 
             do {
                 List<CGNode> callPath = pathFinder.find();
@@ -505,16 +1129,30 @@ class TargetedPathsAnalysis {
                     IMethod invokedMethod = cha.resolveMethod(callsite.getDeclaredTarget());
 
                     if (invokedMethod != null && targetMethod.equals(invokedMethod.getSignature())) {
-                        Statistics.trackPath(callPath, invokedMethod);
+                        if (maxPaths > 0 && numTargetPaths >= maxPaths) {
+                            pathLimitReached = true;
+                            break;
+                        }
+
+                        _statistics.trackPath(callPath, invokedMethod);
 
-                        CallPath newPath = new CallPath(callPath, callsite, instrIndex, _callGraph, _pointerAnalysis);
+                        CallPath newPath = new CallPath(callPath, callsite, instrIndex, _callPathTrie, _pointerAnalysis);
                         callPaths.add(newPath);
+                        numTargetPaths++;
                     }
                 }
                 
-            } while (pathFinder.hasNext());
+            } while (!pathLimitReached && pathFinder.hasNext());
+
+            if (pathFinder instanceof BudgetedCallPathFinder) {
+                BudgetedCallPathFinder budgetedPathFinder = (BudgetedCallPathFinder)pathFinder;
+                _statistics.trackPathSearchTruncation(targetMethod, pathLimitReached, budgetedPathFinder.isLengthExceeded(), budgetedPathFinder.isDeadlineExceeded());
+            }
+
+            nodesVisited += pathFinder.getNodesVisited();
         }
 
+        entrypointMetrics.trackPathSearch(System.nanoTime() - startTime, nodesVisited, callPaths.size());
         return callPaths;
     }
 
@@ -533,7 +1171,7 @@ class TargetedPathsAnalysis {
             }
         };
 
-        DFSPathFinder<CGNode> pathFinder = new AndroidAppDFSPathFinder(_callGraph, _callGraph.getFakeRootNode(), targetStoreFilter);
+        DFSPathFinder<CGNode> pathFinder = new AndroidAppDFSPathFinder(_callGraph, _callGraph.getFakeRootNode(), targetStoreFilter, _reachability.getNodesReaching(targetNodes));
 
         do {
             List<CGNode> callPath = pathFinder.find();
@@ -588,22 +1226,22 @@ class TargetedPathsAnalysis {
                     if (symbolTable.isConstant(putInstr.getVal())) {
                         String storeValue = getConstantValueString(symbolTable, putInstr.getVal());
 
-                        Predicate storeValueConstraint = new Predicate(new Expression(Expression.Operator.EQ, new Expression("Pointer<" + storePointer.hashCode() + ">", field.getFieldTypeReference()), new Expression(storeValue, field.getFieldTypeReference())));
-                        Predicate testConstraint = new Predicate(Predicate.Operator.AND, storeConstraint, storeValueConstraint);
-                        ConstraintMinimization.minimize(testConstraint);
+                        Predicate storeValueConstraint = Predicate.make(Expression.make(Expression.Operator.EQ, Expression.make("Pointer<" + storePointer.hashCode() + ">", field.getFieldTypeReference()), Expression.make(storeValue, field.getFieldTypeReference())));
+                        Predicate testConstraint = Predicate.make(Predicate.Operator.AND, storeConstraint, storeValueConstraint);
+                        testConstraint = ConstraintMinimization.minimize(testConstraint);
 
                         if (testConstraint == null || testConstraint.isFalse()) {
                             continue;
                         }
                     }
 
-                    Statistics.trackPath(callPath, null);
+                    _statistics.trackPath(callPath, null);
 
                     CallPath newPath = null;
                     if (putInstr.isPEI()) {
-                        newPath = new CallPath(callPath, new ProgramCounter(cfg.getProgramCounter(instrIndex)), instrIndex, _callGraph, _pointerAnalysis);
+                        newPath = new CallPath(callPath, new ProgramCounter(cfg.getProgramCounter(instrIndex)), instrIndex, _callPathTrie, _pointerAnalysis);
                     } else {
-                        newPath = new CallPath(callPath, instrIndex, _callGraph, _pointerAnalysis);
+                        newPath = new CallPath(callPath, instrIndex, _callPathTrie, _pointerAnalysis);
                     }
 
                     return newPath;
@@ -632,7 +1270,7 @@ class TargetedPathsAnalysis {
             }
         };
 
-        DFSPathFinder<CGNode> pathFinder = new AndroidAppDFSPathFinder(_callGraph, _callGraph.getFakeRootNode(), targetStoreFilter);
+        DFSPathFinder<CGNode> pathFinder = new AndroidAppDFSPathFinder(_callGraph, _callGraph.getFakeRootNode(), targetStoreFilter, _reachability.getNodesReaching(targetNodes));
 
         do {
             List<CGNode> callPath = pathFinder.find();
@@ -695,9 +1333,9 @@ class TargetedPathsAnalysis {
                     }
                 }
 
-                Statistics.trackPath(callPath, targetMethod);
+                _statistics.trackPath(callPath, targetMethod);
 
-                CallPath newPath = new CallPath(callPath, invokeInstr.getCallSite(), instrIndex, _callGraph, _pointerAnalysis);
+                CallPath newPath = new CallPath(callPath, invokeInstr.getCallSite(), instrIndex, _callPathTrie, _pointerAnalysis);
                 return newPath;
             }
         } while (pathFinder.hasNext());
@@ -733,10 +1371,14 @@ class TargetedPathsAnalysis {
             }
         };
 
-        for (int i = callPath.getPath().size() - 1; i >= 0; i--) {
-            CGNode startNode = callPath.getPath().get(i);
+        BitSet reachingNodes = _reachability.getNodesReaching(getUINotificationNodes(targetMethodFilter));
+
+        List<CGNode> path = callPath.getPath();
+
+        for (int i = path.size() - 1; i >= 0; i--) {
+            CGNode startNode = path.get(i);
 
-            DFSPathFinder<CGNode> pathFinder = new AndroidAppDFSPathFinder(_callGraph, startNode, targetMethodFilter);
+            DFSPathFinder<CGNode> pathFinder = new AndroidAppDFSPathFinder(_callGraph, startNode, targetMethodFilter, reachingNodes);
 
             List<CGNode> uiPath = pathFinder.find();
             if (uiPath != null) {
@@ -754,11 +1396,11 @@ class TargetedPathsAnalysis {
                     }
 
                     if (AndroidMethods.isUINotificationMethod(targetMethod.getReference())) {
-                        uiCallPath = new CallPath(uiPath, callsite, -1, _callGraph, null);
+                        uiCallPath = new CallPath(uiPath, callsite, -1, _callPathTrie, null);
 
-                        Statistics.trackPath(uiPath, targetMethod);
+                        _statistics.trackPath(uiPath, targetMethod);
 
-                        if (IntelliDroidAppAnalysis.Config.PrintOutput) {
+                        if (_config.PrintOutput) {
                             printUIPath(uiCallPath, null);
                         }
 
@@ -771,6 +1413,20 @@ class TargetedPathsAnalysis {
         return null;
     }
 
+    private synchronized Set<CGNode> getUINotificationNodes(Filter<CGNode> uiNotificationFilter) {
+        if (_uiNotificationNodes == null) {
+            _uiNotificationNodes = new HashSet<CGNode>();
+
+            for (CGNode node : _callGraph) {
+                if (CallGraphReachability.isAppNode(node) && uiNotificationFilter.accepts(node)) {
+                    _uiNotificationNodes.add(node);
+                }
+            }
+        }
+
+        return _uiNotificationNodes;
+    }
+
     private CallPath findCallPathToCallbackRegistration(final CGNode targetNode, final int targetInstrIndex) {
         Filter<CGNode> targetMethodFilter = new Filter<CGNode>() {
             @Override
@@ -783,6 +1439,8 @@ class TargetedPathsAnalysis {
             }
         };
 
+        BitSet reachingNodes = _reachability.getNodesReaching(Collections.singleton(targetNode));
+
         for (IMethod entrypoint : _entrypointAnalysis.getEntrypoints()) {
             Set<CGNode> entrypointNodes= _callGraph.getNodes(entrypoint.getReference());
             if (entrypointNodes.isEmpty()) {
@@ -790,8 +1448,11 @@ class TargetedPathsAnalysis {
             }
 
             CGNode entrypointNode = entrypointNodes.iterator().next();
+            if (!entrypointNode.equals(targetNode) && !_reachability.canReach(entrypointNode, reachingNodes)) {
+                continue;
+            }
 
-            DFSPathFinder<CGNode> pathFinder = new AndroidAppDFSPathFinder(_callGraph, entrypointNode, targetMethodFilter);
+            DFSPathFinder<CGNode> pathFinder = new AndroidAppDFSPathFinder(_callGraph, entrypointNode, targetMethodFilter, reachingNodes);
             List<CGNode> callPath = pathFinder.find();
             if (callPath == null) {
                 continue;
@@ -804,9 +1465,9 @@ class TargetedPathsAnalysis {
             SSAAbstractInvokeInstruction targetInstr = (SSAAbstractInvokeInstruction)instructions[targetInstrIndex];
             IMethod targetMethod = _callGraph.getClassHierarchy().resolveMethod(targetInstr.getDeclaredTarget());
 
-            Statistics.trackPath(callPath, targetMethod);
+            _statistics.trackPath(callPath, targetMethod);
 
-            CallPath newPath = new CallPath(callPath, targetInstr.getCallSite(), targetInstrIndex, _callGraph, _pointerAnalysis);
+            CallPath newPath = new CallPath(callPath, targetInstr.getCallSite(), targetInstrIndex, _callPathTrie, _pointerAnalysis);
             return newPath;
         }
 
@@ -815,14 +1476,14 @@ class TargetedPathsAnalysis {
 
     //=========================================================================
 
-    private JsonObject writePathAndZ3Constraints(CallPath callPath, Predicate constraints, String z3FileName) {
-        IMethod entryMethod = callPath.getPath().get(0).getMethod();
+    private JsonObject writePathAndZ3Constraints(CallPath callPath, Predicate constraints, String z3FileName, Statistics.PathMetrics pathMetrics) {
+        IMethod entryMethod = callPath.getStartNode().getMethod();
         ProgramCounter target = callPath.getTarget();
         MethodReference callbackOverrideMethod = _entrypointAnalysis.getOverriddenFrameworkMethod(entryMethod);
         String frameworkZ3FileName = callbackOverrideMethod == null ? "unknown" : getFileFriendlyName(callbackOverrideMethod);
 
         JsonObject constraintJson = new JsonObject();
-        constraintJson.addProperty("start", callPath.getPath().get(0).getMethod().getSignature());
+        constraintJson.addProperty("start", callPath.getStartNode().getMethod().getSignature());
         constraintJson.addProperty("target", (target == null ? "" : target.toString()));
 
 
@@ -833,7 +1494,7 @@ class TargetedPathsAnalysis {
             constraintJson.addProperty("component", getComponentNameFromType(entryMethod.getDeclaringClass().getReference()));
 
         } else if (callbackType.equals("ui")) {
-            Set<TypeReference> uiActivities = _uiActivityAnalysis.getActivityForUIHandler(callPath.getPath().get(0).getMethod(), callbackOverrideMethod);
+            Set<TypeReference> uiActivities = _uiActivityAnalysis.getActivityForUIHandler(callPath.getStartNode().getMethod(), callbackOverrideMethod);
             JsonArray activitiesJson = new JsonArray();
 
             if (uiActivities.isEmpty()) {
@@ -866,23 +1527,60 @@ class TargetedPathsAnalysis {
 
         // Write separate file containing constraints (if they exist and aren't redundant)
         if (constraints != null && !constraints.isTrue()) {
-            Z3ConstraintGenerator z3Generator = new Z3ConstraintGenerator(constraints);
+            Z3ConstraintGenerator z3Generator = new Z3ConstraintGenerator(_constraintDeduplication.canonicalize(constraints));
+
+            // Paths with the same formula (up to variable names) share a constraint file
+            String constraintKey = _constraintDeduplication.getConstraintKey(z3Generator);
+            String duplicateZ3FileName = _constraintDeduplication.getConstraintID(constraintKey);
+
+            // The framework constraints are shared by all paths from the same callback, so they
+            // are written to a separate file that is referenced from the path's information
+            String frameworkConstraintCode = FrameworkConstraints.getConstraintCode(frameworkZ3FileName);
 
             try {
-                PrintWriter writer = new PrintWriter(IntelliDroidAppAnalysis.Config.OutputDirectory + "/" + z3FileName, "UTF-8");
-                File frameworkZ3File = new File(_frameworkZ3Dir + "/" + frameworkZ3FileName + ".py");
+                List<String> comments = new ArrayList<String>();
+                comments.add("Entrypoint: " + callPath.getStartNode().getMethod().getSignature());
+                comments.add("Target: " + (target == null ? "" : target.toString()));
+
+                long constraintBytes = 0;
+                long writtenBytes = 0;
+
+                if (duplicateZ3FileName != null) {
+                    z3FileName = duplicateZ3FileName;
+
+                    // Only generated to measure the size of the file that is not written
+                    if (_config.GenerateStats) {
+                        constraintBytes = writeConstraints(z3Generator, comments, new OutputStream() {
+                            @Override
+                            public void write(int b) {
+                            }
+
+                            @Override
+                            public void write(byte[] b, int off, int len) {
+                            }
+                        });
+                    }
+
+                    _statistics.trackDeduplicatedConstraints(constraintBytes);
+                } else {
+                    constraintBytes = writeConstraints(z3Generator, comments, new FileOutputStream(_config.OutputDirectory + "/" + z3FileName));
+                    writtenBytes = constraintBytes;
+                    _constraintDeduplication.addConstraintID(constraintKey, z3FileName);
 
-                if (frameworkZ3File.isFile()) {
-                    String frameworkConstraintCode = new String(Files.toByteArray(frameworkZ3File), "UTF-8");
-                    writer.print(frameworkConstraintCode);
-                    writer.println("");
+                    if (pathMetrics != null) {
+                        pathMetrics.trackConstraintFile(writtenBytes);
+                    }
                 }
 
-                writer.println("# Entrypoint: " + callPath.getPath().get(0).getMethod().getSignature());
-                writer.println("# Target: " + (target == null ? "" : target.toString()));
-                writer.println("");
-                writer.print(z3Generator.getZ3ConstraintCode());
-                writer.close();
+                long inlinedBytes = constraintBytes;
+
+                if (frameworkConstraintCode != null) {
+                    writeFrameworkConstraints(frameworkZ3FileName, frameworkConstraintCode);
+                    inlinedBytes += frameworkConstraintCode.getBytes("UTF-8").length + 1;
+                }
+
+                _statistics.trackConstraintFileBytes(writtenBytes, inlinedBytes);
+
             } catch (Exception e) {
                 System.err.println("Error: " + e.toString());
                 e.printStackTrace();
@@ -890,6 +1588,11 @@ class TargetedPathsAnalysis {
 
             // Add information about constraints
             constraintJson.addProperty("constraintsFile", z3FileName);
+
+            if (frameworkConstraintCode != null) {
+                constraintJson.addProperty("frameworkConstraintsFile", FrameworkConstraints.getOutputFileName(frameworkZ3FileName));
+            }
+
             constraintJson.add("variables", z3Generator.getVariableJsonObject());
             constraintJson.add("stringMap", z3Generator.getStringMapJsonObject());
             constraintJson.add("strings", z3Generator.getStringJsonObject());
@@ -898,6 +1601,34 @@ class TargetedPathsAnalysis {
         return constraintJson;
     }
 
+    // Writes the constraints in the output format; returns the number of bytes written
+    private long writeConstraints(Z3ConstraintGenerator z3Generator, List<String> comments, OutputStream outputStream) throws IOException {
+        CountingOutputStream countingStream = new CountingOutputStream(outputStream);
+        Writer writer = new BufferedWriter(new OutputStreamWriter(countingStream, "UTF-8"));
+
+        try {
+            _constraintEmitter.writeConstraints(z3Generator, comments, writer);
+        } finally {
+            writer.close();
+        }
+
+        return countingStream.getCount();
+    }
+
+    private void writeFrameworkConstraints(String frameworkZ3FileName, String frameworkConstraintCode) throws Exception {
+        if (!_writtenFrameworkConstraints.add(frameworkZ3FileName)) {
+            return;
+        }
+
+        File frameworkFile = new File(_config.OutputDirectory + "/" + FrameworkConstraints.getOutputFileName(frameworkZ3FileName));
+        frameworkFile.getParentFile().mkdirs();
+
+        byte[] frameworkBytes = (frameworkConstraintCode + "\n").getBytes("UTF-8");
+        Files.write(frameworkBytes, frameworkFile);
+
+        _statistics.trackConstraintFileBytes(frameworkBytes.length, 0);
+    }
+
     //=========================================================================
 
     private String getCallbackType(MethodReference callbackMethod) {
@@ -969,7 +1700,7 @@ class TargetedPathsAnalysis {
             } else if (symbolTable.isLongConstant(value)) {
                 return "" + symbolTable.getLongValue(value);
             } else if (symbolTable.isStringConstant(value)) {
-                //return new Expression("String<" + symbolTable.getStringValue(value) + ">", TypeReference.JavaLangString);
+                //return Expression.make("String<" + symbolTable.getStringValue(value) + ">", TypeReference.JavaLangString);
                 return "" + symbolTable.getStringValue(value);
             } else if (symbolTable.isNullConstant(value)) {
                 return "null";
@@ -1032,62 +1763,62 @@ class TargetedPathsAnalysis {
     }
 
     private void printCallPath(int callPathID, CallPath callPath, Predicate constraints) {
-        Output.printPathInfo("==============================================");
-        Output.printPathInfo("Path (" + callPathID + ") to: " + callPath.getTargetCallSite().toString());
+        Output.printPathInfo(_config, "==============================================");
+        Output.printPathInfo(_config, "Path (" + callPathID + ") to: " + callPath.getTargetCallSite().toString());
 
-        MethodReference frameworkMethod = _entrypointAnalysis.getOverriddenFrameworkMethod(callPath.getPath().get(0).getMethod());
-        Output.printPathInfo("    type: " + getCallbackType(frameworkMethod));
+        MethodReference frameworkMethod = _entrypointAnalysis.getOverriddenFrameworkMethod(callPath.getStartNode().getMethod());
+        Output.printPathInfo(_config, "    type: " + getCallbackType(frameworkMethod));
 
         for (CGNode node : callPath.getPath()) {
-            Output.printPathInfo("    " + node.getMethod().getSignature());
+            Output.printPathInfo(_config, "    " + node.getMethod().getSignature());
         }
 
-        Output.printConstraints(constraints);
+        Output.printConstraints(_config, constraints);
     }
 
     private void printHeapPath(CallPath storeCallPath, Predicate storeConstraints, PointerKey pKey) {
-        Output.printPathInfo("----------------------------------------------");
-        Output.printPathInfo("Heap constraint: " + pKey.toString() + "; pKey: " + pKey.hashCode());
+        Output.printPathInfo(_config, "----------------------------------------------");
+        Output.printPathInfo(_config, "Heap constraint: " + pKey.toString() + "; pKey: " + pKey.hashCode());
 
         // Print heap constraint info
         for (CGNode node : storeCallPath.getPath()) {
-            Output.printPathInfo("    " + node.getMethod().getSignature());
+            Output.printPathInfo(_config, "    " + node.getMethod().getSignature());
         }
 
-        Output.printConstraints(storeConstraints);
+        Output.printConstraints(_config, storeConstraints);
     }
 
     private void printSharedPrefPath(CallPath callPath, Predicate constraints, String key) {
-        Output.printPathInfo("----------------------------------------------");
-        Output.printPathInfo("SharedPreferences constraint: " + key);
+        Output.printPathInfo(_config, "----------------------------------------------");
+        Output.printPathInfo(_config, "SharedPreferences constraint: " + key);
 
         // Print constraint info
         for (CGNode node : callPath.getPath()) {
-            Output.printPathInfo("    " + node.getMethod().getSignature());
+            Output.printPathInfo(_config, "    " + node.getMethod().getSignature());
         }
 
-        Output.printConstraints(constraints);
+        Output.printConstraints(_config, constraints);
     }
 
     private void printUIPath(CallPath callPath, Predicate constraints) {
-        Output.printPathInfo("---------------------------");
-        Output.printPathInfo("UI notification: " + callPath.getTargetCallSite().toString());
+        Output.printPathInfo(_config, "---------------------------");
+        Output.printPathInfo(_config, "UI notification: " + callPath.getTargetCallSite().toString());
 
         for (CGNode pathNode : callPath.getPath()) {
-            Output.printPathInfo("    " + pathNode.getMethod().getSignature());
+            Output.printPathInfo(_config, "    " + pathNode.getMethod().getSignature());
         }
     }
 
     private void printCallbackRegistrationPath(CallPath callPath, Predicate constraints, IClass callbackClass) {
-        Output.printPathInfo("----------------------------------------------");
-        Output.printPathInfo("IPC constraint: " + callbackClass.getName().toString());
+        Output.printPathInfo(_config, "----------------------------------------------");
+        Output.printPathInfo(_config, "IPC constraint: " + callbackClass.getName().toString());
 
         // Print constraint info
         for (CGNode node : callPath.getPath()) {
-            Output.printPathInfo("    " + node.getMethod().getSignature());
+            Output.printPathInfo(_config, "    " + node.getMethod().getSignature());
         }
 
-        Output.printConstraints(constraints);
+        Output.printConstraints(_config, constraints);
     }
 }
 
@@ -26,18 +26,20 @@ class UIActivityMapping {
     private final boolean DEBUG = false;
 
     private final IClassHierarchy _cha;
+    private final String _appDirectory;
     private CallGraphInfoListener _callGraphInfoListener;
     private PointerAnalysis _pointerAnalysis;
 
     private Map<String, Set<String>> _handlerLayoutMap = new HashMap<String, Set<String>>();
     private Map<IMethod, Set<TypeReference>> _handlerActivityMap = new HashMap<IMethod, Set<TypeReference>>();
 
-    public UIActivityMapping(IClassHierarchy cha) {
+    public UIActivityMapping(IClassHierarchy cha, String appDirectory) {
         if (DEBUG) {
             System.out.println("=================================================");
         }
 
         _cha = cha;
+        _appDirectory = appDirectory;
 
         try {
             getLayoutIDs();
@@ -57,7 +59,7 @@ class UIActivityMapping {
     private Map<Integer, String> getLayoutIDs() {
         Map<Integer, String> idLayoutMap = new HashMap<Integer, String>();
         try {
-            File resourceFile = new File(IntelliDroidAppAnalysis.Config.AppDirectory + "/apk/res/values/public.xml");
+            File resourceFile = new File(_appDirectory + "/apk/res/values/public.xml");
             if (!resourceFile.exists()) {
                 return null;
             }
@@ -101,7 +103,7 @@ class UIActivityMapping {
     }
 
     private void getLayoutHandlers() throws Exception {
-        File resourceDir = new File(IntelliDroidAppAnalysis.Config.AppDirectory + "/apk/res/");
+        File resourceDir = new File(_appDirectory + "/apk/res/");
         if (!resourceDir.exists() || !resourceDir.isDirectory()) {
             return;
         }
@@ -199,7 +201,7 @@ class UIActivityMapping {
         return _handlerLayoutMap.containsKey(callbackMethod.getName().toString());
     }
 
-    public Set<TypeReference> getActivityForUIHandler(IMethod handler, MethodReference frameworkMethod) {
+    public synchronized Set<TypeReference> getActivityForUIHandler(IMethod handler, MethodReference frameworkMethod) {
         if (_handlerActivityMap.containsKey(handler)) {
             return _handlerActivityMap.get(handler);
         } else {
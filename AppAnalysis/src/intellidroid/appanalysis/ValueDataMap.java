@@ -0,0 +1,213 @@
+package intellidroid.appanalysis;
+
+import java.util.*;
+
+// Map from SSA value numbers to the data (expressions) they hold.  Value numbers are dense
+// within an IR, so the data is stored in an array indexed by value number.  Copies share the
+// array until one of them is modified (copy-on-write), so passing data between basic blocks
+// does not copy the map unless the block changes it.
+class ValueDataMap {
+    // Data for the fields of a Message (obj, arg1, arg2) is passed in the pseudo values -1, -2, -3
+    private static final int MIN_VALUE_NUMBER = -3;
+
+    private static final int MIN_CAPACITY = 16;
+    private static final ExpressionGroup[] EMPTY_VALUES = new ExpressionGroup[0];
+
+    private ExpressionGroup[] _values = EMPTY_VALUES;
+    private int _size = 0;
+    private boolean _shared = false;
+
+    public ValueDataMap() {
+    }
+
+    public ValueDataMap(ValueDataMap dataMap) {
+        share(dataMap);
+    }
+
+    public boolean containsKey(int valueNumber) {
+        return get(valueNumber) != null;
+    }
+
+    public ExpressionGroup get(int valueNumber) {
+        int index = valueNumber - MIN_VALUE_NUMBER;
+
+        if (index < 0 || index >= _values.length) {
+            return null;
+        }
+
+        return _values[index];
+    }
+
+    public void put(int valueNumber, ExpressionGroup exprGrp) {
+        if (exprGrp == null) {
+            remove(valueNumber);
+            return;
+        }
+
+        int index = getIndex(valueNumber);
+        prepareWrite(index + 1);
+
+        if (_values[index] == null) {
+            _size++;
+        }
+
+        _values[index] = exprGrp;
+    }
+
+    public void remove(int valueNumber) {
+        int index = getIndex(valueNumber);
+
+        if (index >= _values.length || _values[index] == null) {
+            return;
+        }
+
+        prepareWrite(index + 1);
+        _values[index] = null;
+        _size--;
+    }
+
+    public void putAll(ValueDataMap dataMap) {
+        if (_size == 0) {
+            share(dataMap);
+            return;
+        }
+
+        ExpressionGroup[] values = dataMap._values;
+
+        for (int i = 0; i < values.length; i++) {
+            // Only write (and copy the array) for data that differs
+            if (values[i] != null && (i >= _values.length || _values[i] != values[i])) {
+                put(i + MIN_VALUE_NUMBER, values[i]);
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        return _size == 0;
+    }
+
+    public int size() {
+        return _size;
+    }
+
+    // Value numbers with data, in increasing order
+    public int[] getValueNumbers() {
+        int[] valueNumbers = new int[_size];
+        int count = 0;
+
+        for (int i = 0; i < _values.length; i++) {
+            if (_values[i] != null) {
+                valueNumbers[count++] = i + MIN_VALUE_NUMBER;
+            }
+        }
+
+        return valueNumbers;
+    }
+
+    // Copy that also duplicates the expression groups (which are modifiable)
+    static public ValueDataMap duplicate(ValueDataMap dataMap) {
+        if (dataMap == null) {
+            return null;
+        }
+
+        ValueDataMap result = new ValueDataMap();
+        result._values = new ExpressionGroup[dataMap._values.length];
+        result._size = dataMap._size;
+
+        for (int i = 0; i < dataMap._values.length; i++) {
+            result._values[i] = ExpressionGroup.duplicate(dataMap._values[i]);
+        }
+
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof ValueDataMap)) {
+            return false;
+        }
+
+        ValueDataMap otherMap = (ValueDataMap)obj;
+
+        if (otherMap._values == _values) {
+            return true;
+        } else if (otherMap._size != _size) {
+            return false;
+        }
+
+        int length = Math.max(_values.length, otherMap._values.length);
+
+        for (int i = 0; i < length; i++) {
+            ExpressionGroup value = (i < _values.length) ? _values[i] : null;
+            ExpressionGroup otherValue = (i < otherMap._values.length) ? otherMap._values[i] : null;
+
+            // Expression groups are compared by identity (as in a HashMap)
+            if (value != otherValue) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 0;
+
+        for (int i = 0; i < _values.length; i++) {
+            if (_values[i] != null) {
+                hash += (i + MIN_VALUE_NUMBER) ^ _values[i].hashCode();
+            }
+        }
+
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder str = new StringBuilder("{");
+
+        for (int valueNumber : getValueNumbers()) {
+            if (str.length() > 1) {
+                str.append(", ");
+            }
+
+            str.append(valueNumber + "=" + get(valueNumber));
+        }
+
+        return str.append("}").toString();
+    }
+
+    //=========================================================================
+
+    private int getIndex(int valueNumber) {
+        if (valueNumber < MIN_VALUE_NUMBER) {
+            throw new IllegalArgumentException("Invalid value number: " + valueNumber);
+        }
+
+        return valueNumber - MIN_VALUE_NUMBER;
+    }
+
+    private void share(ValueDataMap dataMap) {
+        _values = dataMap._values;
+        _size = dataMap._size;
+        _shared = true;
+        dataMap._shared = true;
+    }
+
+    // Makes the array private to this map (if shared) and large enough to hold the given index
+    private void prepareWrite(int minLength) {
+        if (!_shared && _values.length >= minLength) {
+            return;
+        }
+
+        int length = _values.length;
+        if (length < minLength) {
+            length = Math.max(Math.max(minLength, length * 2), MIN_CAPACITY);
+        }
+
+        _values = Arrays.copyOf(_values, length);
+        _shared = false;
+    }
+}
+
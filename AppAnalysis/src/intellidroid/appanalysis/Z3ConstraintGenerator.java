@@ -8,22 +8,50 @@ class Z3ConstraintGenerator {
     Predicate _constraint;
     String _z3Constraint;
     String _z3VariableDeclarations;
-    Map<Expression, String> _variableMap = new HashMap<Expression, String>();
+    // In order of appearance, so that the declarations (and variable names) only depend on the formula
+    Map<Expression, String> _variableMap = new LinkedHashMap<Expression, String>();
     Map<String, Integer> _stringMap = new LinkedHashMap<String, Integer>();
     Set<String> _stringVariables = new HashSet<String>();
+    // Variables used in a bitwise operation somewhere in the constraint (declared as bit-vectors)
+    Set<String> _bitvecVariables = new HashSet<String>();
     int _variableNum = 0;
     int _stringNum = 7000;
 
+    // Subformulas that occur more than once in the constraint (which is a DAG, since predicates
+    // and expressions are hash-consed) are bound to an intermediate variable and referenced by
+    // name, rather than being printed at each occurrence
+    Map<Object, Integer> _references = new IdentityHashMap<Object, Integer>();
+    Map<Object, String> _boundNames = new IdentityHashMap<Object, String>();
+    StringBuilder _z3Bindings = new StringBuilder();
+    int _bindingNum = 0;
+
     public Z3ConstraintGenerator(Predicate constraint) {
         _constraint = constraint;
+        countReferences(constraint);
         _z3Constraint = generateZ3Constraint(constraint);
-        _z3VariableDeclarations = generateZ3VariableDeclarations();
+        unifyVariableTypes();
+        _z3VariableDeclarations = generateZ3VariableDeclarations(true);
     }
 
     public String getZ3ConstraintString() {
         return _z3Constraint;
     }
 
+    public Predicate getConstraint() {
+        return _constraint;
+    }
+
+    // Z3 variable names of the expressions, in order of appearance
+    public Map<Expression, String> getZ3Variables() {
+        return Collections.unmodifiableMap(_variableMap);
+    }
+
+    // Whether a (compound) predicate/expression occurs more than once in the constraint
+    public boolean isSharedNode(Object node) {
+        Integer references = _references.get(node);
+        return references != null && references > 1;
+    }
+
     public JsonObject getVariableJsonObject() {
         JsonObject jsonObject = new JsonObject();
 
@@ -64,6 +92,7 @@ class Z3ConstraintGenerator {
         StringBuilder code = new StringBuilder();
         code.append(_z3VariableDeclarations);
         code.append("\n");
+        code.append(_z3Bindings);
         //code.append("s = Solver()");
         //code.append("\n\n");
         code.append("s.add(");
@@ -78,7 +107,14 @@ class Z3ConstraintGenerator {
         return code.toString();
     }
 
-    private String getZ3Variable(Expression expr) {
+    // Code without the comments naming the variables; identical for formulas that only differ
+    // in the names of their variables and strings
+    public String getCanonicalZ3ConstraintCode() {
+        return generateZ3VariableDeclarations(false) + "\n" + _z3Bindings + _z3Constraint;
+    }
+
+    // Z3 variable, string ID or numeric constant for a variable expression
+    public String getZ3Variable(Expression expr) {
         String variable = expr.getVariable();
 
         if (expr.getType().equals(Expression.Type.STRING) && !expr.dependsOnInput() && 
@@ -109,7 +145,33 @@ class Z3ConstraintGenerator {
             }
         }
 
-        return _variableMap.get(expr);
+        String z3Variable = _variableMap.get(expr);
+        if (expr.getType().equals(Expression.Type.BITVEC)) {
+            _bitvecVariables.add(z3Variable);
+        }
+
+        return z3Variable;
+    }
+
+    // A variable can occur with different types (expressions are equal regardless of the types
+    // of their variables), but is declared once: if any occurrence is a bit-vector, all of them are
+    private void unifyVariableTypes() {
+        if (_bitvecVariables.isEmpty()) {
+            return;
+        }
+
+        Map<Expression, String> variableMap = new LinkedHashMap<Expression, String>();
+
+        for (Map.Entry<Expression, String> variable : _variableMap.entrySet()) {
+            Expression expr = variable.getKey();
+            if (_bitvecVariables.contains(variable.getValue())) {
+                expr = expr.withType(Expression.Type.BITVEC);
+            }
+
+            variableMap.put(expr, variable.getValue());
+        }
+
+        _variableMap = variableMap;
     }
 
     private String getNewZ3VariableName() {
@@ -147,7 +209,73 @@ class Z3ConstraintGenerator {
         }
     }
 
+    private void countReferences(Object node) {
+        if (!isCompoundNode(node)) {
+            return;
+        }
+
+        Integer references = _references.get(node);
+        _references.put(node, (references == null) ? 1 : references + 1);
+
+        // The children of a node are only counted once
+        if (references != null) {
+            return;
+        }
+
+        if (node instanceof Predicate) {
+            Predicate pred = (Predicate)node;
+
+            if (pred.isExpression()) {
+                countReferences(pred.getExpression());
+            } else if (pred.isUnary()) {
+                countReferences(pred.getLeft());
+            } else if (pred.isBinary()) {
+                countReferences(pred.getLeft());
+                countReferences(pred.getRight());
+            }
+        } else {
+            Expression expr = (Expression)node;
+            countReferences(expr.getLeft());
+            countReferences(expr.getRight());
+        }
+    }
+
+    private boolean isCompoundNode(Object node) {
+        if (node instanceof Predicate) {
+            Predicate pred = (Predicate)node;
+            return !pred.isExpression() || pred.getExpression().isExpression();
+        } else if (node instanceof Expression) {
+            return ((Expression)node).isExpression();
+        }
+
+        return false;
+    }
+
+    // Binds the code of a node that occurs more than once to a new intermediate variable
+    private String bindSharedNode(Object node, String z3Code) {
+        Integer references = _references.get(node);
+
+        if (references == null || references < 2) {
+            return z3Code;
+        }
+
+        String boundName = "IAAt" + (_bindingNum++);
+        _boundNames.put(node, boundName);
+
+        _z3Bindings.append(boundName);
+        _z3Bindings.append(" = ");
+        _z3Bindings.append(z3Code);
+        _z3Bindings.append("\n");
+
+        return boundName;
+    }
+
     private String generateZ3Constraint(Predicate constraint) {
+        String boundName = _boundNames.get(constraint);
+        if (boundName != null) {
+            return boundName;
+        }
+
         StringBuilder z3Constraint = new StringBuilder();
 
         if (constraint.isExpression()) {
@@ -166,10 +294,15 @@ class Z3ConstraintGenerator {
             z3Constraint.append(")");
         }
 
-        return z3Constraint.toString();
+        return bindSharedNode(constraint, z3Constraint.toString());
     }
 
     private String generateZ3Expression(Expression expr) {
+        String boundName = _boundNames.get(expr);
+        if (boundName != null) {
+            return boundName;
+        }
+
         StringBuilder z3Expression = new StringBuilder();
 
         if (expr.isVariable()) {
@@ -192,10 +325,10 @@ class Z3ConstraintGenerator {
             z3Expression.append(")");
         }
 
-        return z3Expression.toString();
+        return bindSharedNode(expr, z3Expression.toString());
     }
 
-    private String generateZ3VariableDeclarations() {
+    private String generateZ3VariableDeclarations(boolean includeComments) {
         StringBuilder declarations = new StringBuilder();
 
         for (Expression expr : _variableMap.keySet()) {
@@ -220,8 +353,11 @@ class Z3ConstraintGenerator {
                 declarations.append("\')");
             }
 
-            declarations.append("    # ");
-            declarations.append(expr.getVariable());
+            if (includeComments) {
+                declarations.append("    # ");
+                declarations.append(expr.getVariable());
+            }
+
             declarations.append("\n");
         }
 
@@ -0,0 +1,70 @@
+package intellidroid.appanalysis;
+
+import com.ibm.wala.ssa.SSAPhiInstruction;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ConstraintAnalysisWideningTest {
+    private static final int MAX_ALTERNATIVES = 256;
+
+    // Loop header: v3 = phi(v2, v5), where v2 comes from before the loop and v5 from the back edge
+    private static final int ENTRY_VALUE = 2;
+    private static final int LOOP_VALUE = 3;
+    private static final int BACK_EDGE_VALUE = 5;
+
+    private final SSAPhiInstruction _loopPhi = new SSAPhiInstruction(LOOP_VALUE, new int[] { ENTRY_VALUE, BACK_EDGE_VALUE });
+
+    @Test
+    public void mergesAlternativesWithinLimit() {
+        ValueDataMap dataMap = new ValueDataMap();
+        dataMap.put(ENTRY_VALUE, new ExpressionGroup(makeInput(0)));
+        dataMap.put(BACK_EDGE_VALUE, makeAlternatives(10));
+
+        assertTrue(ConstraintAnalysis.propagatePhiInstr(_loopPhi, dataMap, MAX_ALTERNATIVES));
+        assertEquals(11, dataMap.get(LOOP_VALUE).size());
+    }
+
+    @Test
+    public void widenedLoopValueDropsEarlierIteration() {
+        ValueDataMap dataMap = new ValueDataMap();
+        dataMap.put(ENTRY_VALUE, new ExpressionGroup(makeInput(0)));
+
+        // First iteration: only the entry value reaches the phi
+        assertTrue(ConstraintAnalysis.propagatePhiInstr(_loopPhi, dataMap, MAX_ALTERNATIVES));
+        assertEquals(1, dataMap.get(LOOP_VALUE).size());
+
+        // Later iteration: the loop-carried value has grown past the limit
+        dataMap.put(BACK_EDGE_VALUE, makeAlternatives(MAX_ALTERNATIVES));
+
+        assertFalse(ConstraintAnalysis.propagatePhiInstr(_loopPhi, dataMap, MAX_ALTERNATIVES));
+        assertFalse(dataMap.containsKey(LOOP_VALUE));
+    }
+
+    @Test
+    public void noLimitNeverWidens() {
+        ValueDataMap dataMap = new ValueDataMap();
+        dataMap.put(ENTRY_VALUE, new ExpressionGroup(makeInput(0)));
+        dataMap.put(BACK_EDGE_VALUE, makeAlternatives(MAX_ALTERNATIVES));
+
+        assertTrue(ConstraintAnalysis.propagatePhiInstr(_loopPhi, dataMap, 0));
+        assertEquals(MAX_ALTERNATIVES + 1, dataMap.get(LOOP_VALUE).size());
+    }
+
+    //=========================================================================
+
+    private static Expression makeInput(int index) {
+        return Expression.make("<Input1>.getIntExtra(count" + index + ")", Expression.Type.INT);
+    }
+
+    // Distinct alternatives, none equal to the entry value
+    private static ExpressionGroup makeAlternatives(int count) {
+        ExpressionGroup exprGrp = new ExpressionGroup();
+
+        for (int i = 1; i <= count; i++) {
+            exprGrp.add(makeInput(i));
+        }
+
+        return exprGrp;
+    }
+}
@@ -53,6 +53,22 @@ z3CodeTable = {
     "onLocationChanged" : open(SCRIPT_DIR + "/../FrameworkAnalysis/z3output/Landroid.location.LocationListener.onLocationChanged.py", "r").read()
 }
 
+# Framework constraints shared by the constraint files of an app (see "frameworkConstraintsFile")
+frameworkZ3CodeCache = {}
+
+def readConstraintCode(appDir, constraintInfo):
+    z3Code = ""
+
+    if "frameworkConstraintsFile" in constraintInfo:
+        frameworkFile = appDir + "/" + constraintInfo["frameworkConstraintsFile"]
+        if frameworkFile not in frameworkZ3CodeCache:
+            frameworkZ3CodeCache[frameworkFile] = open(frameworkFile).read() + "\n"
+
+        z3Code += frameworkZ3CodeCache[frameworkFile]
+
+    z3Code += open(appDir + "/" + constraintInfo["constraintsFile"]).read()
+    return z3Code
+
 triggerInputTable = {
     "sms" : {
         "<Input2>.getExtras().get(pdus).<SmsMessage>.getDisplayOriginatingAddress()" : "senderNumber",
@@ -104,7 +120,7 @@ def generateLocationInput(locationInfo):
 
     if "constraintsFile" in locationInfo:
         constraintFile = appDir + "/" + locationInfo["constraintsFile"]
-        z3Code = open(constraintFile).read();
+        z3Code = readConstraintCode(appDir, locationInfo)
 
     # Add framework constraints
     z3Code += z3CodeTable["onLocationChanged"]
@@ -206,7 +222,7 @@ def generateSmsInput(appDir, constraintInfo, timeInfo):
     constraintFile = appDir + "/" + constraintInfo["constraintsFile"]
     variables = constraintInfo["variables"]
 
-    z3Code = open(constraintFile).read();
+    z3Code = readConstraintCode(appDir, constraintInfo)
 
     # Use Z3 to solve constraints
     s = Solver()
@@ -274,7 +290,7 @@ def generateIntentInput(constraintInfo):
     constraintFile = appDir + "/" + constraintInfo["constraintsFile"]
     variables = constraintInfo["variables"]
 
-    z3Code = open(constraintFile).read();
+    z3Code = readConstraintCode(appDir, constraintInfo)
 
     # Use Z3 to solve constraints
     s = Solver()